@@ -0,0 +1,163 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.plugin.captions.ModuleCaptionsBase;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Line splitting of recognized results, the substring scanning implementation previously in {@link CaptionHelper}
+ * against {@link CaptionSegmenter}. The corpora are transcript passages of the length Azure returns for a long
+ * utterance and its translations. {@code unicode} measures {@link UnicodeCaptionSegmenter} on the same text, whose
+ * break iterators are reused from the benchmark thread. Run with {@code gradlew jmh -PjmhIncludes=CaptionSegmenterBenchmark}
+ * and the {@code gc} profiler to compare allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CaptionSegmenterBenchmark
+{
+    private static final int MAX_LINE_LENGTH = 37;
+    private static final String SPEAKER_CHANGE_INDICATOR = ">>";
+
+    private static final String ENGLISH = "Good morning everyone, and welcome to the keynote. Before we get started, I want to thank our " +
+            "attendees, both here in the room and online, for joining us this year. >> Thanks. So here at Rising, we are joined by " +
+            "customers from more than forty countries, and that's really the story of the last twelve months: live video has gone " +
+            "global, and with it the expectation that every stream is accessible. Captions used to be an afterthought, something you " +
+            "bolted on for compliance, but today they drive engagement, search and retention. >> And translation? >> Exactly, " +
+            "translation too. Our greatest weakness lies in giving up; the most certain way to succeed is always to try just one " +
+            "more time. That's what our engineering team did when they rebuilt the captioning pipeline from the ground up.";
+    private static final String SPANISH = "Buenos días a todos y bienvenidos a la presentación principal. Antes de empezar, quiero " +
+            "agradecer a nuestros asistentes, tanto aquí en la sala como en línea, por acompañarnos este año. >> Gracias. Aquí en " +
+            "Rising nos acompañan clientes de más de cuarenta países, y esa es realmente la historia de los últimos doce meses: el " +
+            "vídeo en directo se ha vuelto global y, con él, la expectativa de que cada transmisión sea accesible. Los subtítulos " +
+            "solían ser algo secundario, algo que se añadía por cumplimiento, pero hoy impulsan la participación, la búsqueda y la " +
+            "retención. >> ¿Y la traducción? >> Exacto, la traducción también.";
+    private static final String JAPANESE = "皆さん、おはようございます。基調講演へようこそ。始める前に、会場とオンラインの両方で参加して" +
+            "くださった皆さんに感謝します。>> ありがとうございます。ライジングには四十か国以上からお客様にお集まりいただいています。" +
+            "これがこの十二か月の物語です。ライブ映像は世界に広がり、すべての配信がアクセシブルであることが期待されるようになりました。" +
+            "字幕はかつて後回しにされるものでしたが、今日ではエンゲージメント、検索、そして視聴継続を支えています。>> 翻訳は？ >> そうです、翻訳もです。";
+
+    @Param({"eng", "spa", "ja"})
+    public String corpus;
+
+    private String text;
+    private String[] firstPassTerminators;
+    private String[] secondPassTerminators;
+    private int maxWidth;
+    private CaptionSegmenter segmenter;
+    private UnicodeCaptionSegmenter unicodeSegmenter;
+
+    @Setup
+    public void setup()
+    {
+        if (corpus.equals("ja"))
+        {
+            text = JAPANESE;
+            firstPassTerminators = new String[]{"，", "、", "；", "？", "！", "?", "!", ",", ";"};
+            secondPassTerminators = new String[]{"。", " "};
+            maxWidth = CaptionHelper.defaultMaxLineLengthMBCS;
+        }
+        else
+        {
+            text = corpus.equals("spa") ? SPANISH : ENGLISH;
+            firstPassTerminators = Arrays.stream(ModuleCaptionsBase.DEFAULT_FIRST_PASS_TERMINATORS.split("\\|"))
+                    .filter(Predicate.not(String::isBlank)).toArray(String[]::new);
+            secondPassTerminators = new String[]{" "};
+            maxWidth = MAX_LINE_LENGTH;
+        }
+        segmenter = new CaptionSegmenter(maxWidth, firstPassTerminators, secondPassTerminators, ModuleCaptionsBase.DEFAULT_FIRST_PASS_PERCENTAGE,
+                SPEAKER_CHANGE_INDICATOR);
+        unicodeSegmenter = new UnicodeCaptionSegmenter(UnicodeCaptionSegmenter.toLocale(corpus), MAX_LINE_LENGTH, firstPassTerminators,
+                ModuleCaptionsBase.DEFAULT_FIRST_PASS_PERCENTAGE, SPEAKER_CHANGE_INDICATOR);
+    }
+
+    @Benchmark
+    public List<String> legacy()
+    {
+        List<String> captionLines = new ArrayList<>();
+        int index = 0;
+        while (index < text.length())
+        {
+            while (text.length() > index && text.charAt(index) == ' ')
+                index++;
+            int lineLength = legacyBestWidth(index);
+            captionLines.add(text.substring(index, index + lineLength).trim());
+            index = index + lineLength;
+        }
+        return captionLines;
+    }
+
+    @Benchmark
+    public List<String> segmenter()
+    {
+        return segmenter.split(text);
+    }
+
+    @Benchmark
+    public List<String> unicode()
+    {
+        return unicodeSegmenter.split(text);
+    }
+
+    private int legacyBestWidth(int startIndex)
+    {
+        int speakerIndex = text.indexOf(SPEAKER_CHANGE_INDICATOR, startIndex);
+        if (speakerIndex != -1)
+        {
+            if (speakerIndex == startIndex)
+                speakerIndex = text.indexOf(SPEAKER_CHANGE_INDICATOR, speakerIndex + SPEAKER_CHANGE_INDICATOR.length());
+            if (speakerIndex > startIndex)
+            {
+                int width = speakerIndex - startIndex;
+                if (width <= maxWidth)
+                    return width;
+            }
+        }
+
+        int remaining = text.length() - startIndex;
+        if (remaining <= maxWidth)
+            return remaining;
+        int firstPass = legacyFindBestWidth(firstPassTerminators, startIndex);
+        if (firstPass == maxWidth)
+            return firstPass;
+        int firstPassWordCount = legacyWordCount(startIndex, firstPass);
+        int secondPass = legacyFindBestWidth(secondPassTerminators, startIndex);
+        int secondPassWordCount = legacyWordCount(startIndex, secondPass);
+        if (firstPassWordCount == 0 && secondPassWordCount == 0)
+            return maxWidth;
+        return (secondPassWordCount == 0 || (firstPassWordCount * 100.0f) / secondPassWordCount > ModuleCaptionsBase.DEFAULT_FIRST_PASS_PERCENTAGE) ? firstPass : secondPass;
+    }
+
+    private int legacyWordCount(int startIndex, int length)
+    {
+        if (length < 0)
+            return 0;
+        return text.substring(startIndex, startIndex + length).trim().split("\\s").length;
+    }
+
+    private int legacyFindBestWidth(String[] terminators, int startAt)
+    {
+        int remaining = text.length() - startAt;
+        int bestWidth = -1;
+        for (String terminator : terminators)
+        {
+            int checkChars = Math.min(remaining, maxWidth);
+            if (terminator.endsWith(" "))
+                checkChars += 1;
+            int width = text.substring(startAt, startAt + checkChars).lastIndexOf(terminator);
+            if (width > bestWidth)
+                bestWidth = width + terminator.length();
+        }
+        return bestWidth;
+    }
+}
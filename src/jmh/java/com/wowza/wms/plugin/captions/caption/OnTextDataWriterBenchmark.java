@@ -0,0 +1,58 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.amf.AMFDataItem;
+import com.wowza.wms.amf.AMFDataList;
+import com.wowza.wms.amf.AMFDataObj;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one {@code onTextData} caption payload, the {@code AMFDataList} path previously in
+ * {@link DelayedStreamCaptionHandler#handleCaption} against {@link OnTextDataWriter}. Run with
+ * {@code gradlew jmh -PjmhIncludes=OnTextDataWriterBenchmark} and the {@code gc} profiler to compare allocation per
+ * operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OnTextDataWriterBenchmark
+{
+    @Param({"eng", "jpn"})
+    public String language;
+
+    private final OnTextDataWriter writer = new OnTextDataWriter();
+    private String text;
+
+    @Setup
+    public void setup()
+    {
+        text = language.equals("jpn") ? "字幕は音声認識で生成されます。\n翻訳された字幕も同時に送信されます。" :
+                "Our greatest weakness lies in giving up.\nThe most certain way to succeed is";
+    }
+
+    @Benchmark
+    public byte[] amfDataList()
+    {
+        AMFDataObj amfData = new AMFDataObj();
+        amfData.put("text", new AMFDataItem(text));
+        amfData.put("language", new AMFDataItem(language));
+        amfData.put("trackid", new AMFDataItem(99));
+
+        AMFDataList dataList = new AMFDataList();
+        dataList.add(new AMFDataItem("onTextData"));
+        dataList.add(amfData);
+        return dataList.serialize();
+    }
+
+    @Benchmark
+    public byte[] writer()
+    {
+        return writer.write(text, language, 99);
+    }
+}
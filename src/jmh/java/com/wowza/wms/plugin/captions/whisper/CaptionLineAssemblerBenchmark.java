@@ -0,0 +1,124 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.plugin.captions.caption.CaptionHelper;
+import com.wowza.wms.plugin.captions.whisper.model.CaptionLine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line assembly for one Whisper response, the previous regex/Instant based implementation against
+ * {@link CaptionLineAssembler}. Lines are drained after every response, as the caption output does, so the
+ * assembler runs in its steady state. Run with {@code gradlew jmh -PjmhIncludes=CaptionLineAssemblerBenchmark} and
+ * the {@code gc} profiler to compare allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptionLineAssemblerBenchmark
+{
+    private static final int MAX_LINE_LENGTH = 37;
+    private static final int NEW_LINE_THRESHOLD = 500;
+    private static final String TEXT = " Our greatest weakness lies in giving up. The most certain way to succeed is always to try just one more time.";
+
+    private final LinkedList<CaptionLine> legacyLines = new LinkedList<>();
+    private final CaptionLineAssembler assembler = new CaptionLineAssembler("eng", MAX_LINE_LENGTH, NEW_LINE_THRESHOLD);
+    private float start = 0;
+
+    @Benchmark
+    public void legacy(Blackhole blackhole)
+    {
+        float responseStart = nextStart();
+        legacyAppend(responseStart, responseStart + 3.5f);
+        CaptionLine line;
+        while ((line = legacyLines.poll()) != null)
+            blackhole.consume(line);
+    }
+
+    @Benchmark
+    public void assembler(Blackhole blackhole)
+    {
+        float responseStart = nextStart();
+        assembler.append(TEXT, (long) (responseStart * 1000), (long) ((responseStart + 3.5f) * 1000));
+        CaptionLine line;
+        while ((line = assembler.pollFirst()) != null)
+        {
+            blackhole.consume(line.getEndMillis());
+            assembler.recycle(line);
+        }
+    }
+
+    private float nextStart()
+    {
+        start += 4.5f;
+        if (start > 100000)
+            start = 0;
+        return start;
+    }
+
+    // the implementation previously in WhisperSpeechToTextHandler.handleWhisperResponse
+    private void legacyAppend(float responseStart, float responseEnd)
+    {
+        Instant start = CaptionHelper.epochInstantFromMillis((long) (responseStart * 1000));
+        Instant end = CaptionHelper.epochInstantFromMillis((long) (responseEnd * 1000));
+
+        StringBuilder sb = new StringBuilder();
+        CaptionLine line = legacyLines.peekLast();
+        if (line != null && Duration.between(line.getEnd(), start).toMillis() < NEW_LINE_THRESHOLD)
+        {
+            sb.append(line.getText());
+        }
+        else
+        {
+            line = new CaptionLine("eng");
+            line.setStart(start);
+            legacyLines.add(line);
+        }
+
+        List<String> items = Arrays.stream(TEXT.split("\\s+")).toList();
+
+        float duration = responseEnd - responseStart;
+        float perWordDuration = duration / items.size();
+        Instant currentEnd = end;
+        for (int i = 0; i < items.size(); i++)
+        {
+            String item = items.get(i);
+            float itemStart = responseStart + (i * perWordDuration);
+            float itemEnd = itemStart + perWordDuration;
+            int length = sb.length();
+            if (length > 0)
+            {
+                if (length + 1 + item.length() > MAX_LINE_LENGTH)
+                {
+                    line.setEnd(currentEnd);
+                    line.setText(sb.toString());
+                    sb.setLength(0);
+                    line = new CaptionLine("eng");
+                    line.setStart(CaptionHelper.epochInstantFromMillis((long) (itemStart * 1000)));
+                    legacyLines.add(line);
+                }
+                else
+                    sb.append(" ");
+            }
+            sb.append(item);
+            currentEnd = CaptionHelper.epochInstantFromMillis((long) (itemEnd * 1000));
+        }
+        String text = sb.toString();
+        if (!text.isEmpty())
+        {
+            line.setEnd(currentEnd);
+            line.setText(text);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a burst of Whisper responses, as read from one connection, with the previous databind path (new factory
+ * and mapper per connection, {@code readValue} per object) and with {@link WhisperResponseDecoder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WhisperResponseDecoderBenchmark
+{
+    @Param({"1", "100", "1000"})
+    public int responsesPerConnection;
+
+    private byte[] stream;
+
+    @Setup
+    public void setUp()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < responsesPerConnection; i++)
+        {
+            sb.append("{\"language\":\"en\",\"text\":\" and that is why we keep trying one more time, every single day\",")
+                    .append("\"start\":").append(i * 1.5f).append(",\"end\":").append(i * 1.5f + 1.25f)
+                    .append(",\"segments\":[{\"id\":").append(i).append(",\"no_speech_prob\":0.01}]}\n");
+        }
+        stream = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void objectMapperPerConnection(Blackhole blackhole) throws IOException
+    {
+        JsonFactory factory = new JsonFactory();
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonParser parser = factory.createParser(new ByteArrayInputStream(stream));
+        while (!parser.isClosed())
+        {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT)
+                blackhole.consume(objectMapper.readValue(parser, WhisperResponse.class));
+        }
+    }
+
+    @Benchmark
+    public void streamingDecoder(Blackhole blackhole) throws IOException
+    {
+        JsonParser parser = WhisperResponseDecoder.JSON_FACTORY.createParser(new ByteArrayInputStream(stream));
+        WhisperResponseDecoder decoder = new WhisperResponseDecoder();
+        WhisperResponse response;
+        while ((response = decoder.next(parser)) != null)
+        {
+            blackhole.consume(response.getText());
+            blackhole.consume(response.getEnd());
+        }
+    }
+}
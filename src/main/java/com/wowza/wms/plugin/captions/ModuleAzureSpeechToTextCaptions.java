@@ -8,17 +8,19 @@ package com.wowza.wms.plugin.captions;
 import com.microsoft.cognitiveservices.speech.SpeechConfig;
 import com.wowza.wms.plugin.captions.audio.SpeechHandler;
 import com.wowza.wms.plugin.captions.azure.AzureCaptionsTranscoderActionListener;
-import com.wowza.wms.plugin.captions.stream.DelayedStream;
 import com.wowza.wms.plugin.captions.stream.DelayedStreamListener;
 import com.wowza.wms.plugin.captions.stream.LiveStreamPacketizerListener;
 import com.wowza.wms.plugin.captions.transcoder.CaptionsTranscoderCreateListener;
 import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
 import com.wowza.wms.logging.*;
 import com.wowza.wms.stream.*;
 import com.wowza.wms.timedtext.model.ITimedTextConstants;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ModuleAzureSpeechToTextCaptions extends ModuleCaptionsBase
 {
@@ -43,11 +45,19 @@ public class ModuleAzureSpeechToTextCaptions extends ModuleCaptionsBase
     public static final String PROP_PROFANITY_MASK_OPTION = "speechToTextProfanityMaskOption";
     public static final String PROP_SUBSCRIPTION_KEY = "speechToTextSubscriptionKey";
     public static final String PROP_SERVICE_REGION = "speechToTextServiceRegion";
+    public static final String PROP_CAPTION_DISPATCH_THREADS = "speechToTextCaptionDispatchThreads";
+    public static final String PROP_CAPTION_DISPATCH_QUEUE_SIZE = "speechToTextCaptionDispatchQueueSize";
+    public static final int DEFAULT_CAPTION_DISPATCH_QUEUE_SIZE = 1024;
+    public static final String PROP_AUDIO_CHUNK_MILLIS = "speechToTextAudioChunkMillis";
+    public static final long DEFAULT_AUDIO_CHUNK_MILLIS = 100;
+    public static final String PROP_AUDIO_FLUSH_DEADLINE = "speechToTextAudioFlushDeadline";
+    public static final long DEFAULT_AUDIO_FLUSH_DEADLINE = 150;
     private final Map<String, SpeechHandler> speechHandlers = new ConcurrentHashMap<>();
-    private final Map<String, DelayedStream> delayedStreams = new ConcurrentHashMap<>();
     private DelayedStreamListener delayedStreamListener;
     private String subscriptionKey;
     private String serviceRegion;
+    private ThreadPoolExecutor captionDispatchExecutor;
+    private final AtomicLong captionDispatchCallerRuns = new AtomicLong();
     private boolean enabled = false;
 
     public void onAppCreate(IApplicationInstance appInstance)
@@ -73,10 +83,11 @@ public class ModuleAzureSpeechToTextCaptions extends ModuleCaptionsBase
             return;
         try
         {
+            captionDispatchExecutor = createCaptionDispatchExecutor(appInstance);
             appInstance.addLiveStreamPacketizerListener(new LiveStreamPacketizerListener(appInstance));
             appInstance.addLiveStreamTranscoderListener(new CaptionsTranscoderCreateListener(new AzureCaptionsTranscoderActionListener(appInstance, speechHandlers, delayedStreams,
-                    subscriptionKey, serviceRegion)));
-            delayedStreamListener = new DelayedStreamListener(appInstance, delayedStreams);
+                    handlerThreads, delayedStreamScheduler, captionDispatchExecutor, subscriptionKey, serviceRegion)));
+            delayedStreamListener = new DelayedStreamListener(appInstance, delayedStreams, delayedStreamScheduler);
             appInstance.addMediaCasterListener(delayedStreamListener);
         }
         catch (Exception e)
@@ -85,6 +96,43 @@ public class ModuleAzureSpeechToTextCaptions extends ModuleCaptionsBase
         }
     }
 
+    // segments and dispatches recognized results of all streams of the application instance off the recognizer callback
+    // threads, none when the thread count is 0. A full queue or a shut down executor makes the submitting thread run the task itself.
+    private ThreadPoolExecutor createCaptionDispatchExecutor(IApplicationInstance appInstance)
+    {
+        WMSProperties props = appInstance.getProperties();
+        int threads = props.getPropertyInt(PROP_CAPTION_DISPATCH_THREADS, Runtime.getRuntime().availableProcessors());
+        if (threads <= 0)
+            return null;
+        String contextStr = appInstance.getContextStr();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, props.getPropertyInt(PROP_CAPTION_DISPATCH_QUEUE_SIZE, DEFAULT_CAPTION_DISPATCH_QUEUE_SIZE))), r -> {
+                    Thread thread = new Thread(r, "CaptionDispatch-" + threadCount.incrementAndGet() + "[" + contextStr + "]");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (r, e) -> {
+                    // unlike CallerRunsPolicy also after shutdown, a discarded dispatch would leave its language's later dispatches waiting
+                    captionDispatchCallerRuns.incrementAndGet();
+                    r.run();
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public void onAppStop(IApplicationInstance appInstance)
+    {
+        if (captionDispatchExecutor != null)
+        {
+            logger.info(String.format("%s.onAppStop: [%s] caption dispatch: threads=%d, largestPool=%d, completed=%d, callerRuns=%d", MODULE_NAME,
+                    appInstance.getContextStr(), captionDispatchExecutor.getMaximumPoolSize(), captionDispatchExecutor.getLargestPoolSize(),
+                    captionDispatchExecutor.getCompletedTaskCount(), captionDispatchCallerRuns.get()));
+            captionDispatchExecutor.shutdown();
+        }
+        captionDispatchExecutor = null;
+        super.onAppStop(appInstance);
+    }
+
     public void onStreamCreate(IMediaStream stream)
     {
         if (!enabled)
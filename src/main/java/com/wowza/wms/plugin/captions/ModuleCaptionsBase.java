@@ -9,8 +9,16 @@ import com.wowza.wms.application.IApplicationInstance;
 import com.wowza.wms.logging.WMSLogger;
 import com.wowza.wms.logging.WMSLoggerFactory;
 import com.wowza.wms.module.ModuleBase;
+import com.wowza.wms.plugin.captions.stream.DelayedStream;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
 import com.wowza.wms.timedtext.model.ITimedTextConstants;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class ModuleCaptionsBase extends ModuleBase
 {
     public static Class CLASS = ModuleCaptionsBase.class;
@@ -22,6 +30,28 @@ public class ModuleCaptionsBase extends ModuleBase
     public static final String PROP_CAPTIONS_STREAM_DELAY = "captionHandlerStreamDelay";
     public static final String PROP_CAPTIONS_DEBUG_LOG = "captionHandlerDebug";
     public static final String PROP_DELAYED_STREAM_DEBUG_LOG = "captionHandlerDelayedStreamDebugLog";
+    public static final String PROP_DELAYED_STREAM_STORAGE = "captionHandlerDelayedStreamStorage";
+    public static final String PROP_DELAYED_STREAM_CHUNK_SIZE = "captionHandlerDelayedStreamChunkSize";
+    public static final int DEFAULT_DELAYED_STREAM_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final String PROP_DELAYED_STREAM_SPILL_DIR = "captionHandlerDelayedStreamSpillDir";
+    public static final String PROP_ADAPTIVE_STREAM_DELAY = "captionHandlerAdaptiveDelay";
+    public static final String PROP_MIN_STREAM_DELAY = "captionHandlerMinStreamDelay";
+    public static final long DEFAULT_MIN_STREAM_DELAY = 5000;
+    public static final String PROP_MAX_STREAM_DELAY = "captionHandlerMaxStreamDelay";
+    public static final String PROP_ADAPTIVE_DELAY_MARGIN = "captionHandlerAdaptiveDelayMargin";
+    public static final long DEFAULT_ADAPTIVE_DELAY_MARGIN = 1000;
+    public static final String PROP_ADAPTIVE_DELAY_STEP = "captionHandlerAdaptiveDelayStep";
+    public static final long DEFAULT_ADAPTIVE_DELAY_STEP = 500;
+    public static final String PROP_CATCH_UP_STREAM_DELAY = "captionHandlerCatchUpDelay";
+    public static final String PROP_CAPTION_SINKS = "captionHandlerSinks";
+    public static final String PROP_CAPTION_SINK_QUEUE_SIZE = "captionHandlerSinkQueueSize";
+    public static final int DEFAULT_CAPTION_SINK_QUEUE_SIZE = 256;
+    public static final String PROP_CAPTION_ARCHIVE_DIR = "captionHandlerArchiveDir";
+    public static final String PROP_CAPTION_ARCHIVE_SEGMENT_SIZE = "captionHandlerArchiveSegmentSize";
+    public static final int DEFAULT_CAPTION_ARCHIVE_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final String PROP_CAPTION_ARCHIVE_FLUSH_INTERVAL = "captionHandlerArchiveFlushInterval";
+    public static final long DEFAULT_CAPTION_ARCHIVE_FLUSH_INTERVAL = 1000;
+    public static final String PROP_LATE_CAPTION_POLICY = "captionHandlerLateCaptionPolicy";
     public static final String PROP_MAX_CAPTION_LINE_LENGTH = "captionHandlerMaxLineLength";
     public static final String PROP_MAX_CAPTION_LINE_COUNT = "captionHandlerMaxLines";
     public static final String PROP_LINE_TERMINATORS = "captionHandlerFirstPassTerminators";
@@ -30,10 +60,17 @@ public class ModuleCaptionsBase extends ModuleBase
     public static final int DEFAULT_FIRST_PASS_PERCENTAGE = 60;
     public static final String PROP_SPEAKER_CHANGE_INDICATOR = "captionHandlerSpeakerChangeIndicator";
     public static final String DEFAULT_SPEAKER_CHANGE_INDICATOR = ">>";
+    public static final String PROP_SEGMENTATION_MODE = "captionHandlerSegmentationMode";
     public static final String PROP_NEW_LINE_THRESHOLD = "captionHandlerNewLineThreshold";
     public static final int DEFAULT_NEW_LINE_THRESHOLD = 250;
+    public static final String PROP_HANDLER_THREAD_MODE = "captionHandlerThreadMode";
+    public static final String PROP_MAX_HANDLER_THREADS = "captionHandlerMaxThreads";
+    public static final int DEFAULT_MAX_HANDLER_THREADS = 256;
 
     protected WMSLogger logger;
+    protected HandlerThreads handlerThreads;
+    protected ScheduledExecutorService delayedStreamScheduler;
+    protected final Map<String, DelayedStream> delayedStreams = new ConcurrentHashMap<>();
 
     public void onAppCreate(IApplicationInstance appInstance)
     {
@@ -42,5 +79,33 @@ public class ModuleCaptionsBase extends ModuleBase
         if (suffixes != null)
             appInstance.getProperties()
                     .setProperty("dvrRecorderControlSuffixes", suffixes + "," + DELAYED_STREAM_SUFFIX + "," + RESAMPLED_STREAM_SUFFIX);
+        handlerThreads = new HandlerThreads(appInstance);
+        delayedStreamScheduler = createDelayedStreamScheduler(appInstance);
+    }
+
+    // releases the packets of all delayed streams of the application instance, one task per stream due time
+    private static ScheduledExecutorService createDelayedStreamScheduler(IApplicationInstance appInstance)
+    {
+        String contextStr = appInstance.getContextStr();
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "DelayedStreamRelease-" + threadCount.incrementAndGet() + "[" + contextStr + "]");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // streams reschedule when an earlier packet arrives, don't keep the replaced tasks queued
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    public void onAppStop(IApplicationInstance appInstance)
+    {
+        if (handlerThreads != null)
+            handlerThreads.shutdown();
+        // the scheduler runs no releases once shut down, publish what the streams still buffer first
+        delayedStreams.values().forEach(DelayedStream::stop);
+        delayedStreams.clear();
+        if (delayedStreamScheduler != null)
+            delayedStreamScheduler.shutdown();
     }
 }
@@ -6,14 +6,21 @@
 package com.wowza.wms.plugin.captions;
 
 import com.wowza.wms.plugin.captions.audio.SpeechHandler;
-import com.wowza.wms.plugin.captions.stream.DelayedStream;
 import com.wowza.wms.plugin.captions.stream.DelayedStreamListener;
 import com.wowza.wms.plugin.captions.stream.LiveStreamPacketizerListener;
 import com.wowza.wms.plugin.captions.transcoder.CaptionsTranscoderCreateListener;
+import com.wowza.wms.plugin.captions.util.TimerWheel;
+import com.wowza.wms.plugin.captions.whisper.FramedWhisperTransport;
+import com.wowza.wms.plugin.captions.whisper.WhisperBackendPool;
+import com.wowza.wms.plugin.captions.whisper.NioWhisperTransport;
+import com.wowza.wms.plugin.captions.whisper.SocketWhisperTransport;
 import com.wowza.wms.plugin.captions.whisper.WhisperCaptionsTranscoderActionListener;
+import com.wowza.wms.plugin.captions.whisper.WhisperTransport;
 import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
 import com.wowza.wms.stream.IMediaStream;
 
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.Map;
@@ -23,6 +30,9 @@ public class ModuleWhisperCaptions extends ModuleCaptionsBase
 {
 
     private static final String DEFAULT_WS_URL = "ws://localhost/ws:3000";
+    // caption flush deadlines are delay / 2 ahead, a 20 ms tick and 512 buckets cover about 10 seconds per turn
+    private static final long FLUSH_TIMER_TICK = 20;
+    private static final int FLUSH_TIMER_WHEEL_SIZE = 512;
 
     static
     {
@@ -31,11 +41,34 @@ public class ModuleWhisperCaptions extends ModuleCaptionsBase
     }
 
     public static final String PROP_CAPTIONS_ENABLED = "whisperCaptionsEnabled";
+    public static final String PROP_WHISPER_SOCKET_HOST = "whisperSocketHost";
+    public static final String DEFAULT_WHISPER_SOCKET_HOST = "localhost";
+    public static final String PROP_WHISPER_SOCKET_PORT = "whisperSocketPort";
+    public static final int DEFAULT_WHISPER_SOCKET_PORT = 3000;
+    public static final String PROP_WHISPER_SOCKET_HOSTS = "whisperSocketHosts";
+    public static final String PROP_WHISPER_BACKEND_ROUTING = "whisperBackendRouting";
+    public static final String PROP_WHISPER_BACKEND_RETRY_DELAY = "whisperBackendRetryDelay";
+    public static final long DEFAULT_WHISPER_BACKEND_RETRY_DELAY = 10000;
+    public static final String PROP_WHISPER_TRANSPORT = "whisperTransport";
+    public static final String PROP_WHISPER_NIO_SELECTOR_COUNT = "whisperNioSelectorCount";
+    public static final int DEFAULT_WHISPER_NIO_SELECTOR_COUNT = 1;
+    public static final String PROP_WHISPER_FRAMED_POOL_SIZE = "whisperFramedPoolSize";
+    public static final int DEFAULT_WHISPER_FRAMED_POOL_SIZE = 2;
+    public static final String PROP_WHISPER_AUDIO_BUFFER_SIZE = "whisperAudioBufferSize";
+    // 30 seconds of 16 kHz, 16 bit mono PCM as produced by the audioResample transcoder template
+    public static final int DEFAULT_WHISPER_AUDIO_BUFFER_SIZE = 30 * 16000 * 2;
+    public static final String PROP_WHISPER_AUDIO_BUFFER_DIRECT = "whisperAudioBufferDirect";
+    public static final String PROP_WHISPER_AUDIO_OVERLOAD_POLICY = "whisperAudioOverloadPolicy";
+    public static final String PROP_WHISPER_AUDIO_COALESCE_BYTES = "whisperAudioCoalesceBytes";
+    // 5 seconds of audio
+    public static final int DEFAULT_WHISPER_AUDIO_COALESCE_BYTES = 5 * 16000 * 2;
 
     private final Map<String, SpeechHandler> speechHandlers = new ConcurrentHashMap<>();
-    private final Map<String, DelayedStream> delayedStreams = new ConcurrentHashMap<>();
 
     private DelayedStreamListener delayedStreamListener;
+    private WhisperTransport transport;
+    private WhisperBackendPool backendPool;
+    private TimerWheel flushTimer;
 
     private boolean enabled = DEFAULT_CAPTIONS_ENABLED;
 
@@ -50,9 +83,13 @@ public class ModuleWhisperCaptions extends ModuleCaptionsBase
         logger.info(MODULE_NAME + ".onAppStart[" + appInstance.getContextStr() + "]");
         try
         {
+            transport = createTransport(appInstance);
+            backendPool = new WhisperBackendPool(appInstance, transport);
+            flushTimer = new TimerWheel(logger, "CaptionFlushTimer[" + appInstance.getContextStr() + "]", FLUSH_TIMER_TICK, FLUSH_TIMER_WHEEL_SIZE);
             appInstance.addLiveStreamPacketizerListener(new LiveStreamPacketizerListener(appInstance));
-            appInstance.addLiveStreamTranscoderListener(new CaptionsTranscoderCreateListener(new WhisperCaptionsTranscoderActionListener(appInstance, speechHandlers, delayedStreams)));
-            delayedStreamListener = new DelayedStreamListener(appInstance, delayedStreams);
+            appInstance.addLiveStreamTranscoderListener(new CaptionsTranscoderCreateListener(new WhisperCaptionsTranscoderActionListener(appInstance, speechHandlers, delayedStreams,
+                    handlerThreads, delayedStreamScheduler, backendPool, flushTimer)));
+            delayedStreamListener = new DelayedStreamListener(appInstance, delayedStreams, delayedStreamScheduler);
             appInstance.addMediaCasterListener(delayedStreamListener);
         }
         catch (Exception e)
@@ -61,6 +98,35 @@ public class ModuleWhisperCaptions extends ModuleCaptionsBase
         }
     }
 
+    public void onAppStop(IApplicationInstance appInstance)
+    {
+        if (backendPool != null)
+            logger.info(MODULE_NAME + ".onAppStop[" + appInstance.getContextStr() + "] Whisper backends: " + backendPool.getStats());
+        backendPool = null;
+        if (flushTimer != null)
+        {
+            logger.info(MODULE_NAME + ".onAppStop[" + appInstance.getContextStr() + "] caption flush timer: " + flushTimer.getStats());
+            flushTimer.stop();
+        }
+        flushTimer = null;
+        if (transport != null)
+            transport.close();
+        transport = null;
+        super.onAppStop(appInstance);
+    }
+
+    private WhisperTransport createTransport(IApplicationInstance appInstance) throws IOException
+    {
+        WMSProperties props = appInstance.getProperties();
+        String transportType = props.getPropertyStr(PROP_WHISPER_TRANSPORT, WhisperTransport.TRANSPORT_SOCKET);
+        logger.info(MODULE_NAME + ".onAppStart[" + appInstance.getContextStr() + "] Whisper transport: " + transportType);
+        if (WhisperTransport.TRANSPORT_NIO.equalsIgnoreCase(transportType))
+            return new NioWhisperTransport(appInstance, props.getPropertyInt(PROP_WHISPER_NIO_SELECTOR_COUNT, DEFAULT_WHISPER_NIO_SELECTOR_COUNT));
+        if (WhisperTransport.TRANSPORT_FRAMED.equalsIgnoreCase(transportType))
+            return new FramedWhisperTransport(appInstance, handlerThreads, props.getPropertyInt(PROP_WHISPER_FRAMED_POOL_SIZE, DEFAULT_WHISPER_FRAMED_POOL_SIZE));
+        return new SocketWhisperTransport(appInstance, handlerThreads);
+    }
+
     public void onStreamCreate(IMediaStream stream)
     {
         if (!enabled)
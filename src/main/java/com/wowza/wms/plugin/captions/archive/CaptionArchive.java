@@ -0,0 +1,349 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.archive;
+
+import com.wowza.wms.plugin.captions.caption.Caption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the captions of one stream session, kept in memory-mapped segment files with an in-memory time
+ * index.
+ * <p>
+ * Segments are named {@code segment-NNNNNN.log} and preallocated to {@code segmentSize} bytes. A new one is started
+ * when a record does not fit. A segment starts with a magic number and version, followed by records of
+ * {@code [int length][int crc32][long begin][long end][int trackId][short languageLength][language][text]}, strings in
+ * UTF-8. A zero length marks the end of the written part of a segment. Opening an existing archive replays its
+ * segments to rebuild the index, stopping a segment at the first torn or corrupt record, and appends to a new
+ * segment.
+ * <p>
+ * The index holds the begin time and location of every record, sorted by begin time, so {@link #find} seeks to a time
+ * range without reading the records in front of it. Appended records reach the page cache right away, {@link #flush}
+ * forces them to disk. Thread safe.
+ */
+public class CaptionArchive implements AutoCloseable
+{
+    static final int MAGIC = 0x4341504C; // "CAPL"
+    static final short VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    // length, crc, begin, end, trackId, languageLength
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 2;
+    public static final int MIN_SEGMENT_SIZE = 4096;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+    private boolean closed = false;
+    private final CRC32 crc = new CRC32();
+
+    // time index, parallel arrays sorted by begin: begin time and (segment number << 32 | record position)
+    private long[] indexBegin = new long[1024];
+    private long[] indexLocation = new long[1024];
+    private int indexSize = 0;
+    // longest caption, how far before a range a caption overlapping it can begin
+    private long maxDuration = 0;
+
+    private long appendedCount = 0;
+    private long replayedCount = 0;
+    private long corruptSegmentCount = 0;
+
+    /**
+     * Opens the archive in {@code dir}, creating the directory when missing and replaying the segments already there.
+     */
+    public CaptionArchive(Path dir, int segmentSize) throws IOException
+    {
+        this.dir = dir;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir))
+        {
+            Path[] existing = files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toArray(Path[]::new);
+            for (Path file : existing)
+                replaySegment(file);
+        }
+    }
+
+    /**
+     * Appends {@code caption}, starting a new segment when it does not fit in the current one.
+     */
+    public synchronized void append(Caption caption) throws IOException
+    {
+        if (closed)
+            throw new IOException("caption archive " + dir + " is closed");
+        byte[] language = caption.getLanguage() != null ? caption.getLanguage().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] text = caption.getText() != null ? caption.getText().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = RECORD_HEADER_SIZE + language.length + text.length;
+        if (language.length > Short.MAX_VALUE || SEGMENT_HEADER_SIZE + length + 4 > segmentSize)
+            throw new IOException("caption of " + length + " bytes does not fit in a " + segmentSize + " byte segment");
+        // keep room for the zero length end marker
+        if (current == null || current.writePos + length + 4 > segmentSize)
+            startSegment();
+
+        MappedByteBuffer buffer = current.buffer;
+        int position = current.writePos;
+        buffer.position(position + 8);
+        buffer.putLong(caption.getBegin());
+        buffer.putLong(caption.getEnd());
+        buffer.putInt(caption.getTrackId());
+        buffer.putShort((short) language.length);
+        buffer.put(language);
+        buffer.put(text);
+        buffer.putInt(position + 4, checksum(buffer, position + 8, length - 8));
+        // the length goes in last, a record is only visible to replay once complete
+        buffer.putInt(position, length);
+        current.writePos += length;
+        addToIndex(caption.getBegin(), caption.getEnd(), current.number, position);
+        appendedCount++;
+    }
+
+    /**
+     * Forces appended records to disk.
+     */
+    public synchronized void flush()
+    {
+        if (current != null && !closed)
+            current.buffer.force();
+    }
+
+    /**
+     * Calls {@code consumer} with every caption in the archive in begin time order.
+     */
+    public synchronized void replay(Consumer<Caption> consumer)
+    {
+        for (int i = 0; i < indexSize; i++)
+            consumer.accept(read(indexLocation[i]));
+    }
+
+    /**
+     * Captions of {@code language} ({@code null} for all) overlapping the {@code [from, to)} time range, in begin time
+     * order.
+     */
+    public synchronized List<Caption> find(String language, long from, long to)
+    {
+        List<Caption> captions = new ArrayList<>();
+        for (int i = firstIndexAtOrAfter(from - maxDuration); i < indexSize && indexBegin[i] < to; i++)
+        {
+            Caption caption = read(indexLocation[i]);
+            if (caption.getEnd() > from && (language == null || language.equals(caption.getLanguage())))
+                captions.add(caption);
+        }
+        return captions;
+    }
+
+    public synchronized int size()
+    {
+        return indexSize;
+    }
+
+    public Path getDir()
+    {
+        return dir;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (closed)
+            return;
+        flush();
+        closed = true;
+        // mapped buffers are unmapped when they are garbage collected
+        segments.clear();
+        current = null;
+    }
+
+    public synchronized String getStats()
+    {
+        return "[dir=" + dir + ", segments=" + segments.size() + ", captions=" + indexSize + ", appended=" + appendedCount +
+                ", replayed=" + replayedCount + ", corruptSegments=" + corruptSegmentCount + "]";
+    }
+
+    private void startSegment() throws IOException
+    {
+        if (current != null)
+            current.buffer.force();
+        int number = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).number + 1;
+        Path file = dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        current = new Segment(number, buffer);
+        current.writePos = SEGMENT_HEADER_SIZE;
+        segments.add(current);
+    }
+
+    private void replaySegment(Path file) throws IOException
+    {
+        String name = file.getFileName().toString();
+        int number;
+        try
+        {
+            number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Segment segment = new Segment(number, buffer);
+        segments.add(segment);
+        int limit = buffer.capacity();
+        if (limit < SEGMENT_HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION)
+        {
+            corruptSegmentCount++;
+            return;
+        }
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + 4 <= limit)
+        {
+            int length = buffer.getInt(position);
+            if (length == 0)
+                break;
+            if (length < RECORD_HEADER_SIZE || position + length > limit ||
+                    buffer.getInt(position + 4) != checksum(buffer, position + 8, length - 8))
+            {
+                // torn write or corruption, nothing after it in this segment can be trusted
+                corruptSegmentCount++;
+                break;
+            }
+            Caption caption = read(buffer, position);
+            addToIndex(caption.getBegin(), caption.getEnd(), number, position);
+            replayedCount++;
+            position += length;
+        }
+        segment.writePos = position;
+    }
+
+    private Caption read(long location)
+    {
+        int number = (int) (location >>> 32);
+        int position = (int) location;
+        return read(segmentByNumber(number).buffer, position);
+    }
+
+    private static Caption read(ByteBuffer buffer, int position)
+    {
+        int length = buffer.getInt(position);
+        long begin = buffer.getLong(position + 8);
+        long end = buffer.getLong(position + 16);
+        int trackId = buffer.getInt(position + 24);
+        int languageLength = buffer.getShort(position + 28);
+        int textStart = position + RECORD_HEADER_SIZE + languageLength;
+        String language = languageLength == 0 ? null : string(buffer, position + RECORD_HEADER_SIZE, languageLength);
+        String text = string(buffer, textStart, position + length - textStart);
+        return new Caption(language, begin, end, text, trackId);
+    }
+
+    private static String string(ByteBuffer buffer, int position, int length)
+    {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int checksum(ByteBuffer buffer, int position, int length)
+    {
+        crc.reset();
+        crc.update(buffer.slice(position, length));
+        return (int) crc.getValue();
+    }
+
+    private Segment segmentByNumber(int number)
+    {
+        // segment numbers are ascending, usually without gaps
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int midNumber = segments.get(mid).number;
+            if (midNumber < number)
+                low = mid + 1;
+            else if (midNumber > number)
+                high = mid - 1;
+            else
+                return segments.get(mid);
+        }
+        throw new IllegalStateException("no segment " + number + " in " + dir);
+    }
+
+    private void addToIndex(long begin, long end, int segmentNumber, int position)
+    {
+        if (indexSize == indexBegin.length)
+        {
+            indexBegin = Arrays.copyOf(indexBegin, indexSize * 2);
+            indexLocation = Arrays.copyOf(indexLocation, indexSize * 2);
+        }
+        // captions of different languages arrive slightly out of order, shift them into place
+        int i = indexSize;
+        while (i > 0 && indexBegin[i - 1] > begin)
+            i--;
+        if (i < indexSize)
+        {
+            System.arraycopy(indexBegin, i, indexBegin, i + 1, indexSize - i);
+            System.arraycopy(indexLocation, i, indexLocation, i + 1, indexSize - i);
+        }
+        indexBegin[i] = begin;
+        indexLocation[i] = ((long) segmentNumber << 32) | (position & 0xFFFFFFFFL);
+        indexSize++;
+        maxDuration = Math.max(maxDuration, end - begin);
+    }
+
+    private int firstIndexAtOrAfter(long begin)
+    {
+        int low = 0;
+        int high = indexSize;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (indexBegin[mid] < begin)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static final class Segment
+    {
+        private final int number;
+        private final MappedByteBuffer buffer;
+        private int writePos;
+
+        private Segment(int number, MappedByteBuffer buffer)
+        {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+}
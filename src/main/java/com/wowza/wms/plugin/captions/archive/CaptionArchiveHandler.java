@@ -0,0 +1,184 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.archive;
+
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.caption.Caption;
+import com.wowza.wms.plugin.captions.caption.CaptionHandler;
+import com.wowza.wms.plugin.captions.caption.CaptionTiming;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.*;
+
+/**
+ * Caption sink that appends every caption to a {@link CaptionArchive}, one per stream session in
+ * {@code <captionHandlerArchiveDir>/<stream>/<session start>}, with a {@code -<n>} suffix when another session started
+ * in the same millisecond. Add it to {@code captionHandlerSinks} so it runs on its own worker thread rather than the
+ * recognition thread. Appends go to the mapped segment, which is forced to disk at most
+ * {@code captionHandlerArchiveFlushInterval} ms after the first caption not yet forced, whether or not more captions
+ * follow, and when the handler is closed.
+ */
+public class CaptionArchiveHandler implements CaptionHandler
+{
+    private static final Class<CaptionArchiveHandler> CLASS = CaptionArchiveHandler.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+    // forces the archives of all streams once their flush interval is up, its thread only runs while forces are pending
+    private static final ScheduledThreadPoolExecutor FLUSH_SCHEDULER = createFlushScheduler();
+
+    private final WMSLogger logger;
+    private final String name;
+    private final long flushInterval;
+    private final CaptionArchive archive;
+    // guarded by this
+    private long lastFlush = System.currentTimeMillis();
+    private ScheduledFuture<?> flushTask;
+    private boolean closed = false;
+    private int wordsPerMinute = 0;
+
+    public CaptionArchiveHandler(IApplicationInstance appInstance, String streamName)
+    {
+        this.logger = WMSLoggerFactory.getLoggerObj(CLASS, appInstance);
+        this.name = appInstance.getContextStr() + "/" + streamName;
+        WMSProperties props = appInstance.getProperties();
+        this.flushInterval = props.getPropertyLong(PROP_CAPTION_ARCHIVE_FLUSH_INTERVAL, DEFAULT_CAPTION_ARCHIVE_FLUSH_INTERVAL);
+        String archiveDir = props.getPropertyStr(PROP_CAPTION_ARCHIVE_DIR, Paths.get(appInstance.getStreamStorageDir(), "captions").toString());
+        Path dir = Paths.get(archiveDir, streamName.replace(".stream", "").replaceAll("[^A-Za-z0-9._-]", "_"),
+                new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()));
+        CaptionArchive archive = null;
+        try
+        {
+            dir = createSessionDir(dir);
+            archive = new CaptionArchive(dir, props.getPropertyInt(PROP_CAPTION_ARCHIVE_SEGMENT_SIZE, DEFAULT_CAPTION_ARCHIVE_SEGMENT_SIZE));
+            logger.info(CLASS_NAME + " [" + name + "] archiving captions to " + dir);
+        }
+        catch (IOException e)
+        {
+            logger.error(CLASS_NAME + " [" + name + "] cannot open caption archive " + dir + ", captions are not archived: " + e, e);
+        }
+        this.archive = archive;
+    }
+
+    private static ScheduledThreadPoolExecutor createFlushScheduler()
+    {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, CLASS_NAME + ".Flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setKeepAliveTime(60, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    // a session directory of its own, sessions started in the same millisecond would otherwise share segment files
+    private static Path createSessionDir(Path dir) throws IOException
+    {
+        Files.createDirectories(dir.getParent());
+        for (int i = 1; ; i++)
+        {
+            Path sessionDir = i == 1 ? dir : dir.resolveSibling(dir.getFileName() + "-" + i);
+            try
+            {
+                return Files.createDirectory(sessionDir);
+            }
+            catch (FileAlreadyExistsException e)
+            {
+                // taken, try the next suffix
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handleCaption(Caption caption)
+    {
+        if (archive == null)
+            return;
+        try
+        {
+            archive.append(caption);
+            if (flushTask == null)
+            {
+                long delay = Math.max(0, lastFlush + flushInterval - System.currentTimeMillis());
+                flushTask = FLUSH_SCHEDULER.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error(CLASS_NAME + ".handleCaption [" + name + "] failed to archive caption: " + caption + ": " + e);
+        }
+    }
+
+    private synchronized void flush()
+    {
+        flushTask = null;
+        if (closed)
+            return;
+        archive.flush();
+        lastFlush = System.currentTimeMillis();
+    }
+
+    public CaptionArchive getArchive()
+    {
+        return archive;
+    }
+
+    @Override
+    public int getWordsPerMinute()
+    {
+        return wordsPerMinute;
+    }
+
+    @Override
+    public void setWordsPerMinute(int wordsPerMinute)
+    {
+        this.wordsPerMinute = wordsPerMinute;
+    }
+
+    /**
+     * Archives have no playout timing, the delayed stream handler provides it.
+     */
+    @Override
+    public CaptionTiming getCaptionTiming()
+    {
+        return null;
+    }
+
+    @Override
+    public long getStreamDelay()
+    {
+        return 0;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (archive == null || closed)
+            return;
+        closed = true;
+        if (flushTask != null)
+        {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        // closing forces what is left
+        archive.close();
+        logger.info(CLASS_NAME + ".close [" + name + "] " + archive.getStats());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.archive;
+
+import com.wowza.wms.plugin.captions.caption.Caption;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes archived captions as WebVTT or SubRip (SRT) files. Cue times are the caption times minus {@code offset}, so
+ * an export of a time range can start at zero.
+ */
+public class CaptionExporter
+{
+    public static final String FORMAT_WEBVTT = "vtt";
+    public static final String FORMAT_SRT = "srt";
+
+    private CaptionExporter()
+    {
+    }
+
+    /**
+     * Exports the captions of {@code language} ({@code null} for all) overlapping {@code [from, to)} in
+     * {@code format}, with cue times relative to {@code from}.
+     */
+    public static void export(CaptionArchive archive, String language, long from, long to, String format, Writer out) throws IOException
+    {
+        List<Caption> captions = archive.find(language, from, to);
+        if (FORMAT_SRT.equalsIgnoreCase(format))
+            writeSrt(captions, from, out);
+        else
+            writeWebVtt(captions, from, out);
+    }
+
+    public static void writeWebVtt(List<Caption> captions, long offset, Writer out) throws IOException
+    {
+        out.write("WEBVTT\n\n");
+        for (Caption caption : captions)
+        {
+            out.write(timestamp(caption.getBegin() - offset, '.'));
+            out.write(" --> ");
+            out.write(timestamp(caption.getEnd() - offset, '.'));
+            out.write('\n');
+            out.write(cueText(caption.getText()).replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+            out.write("\n\n");
+        }
+        out.flush();
+    }
+
+    public static void writeSrt(List<Caption> captions, long offset, Writer out) throws IOException
+    {
+        int number = 1;
+        for (Caption caption : captions)
+        {
+            out.write(Integer.toString(number++));
+            out.write('\n');
+            out.write(timestamp(caption.getBegin() - offset, ','));
+            out.write(" --> ");
+            out.write(timestamp(caption.getEnd() - offset, ','));
+            out.write('\n');
+            out.write(cueText(caption.getText()));
+            out.write("\n\n");
+        }
+        out.flush();
+    }
+
+    // a blank line would end the cue early
+    private static String cueText(String text)
+    {
+        return text.strip().replaceAll("\\n\\s*\\n", "\n");
+    }
+
+    static String timestamp(long millis, char separator)
+    {
+        long ms = Math.max(0, millis);
+        return String.format("%02d:%02d:%02d%c%03d", ms / 3_600_000, ms / 60_000 % 60, ms / 1000 % 60, separator, ms % 1000);
+    }
+}
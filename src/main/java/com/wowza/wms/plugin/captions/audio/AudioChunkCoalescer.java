@@ -0,0 +1,153 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.audio;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Collects small PCM frames into chunks of a fixed size before handing them to a sink, such as a speech SDK push
+ * stream where every write crosses into native code.
+ * <p>
+ * Frames are copied into one reused chunk buffer and a full chunk is passed to the sink as is, so the sink must be
+ * done with the array when it returns. A frame at least a chunk long arriving while nothing is buffered is passed on
+ * without copying. Buffered audio is never held longer than {@code flushDeadline} ms: it is flushed as a shorter
+ * chunk by the next {@link #write} or {@link #flushIfDue} after the deadline, and by {@link #flush()}.
+ * <p>
+ * Frame and chunk counts and rates are kept for {@link #getStats()}. Thread safe, the transcoder thread writes while
+ * the handler thread checks the deadline.
+ */
+public class AudioChunkCoalescer
+{
+    // 16 kHz 16 bit mono PCM, as the transcoder resamples audio for speech recognition
+    public static final int BYTES_PER_MILLISECOND = 16000 * 2 / 1000;
+
+    private final Consumer<byte[]> sink;
+    private final byte[] chunk;
+    private final long flushDeadline;
+    private final long createdAt = System.currentTimeMillis();
+    private int length = 0;
+    // when the oldest buffered byte arrived
+    private long bufferedSince = -1;
+
+    private long frames = 0;
+    private long frameBytes = 0;
+    private long chunks = 0;
+    private long chunkBytes = 0;
+    private long deadlineFlushes = 0;
+
+    public AudioChunkCoalescer(int chunkSize, long flushDeadline, Consumer<byte[]> sink)
+    {
+        // whole 16 bit samples
+        this.chunk = new byte[Math.max(2, chunkSize & ~1)];
+        this.flushDeadline = flushDeadline;
+        this.sink = sink;
+    }
+
+    public static AudioChunkCoalescer forMillis(long chunkMillis, long flushDeadline, Consumer<byte[]> sink)
+    {
+        return new AudioChunkCoalescer((int) (chunkMillis * BYTES_PER_MILLISECOND), flushDeadline, sink);
+    }
+
+    public void write(byte[] frame)
+    {
+        write(frame, System.currentTimeMillis());
+    }
+
+    synchronized void write(byte[] frame, long now)
+    {
+        frames++;
+        frameBytes += frame.length;
+        if (length == 0 && frame.length >= chunk.length)
+        {
+            emit(frame);
+            return;
+        }
+        int offset = 0;
+        while (offset < frame.length)
+        {
+            if (length == 0)
+                bufferedSince = now;
+            int count = Math.min(chunk.length - length, frame.length - offset);
+            System.arraycopy(frame, offset, chunk, length, count);
+            length += count;
+            offset += count;
+            if (length == chunk.length)
+            {
+                emit(chunk);
+                length = 0;
+            }
+        }
+        flushIfDue(now);
+    }
+
+    /**
+     * Flushes buffered audio when it has been held for {@code flushDeadline} ms. Returns the ms until buffered audio
+     * will be due, {@code flushDeadline} when nothing is buffered.
+     */
+    public synchronized long flushIfDue(long now)
+    {
+        if (length == 0)
+            return flushDeadline;
+        long due = bufferedSince + flushDeadline;
+        if (now < due)
+            return due - now;
+        deadlineFlushes++;
+        flush();
+        return flushDeadline;
+    }
+
+    /**
+     * Passes any buffered audio to the sink, as a chunk of its own length.
+     */
+    public synchronized void flush()
+    {
+        if (length == 0)
+            return;
+        emit(Arrays.copyOf(chunk, length));
+        length = 0;
+    }
+
+    private void emit(byte[] data)
+    {
+        chunks++;
+        chunkBytes += data.length;
+        sink.accept(data);
+    }
+
+    public int getChunkSize()
+    {
+        return chunk.length;
+    }
+
+    public synchronized int getBuffered()
+    {
+        return length;
+    }
+
+    public synchronized long getFrameCount()
+    {
+        return frames;
+    }
+
+    public synchronized long getChunkCount()
+    {
+        return chunks;
+    }
+
+    public synchronized long getDeadlineFlushCount()
+    {
+        return deadlineFlushes;
+    }
+
+    public synchronized String getStats()
+    {
+        double seconds = Math.max(1, System.currentTimeMillis() - createdAt) / 1000.0;
+        return String.format("frames=%d (%.1f/s, avg %d bytes), chunks=%d (%.1f/s, avg %d bytes), deadlineFlushes=%d, chunkSize=%d",
+                frames, frames / seconds, frames == 0 ? 0 : frameBytes / frames, chunks, chunks / seconds, chunks == 0 ? 0 : chunkBytes / chunks,
+                deadlineFlushes, chunk.length);
+    }
+}
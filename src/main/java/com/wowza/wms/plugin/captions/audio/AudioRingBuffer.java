@@ -0,0 +1,368 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.audio;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size byte ring used to hand PCM audio from the transcoder thread (single producer) to a speech handler
+ * thread (single consumer).
+ * <p>
+ * Frames are copied into the ring once. The consumer drains everything that is available in one go as at most two
+ * {@link ByteBuffer} views over the backing memory, suitable for a gathering write, and then commits the number of
+ * bytes actually consumed. Backing buffers, heap or direct, are pooled and reused across streams.
+ * <p>
+ * The ring never grows. When a frame does not fit, the {@link OverloadPolicy} decides in constant time what to
+ * discard, and the discarded bytes are counted.
+ */
+public class AudioRingBuffer
+{
+    public enum OverloadPolicy
+    {
+        /** discard the oldest buffered audio to make room for the new frame */
+        DROP_OLDEST("drop-oldest"),
+        /** discard the new frame, keep the buffered audio */
+        DROP_NEWEST("drop-newest"),
+        /** keep only the most recent coalesce window of audio, which the consumer then sends as one catch-up burst */
+        COALESCE("coalesce");
+
+        private final String name;
+
+        OverloadPolicy(String name)
+        {
+            this.name = name;
+        }
+
+        public static OverloadPolicy fromString(String value, OverloadPolicy defaultPolicy)
+        {
+            if (value != null)
+            {
+                for (OverloadPolicy policy : values())
+                {
+                    if (policy.name.equalsIgnoreCase(value.trim()))
+                        return policy;
+                }
+            }
+            return defaultPolicy;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    private static final Map<Long, Queue<ByteBuffer>> pool = new ConcurrentHashMap<>();
+
+    private final int capacity;
+    private final boolean direct;
+    private final OverloadPolicy policy;
+    private final int coalesceWindow;
+    private final ByteBuffer backing;
+    private final ByteBuffer writeView;
+    private final ByteBuffer[] single;
+    private final ByteBuffer[] pair;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+
+    // monotonic byte counters, the ring position is counter % capacity
+    private long writePosition = 0;
+    private long readPosition = 0;
+    // start of the region handed out by readableBuffers() and not yet committed, -1 if none
+    private long inFlightPosition = -1;
+    private long droppedBytes = 0;
+    private long droppedFrames = 0;
+    private long overflowCount = 0;
+    private boolean consumerWaiting = false;
+    private boolean released = false;
+
+    public AudioRingBuffer(int capacity, boolean direct)
+    {
+        this(capacity, direct, OverloadPolicy.DROP_NEWEST, capacity);
+    }
+
+    /**
+     * @param coalesceWindow number of most recent bytes kept by {@link OverloadPolicy#COALESCE}
+     */
+    public AudioRingBuffer(int capacity, boolean direct, OverloadPolicy policy, int coalesceWindow)
+    {
+        this.capacity = capacity;
+        this.direct = direct;
+        this.policy = policy;
+        this.coalesceWindow = Math.max(0, Math.min(coalesceWindow, capacity));
+        this.backing = acquire(capacity, direct);
+        this.writeView = backing.duplicate();
+        ByteBuffer first = backing.duplicate();
+        ByteBuffer second = backing.duplicate();
+        this.single = new ByteBuffer[]{first};
+        this.pair = new ByteBuffer[]{first, second};
+    }
+
+    /**
+     * Copies a frame into the ring, applying the overload policy if it does not fit. Called from the producer thread only.
+     *
+     * @return false if the frame, or part of the buffered audio, was dropped to stay within capacity
+     */
+    public boolean write(byte[] frame, int offset, int length)
+    {
+        lock.lock();
+        try
+        {
+            if (released)
+            {
+                drop(length, 1);
+                return false;
+            }
+
+            boolean dropped = false;
+            if (length > capacity - (int) (writePosition - readPosition))
+            {
+                overflowCount++;
+                dropped = true;
+                if (length > capacity)
+                {
+                    // only the tail of an oversized frame can ever fit
+                    drop(length - capacity, 0);
+                    offset += length - capacity;
+                    length = capacity;
+                }
+                if (policy == OverloadPolicy.DROP_NEWEST || inFlightPosition != -1)
+                {
+                    // bytes handed to the consumer cannot be reclaimed until they are committed
+                    drop(length, 1);
+                    return false;
+                }
+                long keep = capacity - length;
+                if (policy == OverloadPolicy.COALESCE)
+                    keep = Math.min(keep, Math.max(0, coalesceWindow - length));
+                long discard = Math.max(0, (writePosition - readPosition) - keep);
+                // keep 16 bit samples aligned
+                discard = Math.min(discard + (discard & 1), writePosition - readPosition);
+                drop(discard, 0);
+                readPosition += discard;
+            }
+
+            // only the free region is written, so the consumer can keep reading committed data without the lock
+            int index = (int) (writePosition % capacity);
+            int firstPart = Math.min(length, capacity - index);
+            writeView.put(index, frame, offset, firstPart);
+            if (firstPart < length)
+                writeView.put(0, frame, offset + firstPart, length - firstPart);
+            writePosition += length;
+            if (consumerWaiting)
+                dataAvailable.signal();
+            return !dropped;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void drop(long bytes, int frames)
+    {
+        droppedBytes += bytes;
+        droppedFrames += frames;
+    }
+
+    /**
+     * Waits up to {@code timeout} for audio to become available. Called from the consumer thread only.
+     *
+     * @return the number of bytes available to read
+     */
+    public int awaitData(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try
+        {
+            consumerWaiting = true;
+            while (writePosition == readPosition && nanos > 0)
+                nanos = dataAvailable.awaitNanos(nanos);
+            consumerWaiting = false;
+            return (int) (writePosition - readPosition);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns views over all readable bytes, in order. The views are reused between calls and are only valid
+     * until the next call to {@link #commitRead(long)}. Called from the consumer thread only.
+     */
+    public ByteBuffer[] readableBuffers()
+    {
+        long start;
+        int available;
+        lock.lock();
+        try
+        {
+            start = readPosition;
+            available = (int) (writePosition - readPosition);
+            inFlightPosition = start;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        int index = (int) (start % capacity);
+        int firstPart = Math.min(available, capacity - index);
+        ByteBuffer first = pair[0];
+        first.limit(index + firstPart).position(index);
+        if (firstPart == available)
+            return single;
+        ByteBuffer second = pair[1];
+        second.limit(available - firstPart).position(0);
+        return pair;
+    }
+
+    /**
+     * Releases {@code bytes} read from the buffers returned by {@link #readableBuffers()}. Called from the consumer thread only.
+     */
+    public void commitRead(long bytes)
+    {
+        lock.lock();
+        try
+        {
+            if (inFlightPosition != -1)
+                readPosition = Math.min(inFlightPosition + bytes, writePosition);
+            inFlightPosition = -1;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        lock.lock();
+        try
+        {
+            return writePosition == readPosition;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public OverloadPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    public int getAvailable()
+    {
+        lock.lock();
+        try
+        {
+            return (int) (writePosition - readPosition);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedBytes()
+    {
+        lock.lock();
+        try
+        {
+            return droppedBytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of whole frames dropped by {@link OverloadPolicy#DROP_NEWEST}, or because the consumer was still sending
+     * the buffered audio when the ring overflowed.
+     */
+    public long getDroppedFrames()
+    {
+        lock.lock();
+        try
+        {
+            return droppedFrames;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of writes that did not fit and triggered the overload policy.
+     */
+    public long getOverflowCount()
+    {
+        lock.lock();
+        try
+        {
+            return overflowCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the backing memory to the pool. Frames written afterwards are dropped.
+     */
+    public void release()
+    {
+        lock.lock();
+        try
+        {
+            if (released)
+                return;
+            released = true;
+            readPosition = writePosition;
+            inFlightPosition = -1;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        backing.clear();
+        pool.computeIfAbsent(poolKey(capacity, direct), k -> new ConcurrentLinkedQueue<>()).add(backing);
+    }
+
+    private static ByteBuffer acquire(int capacity, boolean direct)
+    {
+        Queue<ByteBuffer> buffers = pool.get(poolKey(capacity, direct));
+        ByteBuffer buffer = buffers != null ? buffers.poll() : null;
+        if (buffer != null)
+            return buffer;
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static long poolKey(int capacity, boolean direct)
+    {
+        return ((long) capacity << 1) | (direct ? 1 : 0);
+    }
+}
@@ -14,6 +14,14 @@ public interface SpeechHandler extends Runnable, AutoCloseable
 
     void close();
 
+    /**
+     * Called instead of {@link #run()} when no thread could be started for the handler, to release what it holds.
+     */
+    default void abort()
+    {
+        close();
+    }
+
     default Locale toLocale(String input)
     {
         if (input == null || input.isBlank()) return null;
@@ -10,18 +10,24 @@ import com.wowza.wms.plugin.captions.caption.CaptionHandler;
 import com.wowza.wms.plugin.captions.stream.DelayedStream;
 import com.wowza.wms.application.IApplicationInstance;
 import com.wowza.wms.plugin.captions.transcoder.AudioResamplingTranscoderActionListener;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class AzureCaptionsTranscoderActionListener extends AudioResamplingTranscoderActionListener
 {
+    private final ExecutorService captionDispatchExecutor;
     private final String subscriptionKey;
     private final String serviceRegion;
 
     public AzureCaptionsTranscoderActionListener(IApplicationInstance appInstance, Map<String, SpeechHandler> handlers, Map<String, DelayedStream> delayedStreams,
-                                                 String subscriptionKey, String serviceRegion)
+                                                 HandlerThreads handlerThreads, ScheduledExecutorService delayedStreamScheduler,
+                                                 ExecutorService captionDispatchExecutor, String subscriptionKey, String serviceRegion)
     {
-        super(appInstance, handlers, delayedStreams);
+        super(appInstance, handlers, delayedStreams, handlerThreads, delayedStreamScheduler);
+        this.captionDispatchExecutor = captionDispatchExecutor;
         this.subscriptionKey = subscriptionKey;
         this.serviceRegion = serviceRegion;
     }
@@ -29,6 +35,6 @@ public class AzureCaptionsTranscoderActionListener extends AudioResamplingTransc
     @Override
     public SpeechHandler getSpeechHandler(CaptionHandler captionHandler)
     {
-        return new AzureSpeechToTextHandler(appInstance, captionHandler, subscriptionKey, serviceRegion);
+        return new AzureSpeechToTextHandler(appInstance, captionHandler, captionDispatchExecutor, subscriptionKey, serviceRegion);
     }
 }
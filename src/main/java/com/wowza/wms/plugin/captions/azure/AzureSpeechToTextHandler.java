@@ -10,11 +10,15 @@ import com.microsoft.cognitiveservices.speech.audio.*;
 import com.microsoft.cognitiveservices.speech.translation.*;
 import com.wowza.wms.application.*;
 import com.wowza.wms.logging.*;
+import com.wowza.wms.plugin.captions.audio.AudioChunkCoalescer;
 import com.wowza.wms.plugin.captions.audio.SpeechHandler;
 import com.wowza.wms.plugin.captions.caption.Caption;
 import com.wowza.wms.plugin.captions.caption.CaptionHandler;
 import com.wowza.wms.plugin.captions.caption.CaptionHelper;
 import com.wowza.wms.plugin.captions.caption.CaptionTiming;
+import com.wowza.wms.plugin.captions.caption.SegmentationProfile;
+import com.wowza.wms.plugin.captions.caption.SegmentationProfiles;
+import com.wowza.wms.plugin.captions.util.LatencyHistogram;
 import com.wowza.wms.timedtext.model.ITimedTextConstants;
 
 import java.time.*;
@@ -30,9 +34,13 @@ public class AzureSpeechToTextHandler implements SpeechHandler
     private static final Class<AzureSpeechToTextHandler> CLASS = AzureSpeechToTextHandler.class;
     private static final String CLASS_NAME = CLASS.getSimpleName();
     public static final String DEFAULT_RECOGNITION_LANGUAGE = "en-US";
+    // how long the handler waits for dispatches still queued when recognition stops
+    private static final long DISPATCH_DRAIN_TIMEOUT = 5000;
     private final CaptionHandler captionHandler;
     private final WMSLogger logger;
     private final PushAudioInputStream audioStream = PushAudioInputStream.createPushStream();
+    // null when frames are written to the push stream as they arrive
+    private final AudioChunkCoalescer audioCoalescer;
     private final Semaphore semaphore = new Semaphore(0);
     private final SpeechConfig speechConfig;
     private final String recognitionLanguage;
@@ -40,20 +48,40 @@ public class AzureSpeechToTextHandler implements SpeechHandler
     private final List<String> translationLanguages;
     private final List<String> phrases;
     private final boolean debugLog;
-    private final int maxLineLength;
     private final int maxLines;
-    private final String firstPassTerminators;
-    private final int firstPassPercentage;
+    private final SegmentationProfiles segmentationProfiles;
+    private final ExecutorService dispatchExecutor;
+    // the last dispatch of each language, the next one of that language runs after it
+    private final Map<String, CompletableFuture<Void>> languageDispatches = new ConcurrentHashMap<>();
+    // from a result reaching the handler until the captions of all its languages are handled, guarded by itself
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram(5, 10000, 500);
 
     public AzureSpeechToTextHandler(IApplicationInstance appInstance, CaptionHandler captionHandler, String subscriptionKey,
             String serviceRegion)
     {
+        this(appInstance, captionHandler, null, subscriptionKey, serviceRegion);
+    }
+
+    /**
+     * Captions of recognized results are segmented and handled on {@code dispatchExecutor}, one task per language,
+     * with the captions of each language handled in result order. With no executor they are handled on the recognizer
+     * callback thread.
+     */
+    public AzureSpeechToTextHandler(IApplicationInstance appInstance, CaptionHandler captionHandler, ExecutorService dispatchExecutor,
+            String subscriptionKey, String serviceRegion)
+    {
+        this.dispatchExecutor = dispatchExecutor;
         WMSProperties props = appInstance.getProperties();
         this.logger = WMSLoggerFactory.getLoggerObj(appInstance);
         debugLog = props.getPropertyBoolean(PROP_CAPTIONS_DEBUG_LOG, false);
-        firstPassTerminators = props.getPropertyStr(PROP_LINE_TERMINATORS, DEFAULT_FIRST_PASS_TERMINATORS);
-        firstPassPercentage = props.getPropertyInt(PROP_FIRST_PASS_PERCENTAGE, DEFAULT_FIRST_PASS_PERCENTAGE);
-        maxLineLength = props.getPropertyInt(PROP_MAX_CAPTION_LINE_LENGTH, CaptionHelper.defaultMaxLineLengthSBCS);
+        long audioChunkMillis = props.getPropertyLong(PROP_AUDIO_CHUNK_MILLIS, DEFAULT_AUDIO_CHUNK_MILLIS);
+        audioCoalescer = audioChunkMillis > 0 ? AudioChunkCoalescer.forMillis(audioChunkMillis,
+                Math.max(1, props.getPropertyLong(PROP_AUDIO_FLUSH_DEADLINE, DEFAULT_AUDIO_FLUSH_DEADLINE)), audioStream::write) : null;
+        segmentationProfiles = new SegmentationProfiles(props.getPropertyStr(PROP_SEGMENTATION_MODE, SegmentationProfile.MODE_CHARS),
+                props.getPropertyInt(PROP_MAX_CAPTION_LINE_LENGTH, CaptionHelper.defaultMaxLineLengthSBCS),
+                props.getPropertyStr(PROP_LINE_TERMINATORS, DEFAULT_FIRST_PASS_TERMINATORS),
+                props.getPropertyInt(PROP_FIRST_PASS_PERCENTAGE, DEFAULT_FIRST_PASS_PERCENTAGE),
+                props.getPropertyStr(PROP_SPEAKER_CHANGE_INDICATOR, null));
         maxLines = props.getPropertyInt(PROP_MAX_CAPTION_LINE_COUNT, 2);
         this.captionHandler = captionHandler;
         recognitionLanguage = toLocale(props.getPropertyStr(PROP_RECOGNITION_LANGUAGE, DEFAULT_RECOGNITION_LANGUAGE))
@@ -127,7 +155,7 @@ public class AzureSpeechToTextHandler implements SpeechHandler
                     ((TranslationRecognizer)recognizer).recognized.addEventListener((s, e) -> handleRecognizedEvent(e.getSessionId(), e.getResult()));
                     ((TranslationRecognizer)recognizer).canceled.addEventListener((s, e) -> handleCancelledEvent(e.getSessionId(), e.getReason(), e.getErrorCode(), e.getErrorDetails()));
                     ((TranslationRecognizer)recognizer).startContinuousRecognitionAsync().get();
-                    semaphore.acquire();
+                    awaitStop();
                     ((TranslationRecognizer)recognizer).stopContinuousRecognitionAsync().get();
                 }
                 else
@@ -137,7 +165,7 @@ public class AzureSpeechToTextHandler implements SpeechHandler
                     ((SpeechRecognizer)recognizer).canceled.addEventListener((s, e) -> handleCancelledEvent(e.getSessionId(), e.getReason(), e.getErrorCode(), e.getErrorDetails()));
 
                     ((SpeechRecognizer)recognizer).startContinuousRecognitionAsync().get();
-                    semaphore.acquire();
+                    awaitStop();
                     ((SpeechRecognizer)recognizer).stopContinuousRecognitionAsync().get();
                 }
             }
@@ -149,14 +177,28 @@ public class AzureSpeechToTextHandler implements SpeechHandler
         {
             logger.error(MODULE_NAME + "::" + CLASS_NAME + ".run exception",  e);
         }
+        drainDispatches();
+    }
+
+    // waits for close() or cancellation, meanwhile pushing coalesced audio out when its flush deadline passes
+    private void awaitStop() throws InterruptedException
+    {
+        if (audioCoalescer == null)
+        {
+            semaphore.acquire();
+            return;
+        }
+        long wait = audioCoalescer.flushIfDue(System.currentTimeMillis());
+        while (!semaphore.tryAcquire(wait, TimeUnit.MILLISECONDS))
+            wait = audioCoalescer.flushIfDue(System.currentTimeMillis());
     }
 
     private void handleRecognizingEvent(String sessionId, RecognitionResult result)
     {
         if (debugLog)
         {
-            Instant start = CaptionHelper.epochInstantFromTicks(result.getOffset());
-            Instant end = CaptionHelper.epochInstantFromTicks(result.getOffset().add(result.getDuration()));
+            long start = CaptionHelper.epochMillisFromTicks(result.getOffset());
+            long end = CaptionHelper.epochMillisFromTicks(result.getOffset().add(result.getDuration()));
             long latency = Long.parseLong(result.getProperties().getProperty(PropertyId.SpeechServiceResponse_RecognitionLatencyMs));
             String json = result.getProperties().getProperty(PropertyId.SpeechServiceResponse_JsonResult);
             logger.info(MODULE_NAME + "::" + CLASS_NAME + "handleRecognizingEvent: session: " + sessionId + " RECOGNIZING: Timing: " + getTimestamp(start, end) + " Latency=" + latency + " Result=" + json);
@@ -169,8 +211,8 @@ public class AzureSpeechToTextHandler implements SpeechHandler
             logger.info(MODULE_NAME + "::" + CLASS_NAME + "handleRecognizedEvent: session: " + sessionId + " NOMATCH: Speech could not be recognized.");
         else
         {
-            Instant start = CaptionHelper.epochInstantFromTicks(result.getOffset());
-            Instant end = CaptionHelper.epochInstantFromTicks(result.getOffset().add(result.getDuration()));
+            long start = CaptionHelper.epochMillisFromTicks(result.getOffset());
+            long end = CaptionHelper.epochMillisFromTicks(result.getOffset().add(result.getDuration()));
             long latency = Long.parseLong(result.getProperties().getProperty(PropertyId.SpeechServiceResponse_RecognitionLatencyMs));
             String json = result.getProperties().getProperty(PropertyId.SpeechServiceResponse_JsonResult);
             if (debugLog)
@@ -179,23 +221,129 @@ public class AzureSpeechToTextHandler implements SpeechHandler
         }
     }
 
-    private void handleResult(RecognitionResult result, Instant start, Instant end)
+    private void handleResult(RecognitionResult result, long start, long end)
     {
         CaptionTiming captionTiming = new CaptionTiming(start, end);
-        List<Caption> sourceCaptions = CaptionHelper.getCaptions(languageMap.get(Locale.forLanguageTag(recognitionLanguage).getLanguage()), maxLineLength, maxLines,
-				firstPassTerminators, firstPassPercentage, captionTiming, result.getText());
-        sourceCaptions.forEach(captionHandler::handleCaption);
+        String sourceLanguage = Locale.forLanguageTag(recognitionLanguage).getLanguage();
+        Map<String, String> translations = result instanceof TranslationRecognitionResult ?
+                ((TranslationRecognitionResult)result).getTranslations() : Collections.emptyMap();
+        if (dispatchExecutor == null)
+        {
+            dispatchCaptions(sourceLanguage, captionTiming, result.getText());
+            translations.forEach((language, translation) -> dispatchCaptions(language, captionTiming, translation));
+            return;
+        }
+
+        long received = System.currentTimeMillis();
+        CompletableFuture<?>[] dispatches = new CompletableFuture<?>[translations.size() + 1];
+        int i = 0;
+        dispatches[i++] = dispatchAsync(sourceLanguage, captionTiming, result.getText());
+        for (Map.Entry<String, String> translation : translations.entrySet())
+            dispatches[i++] = dispatchAsync(translation.getKey(), captionTiming, translation.getValue());
+        CompletableFuture.allOf(dispatches).whenComplete((v, e) -> {
+            long latency = System.currentTimeMillis() - received;
+            synchronized (dispatchLatency)
+            {
+                dispatchLatency.add(latency);
+            }
+        });
+    }
+
+    // queues the captions of one language behind that language's previous dispatch
+    private CompletableFuture<Void> dispatchAsync(String language, CaptionTiming captionTiming, String text)
+    {
+        CompletableFuture<Void> dispatched = new CompletableFuture<>();
+        Runnable dispatch = () -> {
+            try
+            {
+                dispatchCaptions(language, captionTiming, text);
+            }
+            finally
+            {
+                dispatched.complete(null);
+            }
+        };
+        // only the swap is atomic, the task is submitted without holding the map's lock
+        CompletableFuture<Void> previous = languageDispatches.put(language, dispatched);
+        if (previous == null)
+            submitDispatch(dispatch);
+        else
+            previous.whenComplete((v, e) -> submitDispatch(dispatch));
+        return dispatched;
+    }
+
+    // every dispatch runs, on the calling thread once the executor is shut down, so later ones and drainDispatches never wait in vain
+    private void submitDispatch(Runnable dispatch)
+    {
+        if (!dispatchExecutor.isShutdown())
+        {
+            try
+            {
+                dispatchExecutor.execute(dispatch);
+                return;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // shut down meanwhile
+            }
+        }
+        dispatch.run();
+    }
+
+    private void dispatchCaptions(String language, CaptionTiming captionTiming, String text)
+    {
+        try
+        {
+            List<Caption> captions = CaptionHelper.getCaptions(getSegmentationProfile(language), maxLines, captionTiming, text);
+            captions.forEach(captionHandler::handleCaption);
+        }
+        catch (Exception e)
+        {
+            // keep the language's later dispatches going
+            logger.error(MODULE_NAME + "::" + CLASS_NAME + ".dispatchCaptions [" + language + "] exception", e);
+        }
+    }
+
+    // lets captions of the last results reach the caption handler before the stream shuts down
+    private void drainDispatches()
+    {
+        if (dispatchExecutor == null)
+            return;
+        try
+        {
+            CompletableFuture.allOf(languageDispatches.values().toArray(new CompletableFuture<?>[0])).get(DISPATCH_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            logger.warn(MODULE_NAME + "::" + CLASS_NAME + ".drainDispatches captions still being dispatched after " + DISPATCH_DRAIN_TIMEOUT + "ms");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            // dispatchCaptions logs its own failures
+        }
+        if (debugLog)
+            logger.info(MODULE_NAME + "::" + CLASS_NAME + ".drainDispatches " + getDispatchStats());
+    }
 
-        if (result instanceof TranslationRecognitionResult)
+    public String getDispatchStats()
+    {
+        synchronized (dispatchLatency)
         {
-            ((TranslationRecognitionResult)result).getTranslations().forEach((language, translation) -> {
-                List<Caption> translatedCaptions = CaptionHelper.getCaptions(languageMap.get(language), maxLineLength, maxLines,
-                        firstPassTerminators, firstPassPercentage, captionTiming, translation);
-                translatedCaptions.forEach(captionHandler::handleCaption);
-            });
+            return "results=" + dispatchLatency.getTotalCount() + ", languages=" + languageDispatches.size() + ", dispatchLatencyP50=" +
+                    dispatchLatency.getPercentile(50) + "ms, dispatchLatencyP99=" + dispatchLatency.getPercentile(99) + "ms, dispatchLatencyMax=" +
+                    dispatchLatency.getMax() + "ms";
         }
     }
 
+    private SegmentationProfile getSegmentationProfile(String language)
+    {
+        return segmentationProfiles.get(languageMap.get(language));
+    }
+
     private void handleCancelledEvent(String sessionId, CancellationReason reason, CancellationErrorCode errorCode, String errorDetails)
     {
         logger.warn(MODULE_NAME + "::" + CLASS_NAME + "handleCancelledEvent: session: " + sessionId + " Translation Session Cancelled: Reason=" + reason);
@@ -209,21 +357,40 @@ public class AzureSpeechToTextHandler implements SpeechHandler
     @Override
     public void addAudioFrame(byte[] frame)
     {
-        audioStream.write(frame);
+        if (audioCoalescer != null)
+            audioCoalescer.write(frame);
+        else
+            audioStream.write(frame);
     }
 
     @Override
     public void close()
     {
+        if (audioCoalescer != null)
+        {
+            audioCoalescer.flush();
+            logger.info(MODULE_NAME + "::" + CLASS_NAME + ".close audio: " + audioCoalescer.getStats());
+        }
         audioStream.close();
         semaphore.release();
     }
 
-    private String getTimestamp(Instant startTime, Instant endTime)
+    /**
+     * The recognizer never ran, so the speech config that run() would have closed is released here.
+     */
+    @Override
+    public void abort()
+    {
+        close();
+        speechConfig.close();
+    }
+
+    private String getTimestamp(long startTime, long endTime)
     {
         var format = "HH:mm:ss.SSS";
         // Set the timezone to UTC so the time is not adjusted for our local time zone.
         var formatter = DateTimeFormatter.ofPattern(format).withZone(ZoneId.from(ZoneOffset.UTC));
-        return String.format("%s --> %s", formatter.format(startTime), formatter.format(endTime));
+        return String.format("%s --> %s", formatter.format(CaptionHelper.epochInstantFromMillis(startTime)),
+                formatter.format(CaptionHelper.epochInstantFromMillis(endTime)));
     }
 }
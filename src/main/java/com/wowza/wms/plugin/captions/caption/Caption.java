@@ -7,8 +7,6 @@ package com.wowza.wms.plugin.captions.caption;//
 
 import java.time.*;
 
-import static com.wowza.wms.plugin.captions.caption.CaptionHelper.dotNetEpoch;
-
 public class Caption
 {
     private final String language;
@@ -17,15 +15,24 @@ public class Caption
     private final String text;
     private final int trackId;
 
-    public Caption(String language, Instant begin, Instant end, String text, int trackId)
+    /**
+     * @param begin milliseconds on the {@link CaptionHelper#dotNetEpoch} timeline
+     * @param end   milliseconds on the {@link CaptionHelper#dotNetEpoch} timeline
+     */
+    public Caption(String language, long begin, long end, String text, int trackId)
     {
         this.language = language;
-        this.begin = Duration.between(dotNetEpoch, begin).toMillis();
-        this.end = Duration.between(dotNetEpoch, end).toMillis();
+        this.begin = begin;
+        this.end = end;
         this.text = text;
         this.trackId = trackId;
     }
 
+    public Caption(String language, Instant begin, Instant end, String text, int trackId)
+    {
+        this(language, CaptionHelper.millisFromEpochInstant(begin), CaptionHelper.millisFromEpochInstant(end), text, trackId);
+    }
+
     public String getLanguage()
     {
         return language;
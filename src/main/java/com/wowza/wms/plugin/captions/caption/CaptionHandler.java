@@ -14,4 +14,16 @@ public interface CaptionHandler
     void setWordsPerMinute(int wordsPerMinute);
 
     CaptionTiming getCaptionTiming();
+
+    /**
+     * Delay in milliseconds between the live stream and the captioned output, captions must be handled within it.
+     */
+    long getStreamDelay();
+
+    /**
+     * Called once no more captions will be handled, to release anything the handler holds.
+     */
+    default void close()
+    {
+    }
 }
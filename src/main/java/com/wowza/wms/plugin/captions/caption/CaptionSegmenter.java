@@ -0,0 +1,219 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits caption text into lines of at most {@code maxWidth} characters.
+ * <p>
+ * A line ends before the next speaker change indicator when that fits, otherwise at the last first pass terminator
+ * (punctuation) that fits, unless that line would hold no more than {@code firstPassPercentage} percent of the words
+ * the last second pass terminator (a space) allows, in which case it ends there.
+ * <p>
+ * The positions of every terminator, speaker change indicator and whitespace character are found in one pass over the
+ * text, after which each line is placed by moving a cursor per terminator forward, so splitting is linear in the text
+ * length and allocates nothing but the lines. Immutable and thread safe, one instance can split any number of texts.
+ */
+class CaptionSegmenter implements LineSegmenter
+{
+    private final int maxWidth;
+    private final String[] firstPassTerminators;
+    private final String[] secondPassTerminators;
+    private final int firstPassPercentage;
+    private final String speakerChangeIndicator;
+
+    CaptionSegmenter(int maxWidth, String[] firstPassTerminators, String[] secondPassTerminators, int firstPassPercentage, String speakerChangeIndicator)
+    {
+        this.maxWidth = maxWidth;
+        this.firstPassTerminators = firstPassTerminators.clone();
+        this.secondPassTerminators = secondPassTerminators.clone();
+        this.firstPassPercentage = firstPassPercentage;
+        this.speakerChangeIndicator = speakerChangeIndicator == null || speakerChangeIndicator.isEmpty() ? null : speakerChangeIndicator;
+    }
+
+    @Override
+    public int getMaxWidth()
+    {
+        return maxWidth;
+    }
+
+    /**
+     * The lines of {@code text}, trimmed. Leading spaces of a line are skipped, trailing spaces of the text leave an
+     * empty last line.
+     */
+    @Override
+    public List<String> split(String text)
+    {
+        Scan scan = new Scan(text);
+        List<String> lines = new ArrayList<>();
+        int length = text.length();
+        int index = 0;
+        while (index < length)
+        {
+            while (index < length && text.charAt(index) == ' ')
+                index++;
+            int width = scan.bestWidth(index);
+            lines.add(text.substring(index, index + width).trim());
+            index += width;
+        }
+        return lines;
+    }
+
+    /**
+     * Positions found in one text and the cursors moving through them.
+     */
+    private final class Scan
+    {
+        private final String text;
+        private final Occurrences[] firstPass;
+        private final Occurrences[] secondPass;
+        private final int[] speakers;
+        // whitespace (as matched by \s) before each position
+        private final int[] whitespaceBefore;
+
+        private Scan(String text)
+        {
+            this.text = text;
+            this.firstPass = occurrences(text, firstPassTerminators);
+            this.secondPass = occurrences(text, secondPassTerminators);
+            this.speakers = speakerChangeIndicator != null ? positions(text, speakerChangeIndicator) : null;
+            int length = text.length();
+            whitespaceBefore = new int[length + 1];
+            for (int i = 0; i < length; i++)
+                whitespaceBefore[i + 1] = whitespaceBefore[i] + (isWhitespace(text.charAt(i)) ? 1 : 0);
+        }
+
+        private int bestWidth(int startIndex)
+        {
+            if (speakers != null)
+            {
+                int speaker = nextSpeaker(startIndex);
+                if (speaker == startIndex)
+                    speaker = nextSpeaker(speaker + speakerChangeIndicator.length());
+                if (speaker > startIndex && speaker - startIndex <= maxWidth)
+                    return speaker - startIndex;
+            }
+
+            int remaining = text.length() - startIndex;
+            if (remaining <= maxWidth)
+                return remaining;
+            int firstPassWidth = findBestWidth(firstPass, startIndex);
+            if (firstPassWidth == maxWidth)
+                return firstPassWidth;
+            int firstPassWordCount = wordCount(startIndex, firstPassWidth);
+            int secondPassWidth = findBestWidth(secondPass, startIndex);
+            int secondPassWordCount = wordCount(startIndex, secondPassWidth);
+            if (firstPassWordCount == 0 && secondPassWordCount == 0)
+                return maxWidth;
+            return (secondPassWordCount == 0 || (firstPassWordCount * 100.0f) / secondPassWordCount > firstPassPercentage) ? firstPassWidth : secondPassWidth;
+        }
+
+        /**
+         * Width up to and including the last terminator within {@code maxWidth} characters (one more for terminators
+         * ending in a space), or -1. Terminators are tried in order and one only wins by starting after the end of
+         * the best so far.
+         */
+        private int findBestWidth(Occurrences[] terminators, int startAt)
+        {
+            int bestWidth = -1;
+            int checkEnd = startAt + Math.min(text.length() - startAt, maxWidth);
+            for (Occurrences terminator : terminators)
+            {
+                int width = terminator.lastWithin(startAt, terminator.trailingSpace ? checkEnd + 1 : checkEnd) - startAt;
+                if (width > bestWidth)
+                    bestWidth = width + terminator.length;
+            }
+            return bestWidth;
+        }
+
+        /**
+         * Words in the {@code length} characters from {@code startIndex} once trimmed: one more than the whitespace
+         * characters between them, as {@code trim().split("\\s").length} counts them. 0 for a negative length.
+         */
+        private int wordCount(int startIndex, int length)
+        {
+            if (length < 0)
+                return 0;
+            int start = startIndex;
+            int end = startIndex + length;
+            while (start < end && text.charAt(start) <= ' ')
+                start++;
+            while (end > start && text.charAt(end - 1) <= ' ')
+                end--;
+            return 1 + whitespaceBefore[end] - whitespaceBefore[start];
+        }
+
+        private int nextSpeaker(int from)
+        {
+            int i = Arrays.binarySearch(speakers, from);
+            if (i < 0)
+                i = -i - 1;
+            return i < speakers.length ? speakers[i] : -1;
+        }
+    }
+
+    /**
+     * Start positions of one terminator in a text, with a cursor for windows whose end only moves forward.
+     */
+    private static final class Occurrences
+    {
+        private final int[] positions;
+        private final int length;
+        private final boolean trailingSpace;
+        private int cursor = 0;
+
+        private Occurrences(String text, String terminator)
+        {
+            this.positions = terminator.isEmpty() ? null : CaptionSegmenter.positions(text, terminator);
+            this.length = terminator.length();
+            this.trailingSpace = terminator.endsWith(" ");
+        }
+
+        /**
+         * Start of the last occurrence lying entirely within {@code [start, end)}, or {@code start - 1}.
+         */
+        private int lastWithin(int start, int end)
+        {
+            if (positions == null)
+                return end;
+            while (cursor < positions.length && positions[cursor] + length <= end)
+                cursor++;
+            return cursor > 0 && positions[cursor - 1] >= start ? positions[cursor - 1] : start - 1;
+        }
+    }
+
+    private static Occurrences[] occurrences(String text, String[] terminators)
+    {
+        Occurrences[] occurrences = new Occurrences[terminators.length];
+        for (int i = 0; i < terminators.length; i++)
+            occurrences[i] = new Occurrences(text, terminators[i]);
+        return occurrences;
+    }
+
+    // every start position, overlapping ones included
+    private static int[] positions(String text, String needle)
+    {
+        int[] positions = new int[8];
+        int count = 0;
+        int index = text.indexOf(needle);
+        while (index != -1)
+        {
+            if (count == positions.length)
+                positions = Arrays.copyOf(positions, count * 2);
+            positions[count++] = index;
+            index = text.indexOf(needle, index + 1);
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
@@ -7,14 +7,55 @@ package com.wowza.wms.plugin.captions.caption;//
 
 import java.time.Instant;
 
+/**
+ * Begin and end of a caption in milliseconds on the {@link CaptionHelper#dotNetEpoch} timeline.
+ */
 public class CaptionTiming
 {
-    public Instant begin;
-    public Instant end;
-    
+    private final long beginMillis;
+    private final long endMillis;
+
+    /**
+     * @deprecated derived from the milliseconds for source compatibility, use {@link #getBegin()} or {@link #getBeginMillis()}
+     */
+    @Deprecated
+    public final Instant begin;
+    /**
+     * @deprecated derived from the milliseconds for source compatibility, use {@link #getEnd()} or {@link #getEndMillis()}
+     */
+    @Deprecated
+    public final Instant end;
+
+    public CaptionTiming(long begin, long end)
+    {
+        this.beginMillis = begin;
+        this.endMillis = end;
+        this.begin = CaptionHelper.epochInstantFromMillis(begin);
+        this.end = CaptionHelper.epochInstantFromMillis(end);
+    }
+
     public CaptionTiming(Instant begin, Instant end)
     {
-        this.begin = begin;
-        this.end = end;
+        this(CaptionHelper.millisFromEpochInstant(begin), CaptionHelper.millisFromEpochInstant(end));
+    }
+
+    public long getBeginMillis()
+    {
+        return beginMillis;
+    }
+
+    public long getEndMillis()
+    {
+        return endMillis;
+    }
+
+    public Instant getBegin()
+    {
+        return begin;
+    }
+
+    public Instant getEnd()
+    {
+        return end;
     }
 }
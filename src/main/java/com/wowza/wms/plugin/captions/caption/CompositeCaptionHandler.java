@@ -0,0 +1,244 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.*;
+
+/**
+ * Delivers every caption to several {@link CaptionHandler} sinks, for example the delayed stream and an archive.
+ * <p>
+ * The first sink is the delayed stream the captions are published in. It gets every caption on the calling thread, and
+ * timing, words per minute and the stream delay come from it. Each further sink has its own bounded queue and worker
+ * thread, so the recognizer or socket thread calling {@link #handleCaption} only enqueues and a slow archive or
+ * side sink never holds it up. When such a sink falls {@code captionHandlerSinkQueueSize} captions behind, its oldest
+ * queued caption is dropped. {@link #close()} closes the first sink and lets the workers deliver what is queued, close
+ * their sinks and exit; it can be called more than once.
+ */
+public class CompositeCaptionHandler implements CaptionHandler
+{
+    private static final Class<CompositeCaptionHandler> CLASS = CompositeCaptionHandler.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+    // queued behind the last caption to stop a worker
+    private static final Caption CLOSE = new Caption(null, 0, 0, "", 0);
+
+    private final WMSLogger logger;
+    private final String name;
+    private final boolean debugLog;
+    private final CaptionHandler primary;
+    private final List<SinkWorker> workers = new ArrayList<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public CompositeCaptionHandler(IApplicationInstance appInstance, String name, List<CaptionHandler> sinks, HandlerThreads handlerThreads)
+    {
+        this(WMSLoggerFactory.getLoggerObj(CLASS, appInstance), name, appInstance.getProperties().getPropertyBoolean(PROP_CAPTIONS_DEBUG_LOG, false),
+                appInstance.getProperties().getPropertyInt(PROP_CAPTION_SINK_QUEUE_SIZE, DEFAULT_CAPTION_SINK_QUEUE_SIZE), sinks, handlerThreads::start);
+    }
+
+    /**
+     * @param threadStarter starts a named worker thread, throws {@link RejectedExecutionException} when it cannot
+     */
+    CompositeCaptionHandler(WMSLogger logger, String name, boolean debugLog, int queueSize, List<CaptionHandler> sinks, BiConsumer<String, Runnable> threadStarter)
+    {
+        if (sinks.isEmpty())
+            throw new IllegalArgumentException("at least one caption sink is required");
+        this.logger = logger;
+        this.name = name;
+        this.debugLog = debugLog;
+        this.primary = sinks.get(0);
+        queueSize = Math.max(1, queueSize);
+        for (CaptionHandler sink : sinks.subList(1, sinks.size()))
+        {
+            SinkWorker worker = new SinkWorker(sink, queueSize);
+            try
+            {
+                threadStarter.accept(CLASS_NAME + "." + sink.getClass().getSimpleName() + "[" + name + "]", worker);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // close the first sink and let the workers already started close theirs and exit, and close the others here
+                close();
+                for (CaptionHandler unstarted : sinks.subList(1 + workers.size(), sinks.size()))
+                    unstarted.close();
+                throw e;
+            }
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public void handleCaption(Caption caption)
+    {
+        if (closed.get())
+        {
+            if (debugLog)
+                logger.info(CLASS_NAME + ".handleCaption [" + name + "] closed, dropping caption: " + caption);
+            return;
+        }
+        for (SinkWorker worker : workers)
+            worker.offer(caption);
+        try
+        {
+            primary.handleCaption(caption);
+        }
+        catch (Exception e)
+        {
+            logger.error(CLASS_NAME + ".handleCaption [" + name + "] " + primary.getClass().getSimpleName() + " failed to handle caption: " + caption, e);
+        }
+    }
+
+    @Override
+    public int getWordsPerMinute()
+    {
+        return primary.getWordsPerMinute();
+    }
+
+    @Override
+    public void setWordsPerMinute(int wordsPerMinute)
+    {
+        primary.setWordsPerMinute(wordsPerMinute);
+        for (SinkWorker worker : workers)
+            worker.sink.setWordsPerMinute(wordsPerMinute);
+    }
+
+    @Override
+    public CaptionTiming getCaptionTiming()
+    {
+        return primary.getCaptionTiming();
+    }
+
+    @Override
+    public long getStreamDelay()
+    {
+        return primary.getStreamDelay();
+    }
+
+    @Override
+    public void close()
+    {
+        if (!closed.compareAndSet(false, true))
+            return;
+        for (SinkWorker worker : workers)
+            worker.close();
+        primary.close();
+    }
+
+    public String getStats()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (SinkWorker worker : workers)
+        {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(worker.getStats());
+        }
+        return sb.append("]").toString();
+    }
+
+    private class SinkWorker implements Runnable
+    {
+        private final CaptionHandler sink;
+        private final int queueSize;
+        // one slot more than queueSize is kept free for CLOSE
+        private final ArrayBlockingQueue<Caption> queue;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile int peakQueued = 0;
+        // guarded by this, as is adding to the queue
+        private boolean closing = false;
+
+        private SinkWorker(CaptionHandler sink, int queueSize)
+        {
+            this.sink = sink;
+            this.queueSize = queueSize;
+            this.queue = new ArrayBlockingQueue<>(queueSize + 1);
+        }
+
+        private synchronized void offer(Caption caption)
+        {
+            if (closing)
+                return;
+            while (queue.size() >= queueSize)
+            {
+                // the sink is behind, the newest captions matter most
+                Caption oldest = queue.poll();
+                if (oldest != null)
+                {
+                    dropped.incrementAndGet();
+                    logger.warn(CLASS_NAME + ".handleCaption [" + name + "] " + sink.getClass().getSimpleName() + " is " + queue.size() +
+                            " captions behind, dropping oldest: " + oldest);
+                }
+            }
+            queue.offer(caption);
+            int queued = queue.size();
+            if (queued > peakQueued)
+                peakQueued = queued;
+        }
+
+        private synchronized void close()
+        {
+            closing = true;
+            queue.offer(CLOSE);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                Caption caption;
+                while ((caption = queue.take()) != CLOSE)
+                {
+                    try
+                    {
+                        sink.handleCaption(caption);
+                        delivered.incrementAndGet();
+                    }
+                    catch (Exception e)
+                    {
+                        failed.incrementAndGet();
+                        logger.error(CLASS_NAME + ".run [" + name + "] " + sink.getClass().getSimpleName() + " failed to handle caption: " + caption, e);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                try
+                {
+                    sink.close();
+                }
+                catch (Exception e)
+                {
+                    logger.error(CLASS_NAME + ".run [" + name + "] " + sink.getClass().getSimpleName() + " failed to close", e);
+                }
+                logger.info(CLASS_NAME + ".run [" + name + "] finished " + getStats());
+            }
+        }
+
+        private String getStats()
+        {
+            return sink.getClass().getSimpleName() + "[delivered=" + delivered.get() + ", dropped=" + dropped.get() + ", failed=" + failed.get() +
+                    ", queued=" + queue.size() + ", peakQueued=" + peakQueued + "]";
+        }
+    }
+}
@@ -6,32 +6,82 @@
 package com.wowza.wms.plugin.captions.caption;
 
 import com.wowza.wms.plugin.captions.stream.DelayedStream;
-import com.wowza.wms.amf.*;
+import com.wowza.wms.plugin.captions.util.LatencyHistogram;
+import com.wowza.wms.amf.AMFPacket;
 import com.wowza.wms.application.IApplicationInstance;
 import com.wowza.wms.logging.*;
 import com.wowza.wms.vhost.IVHost;
 
-import java.time.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.PROP_CAPTIONS_DEBUG_LOG;
-import static com.wowza.wms.plugin.captions.caption.CaptionHelper.dotNetEpoch;
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.PROP_CAPTIONS_STREAM_DELAY;
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.PROP_LATE_CAPTION_POLICY;
 
+/**
+ * Writes captions into a {@link DelayedStream} as {@code onTextData} packets.
+ * <p>
+ * A caption is late when its timecode is already behind what the delayed stream has published. Players would never
+ * show it, so the {@code captionHandlerLateCaptionPolicy} decides what happens to it: {@code retime} (default) moves it
+ * to just after the playout head so it goes out with the next release, {@code merge} holds its text back and prepends
+ * it to the next caption of the same language and track, and {@code drop} discards it. Held text is retimed instead
+ * once it has waited {@code MERGE_HOLD_MILLIS} since the first of its captions was held, whether or not more captions
+ * arrive, once {@code MAX_MERGED_CAPTIONS} late captions have been merged, and on {@link #close()}. Each late caption
+ * is counted once, under what finally happened to it, and how far behind the playout head they were is kept in a
+ * histogram.
+ */
 public class DelayedStreamCaptionHandler implements CaptionHandler
 {
     private static final Class<DelayedStreamCaptionHandler> CLASS = DelayedStreamCaptionHandler.class;
     private static final String CLASS_NAME = CLASS.getSimpleName();
     private static final int DEFAULT_WORDS_PER_MINUTE = 150;
+    // how long a merged late caption waits for the next caption of its language and track
+    private static final long MERGE_HOLD_MILLIS = 3000;
+    // most late captions merged into one, the held text does not grow further
+    private static final int MAX_MERGED_CAPTIONS = 4;
+
+    public static final String LATE_CAPTION_RETIME = "retime";
+    public static final String LATE_CAPTION_MERGE = "merge";
+    public static final String LATE_CAPTION_DROP = "drop";
+
     private final DelayedStream delayedStream;
+    // releases held captions no later caption picked up
+    private final ScheduledExecutorService scheduler;
     private final WMSLogger logger;
     private final boolean debugLog;
+    private final long streamDelay;
+    private final String lateCaptionPolicy;
+
+    // guarded by this, as is the late caption state
+    private final OnTextDataWriter textDataWriter = new OnTextDataWriter();
+    private final Map<String, HeldCaption> pendingLateCaptions = new HashMap<>();
+    private final LatencyHistogram lateness = new LatencyHistogram(100, 60000, 500);
+    private long lateCount = 0;
+    private long retimedCount = 0;
+    private long mergedCount = 0;
+    private long droppedCount = 0;
+    private ScheduledFuture<?> releaseTask;
+    private boolean closed = false;
 
     private int wordsPerMinute = DEFAULT_WORDS_PER_MINUTE;
 
-    public DelayedStreamCaptionHandler(IApplicationInstance appInstance, DelayedStream delayedStream)
+    public DelayedStreamCaptionHandler(IApplicationInstance appInstance, DelayedStream delayedStream, ScheduledExecutorService scheduler)
     {
         this.delayedStream = delayedStream;
+        this.scheduler = scheduler;
         logger = WMSLoggerFactory.getLoggerObj(DelayedStreamCaptionHandler.class, appInstance);
         debugLog = appInstance.getProperties().getPropertyBoolean(PROP_CAPTIONS_DEBUG_LOG, false);
+        streamDelay = appInstance.getProperties().getPropertyLong(PROP_CAPTIONS_STREAM_DELAY, DelayedStream.DEFAULT_START_DELAY);
+        String policy = appInstance.getProperties().getPropertyStr(PROP_LATE_CAPTION_POLICY, LATE_CAPTION_RETIME);
+        lateCaptionPolicy = LATE_CAPTION_MERGE.equalsIgnoreCase(policy) ? LATE_CAPTION_MERGE : LATE_CAPTION_DROP.equalsIgnoreCase(policy) ? LATE_CAPTION_DROP : LATE_CAPTION_RETIME;
     }
 
     @Override
@@ -41,23 +91,163 @@ public class DelayedStreamCaptionHandler implements CaptionHandler
             logger.info(CLASS_NAME + ".handleCaption: caption = " + caption);
         if (delayedStream == null)
             return;
-        AMFDataObj amfData = new AMFDataObj();
-        amfData.put("text", new AMFDataItem(caption.getText()));
-        amfData.put("language", new AMFDataItem(caption.getLanguage()));
-        amfData.put("trackid", new AMFDataItem(caption.getTrackId()));
-
-        AMFDataList dataList = new AMFDataList();
-        dataList.add(new AMFDataItem("onTextData"));
-        dataList.add(amfData);
-        byte[] data = dataList.serialize();
-
         long startOffset = delayedStream.getStartOffset();
-        long captionOffset = caption.getBegin();
+        long timecode = startOffset + caption.getBegin();
+        delayedStream.recordCaptionLatency(timecode);
+        List<AMFPacket> packets = new ArrayList<>();
+        synchronized (this)
+        {
+            releaseHeldCaptions(false, packets);
+            HeldCaption held = pendingLateCaptions.remove(getMergeKey(caption));
+            if (held != null)
+            {
+                // prepends the text of the late captions held back for the same language and track
+                caption = new Caption(caption.getLanguage(), caption.getBegin(), caption.getEnd(), held.caption.getText() + "\n" + caption.getText(), caption.getTrackId());
+            }
+            long playoutHead = delayedStream.getLastReleasedTimecode();
+            if (playoutHead != -1 && timecode < playoutHead)
+                timecode = handleLateCaption(caption, held, timecode, playoutHead);
+            else if (held != null)
+                mergedCount += held.count;
+            if (timecode != -1)
+                packets.add(createPacket(caption, timecode));
+        }
+        writePackets(packets);
+    }
+
+    // called holding this, the writer is reused
+    private AMFPacket createPacket(Caption caption, long timecode)
+    {
+        byte[] data = textDataWriter.write(caption.getText(), caption.getLanguage(), caption.getTrackId());
         AMFPacket packet = new AMFPacket(IVHost.CONTENTTYPE_DATA, 0, data);
-        packet.setAbsTimecode(startOffset + captionOffset);
+        packet.setAbsTimecode(timecode);
+        return packet;
+    }
+
+    private void writePackets(List<AMFPacket> packets)
+    {
+        for (AMFPacket packet : packets)
+        {
+            if (debugLog)
+                logger.info(CLASS_NAME + ".handleCaption: packet = " + packet);
+            delayedStream.writePacket(packet);
+        }
+    }
+
+    /**
+     * Applies the late caption policy to {@code caption}, due at {@code timecode} but behind {@code playoutHead}, with
+     * the {@code held} captions merged into it, if any. Returns the timecode to write it at, or -1 when it is not
+     * written now.
+     */
+    private long handleLateCaption(Caption caption, HeldCaption held, long timecode, long playoutHead)
+    {
+        long behind = playoutHead - timecode;
+        lateCount++;
+        lateness.add(behind);
+        long result;
+        switch (lateCaptionPolicy)
+        {
+            case LATE_CAPTION_MERGE:
+                int count = held != null ? held.count + 1 : 1;
+                if (count >= MAX_MERGED_CAPTIONS)
+                {
+                    retimedCount += count;
+                    result = playoutHead + 1;
+                    break;
+                }
+                // the hold time runs from the first caption held, merging does not restart it
+                pendingLateCaptions.put(getMergeKey(caption), new HeldCaption(caption, held != null ? held.heldAt : System.currentTimeMillis(), count));
+                scheduleRelease();
+                result = -1;
+                break;
+            case LATE_CAPTION_DROP:
+                droppedCount++;
+                result = -1;
+                break;
+            default:
+                // just after the playout head, released in order with the next due packets
+                retimedCount++;
+                result = playoutHead + 1;
+                break;
+        }
         if (debugLog)
-            logger.info(CLASS_NAME + ".handleCaption: packet = " + packet);
-        delayedStream.writePacket(packet);
+            logger.info(CLASS_NAME + ".handleCaption: late caption " + behind + "ms behind playout head, " + lateCaptionPolicy + ": " + caption + " " + getLateCaptionStats());
+        return result;
+    }
+
+    // every language is published on the same caption track, so merging goes by both
+    private static String getMergeKey(Caption caption)
+    {
+        return caption.getLanguage() + "/" + caption.getTrackId();
+    }
+
+    /**
+     * Makes sure the held caption that has waited longest is released once its hold time is up. Called holding this.
+     */
+    private void scheduleRelease()
+    {
+        if (closed || releaseTask != null || pendingLateCaptions.isEmpty())
+            return;
+        long firstHeld = Long.MAX_VALUE;
+        for (HeldCaption held : pendingLateCaptions.values())
+            firstHeld = Math.min(firstHeld, held.heldAt);
+        long delay = Math.max(0, firstHeld + MERGE_HOLD_MILLIS - System.currentTimeMillis());
+        try
+        {
+            releaseTask = scheduler.schedule(this::releaseExpiredCaptions, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the application is stopping, close() releases what is held
+        }
+    }
+
+    private void releaseExpiredCaptions()
+    {
+        List<AMFPacket> packets = new ArrayList<>();
+        synchronized (this)
+        {
+            releaseTask = null;
+            if (closed)
+                return;
+            releaseHeldCaptions(false, packets);
+            scheduleRelease();
+        }
+        writePackets(packets);
+    }
+
+    /**
+     * Retimes the held late captions to just after the playout head, all of them or only those no later caption picked
+     * up within {@code MERGE_HOLD_MILLIS}. Called holding this.
+     */
+    private void releaseHeldCaptions(boolean all, List<AMFPacket> packets)
+    {
+        if (pendingLateCaptions.isEmpty())
+            return;
+        long now = System.currentTimeMillis();
+        long playoutHead = delayedStream.getLastReleasedTimecode();
+        Iterator<HeldCaption> iterator = pendingLateCaptions.values().iterator();
+        while (iterator.hasNext())
+        {
+            HeldCaption held = iterator.next();
+            if (!all && now - held.heldAt < MERGE_HOLD_MILLIS)
+                continue;
+            iterator.remove();
+            retimedCount += held.count;
+            if (debugLog)
+                logger.info(CLASS_NAME + ".releaseHeldCaptions: no caption to merge with after " + (now - held.heldAt) + "ms, retiming: " + held.caption);
+            packets.add(createPacket(held.caption, playoutHead + 1));
+        }
+    }
+
+    /**
+     * Late caption counters and the 50th and 99th percentile of how far behind the playout head they were.
+     */
+    public synchronized String getLateCaptionStats()
+    {
+        return "[policy=" + lateCaptionPolicy + ", late=" + lateCount + ", retimed=" + retimedCount + ", merged=" + mergedCount +
+                ", dropped=" + droppedCount + ", p50=" + lateness.getPercentile(50) + ", p99=" + lateness.getPercentile(99) +
+                ", maxBehind=" + lateness.getMax() + "]";
     }
 
     @Override
@@ -72,13 +262,54 @@ public class DelayedStreamCaptionHandler implements CaptionHandler
         this.wordsPerMinute = wordsPerMinute;
     }
 
+    @Override
+    public long getStreamDelay()
+    {
+        return delayedStream != null ? delayedStream.getStreamDelay() : streamDelay;
+    }
+
+    /**
+     * Publishes the late captions still held for merging.
+     */
+    @Override
+    public void close()
+    {
+        if (delayedStream == null)
+            return;
+        List<AMFPacket> packets = new ArrayList<>();
+        synchronized (this)
+        {
+            closed = true;
+            if (releaseTask != null)
+            {
+                releaseTask.cancel(false);
+                releaseTask = null;
+            }
+            releaseHeldCaptions(true, packets);
+        }
+        writePackets(packets);
+    }
+
     public CaptionTiming getCaptionTiming()
     {
         long startOffset = delayedStream.getStartOffset();
         long firstTC = delayedStream.getFirstPacketTimecode();
         long lastTC = delayedStream.getLastPacketTimecode();
-        Instant start = dotNetEpoch.plusMillis(firstTC - startOffset);
-        Instant end = dotNetEpoch.plusMillis(lastTC - startOffset);
-        return new CaptionTiming(start, end);
+        return new CaptionTiming(firstTC - startOffset, lastTC - startOffset);
+    }
+
+    private static class HeldCaption
+    {
+        private final Caption caption;
+        private final long heldAt;
+        // late captions merged into the held one, itself included
+        private final int count;
+
+        private HeldCaption(Caption caption, long heldAt, int count)
+        {
+            this.caption = caption;
+            this.heldAt = heldAt;
+            this.count = count;
+        }
     }
 }
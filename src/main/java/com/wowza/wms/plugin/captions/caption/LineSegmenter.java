@@ -0,0 +1,19 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import java.util.List;
+
+/**
+ * Splits caption text into trimmed lines no wider than {@link #getMaxWidth()}. Implementations are immutable and
+ * thread safe.
+ */
+interface LineSegmenter
+{
+    int getMaxWidth();
+
+    List<String> split(String text);
+}
@@ -0,0 +1,173 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes {@code onTextData} caption payloads in AMF0, byte for byte what an {@code AMFDataList} holding the method
+ * name and an {@code AMFDataObj} with {@code text}, {@code language} and {@code trackid} serializes to.
+ * <p>
+ * The method name, object marker and keys are copied from precomputed prefixes, only the text, language and track id
+ * are encoded per caption, straight into a buffer that is reused. The only allocation per caption is the returned
+ * payload. Not thread safe.
+ */
+class OnTextDataWriter
+{
+    private static final byte AMF0_NUMBER = 0x00;
+    private static final byte AMF0_STRING = 0x02;
+    private static final byte AMF0_OBJECT = 0x03;
+    private static final byte AMF0_NULL = 0x05;
+    private static final byte AMF0_OBJECT_END = 0x09;
+    private static final byte AMF0_LONG_STRING = 0x0C;
+    private static final int MAX_SHORT_STRING = 0xFFFF;
+
+    // "onTextData", object start and the "text" key
+    private static final byte[] PREFIX = concat(string("onTextData"), new byte[] {AMF0_OBJECT}, key("text"));
+    private static final byte[] LANGUAGE_KEY = key("language");
+    private static final byte[] TRACK_ID_KEY = key("trackid");
+    private static final byte[] OBJECT_END = {0, 0, AMF0_OBJECT_END};
+
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    byte[] write(String text, String language, int trackId)
+    {
+        position = 0;
+        put(PREFIX);
+        putString(text);
+        put(LANGUAGE_KEY);
+        putString(language);
+        put(TRACK_ID_KEY);
+        ensureCapacity(9);
+        buffer[position++] = AMF0_NUMBER;
+        putLong(Double.doubleToLongBits(trackId));
+        put(OBJECT_END);
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void putString(String value)
+    {
+        if (value == null)
+        {
+            ensureCapacity(1);
+            buffer[position++] = AMF0_NULL;
+            return;
+        }
+        // encoded as a short string first, moved when it turns out longer than 64K
+        int start = position;
+        ensureCapacity(3 + value.length() * 3);
+        position += 3;
+        putUtf8(value);
+        int length = position - start - 3;
+        if (length <= MAX_SHORT_STRING)
+        {
+            buffer[start] = AMF0_STRING;
+            buffer[start + 1] = (byte) (length >>> 8);
+            buffer[start + 2] = (byte) length;
+            return;
+        }
+        ensureCapacity(2);
+        System.arraycopy(buffer, start + 3, buffer, start + 5, length);
+        buffer[start] = AMF0_LONG_STRING;
+        position = start + 1;
+        putInt(length);
+        position += length;
+    }
+
+    // the same bytes as String.getBytes(UTF_8), unpaired surrogates become '?'
+    private void putUtf8(String value)
+    {
+        byte[] buf = buffer;
+        int pos = position;
+        int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                buf[pos++] = (byte) c;
+            else if (c < 0x800)
+            {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)))
+                {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                    buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                }
+                else
+                    buf[pos++] = '?';
+            }
+            else
+            {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        position = pos;
+    }
+
+    private void put(byte[] bytes)
+    {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void putInt(int value)
+    {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8)
+            buffer[position++] = (byte) (value >>> shift);
+    }
+
+    private void putLong(long value)
+    {
+        for (int shift = 56; shift >= 0; shift -= 8)
+            buffer[position++] = (byte) (value >>> shift);
+    }
+
+    private void ensureCapacity(int bytes)
+    {
+        if (position + bytes > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+    }
+
+    private static byte[] key(String name)
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[bytes.length + 2];
+        key[0] = (byte) (bytes.length >>> 8);
+        key[1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, key, 2, bytes.length);
+        return key;
+    }
+
+    private static byte[] string(String value)
+    {
+        return concat(new byte[] {AMF0_STRING}, key(value));
+    }
+
+    private static byte[] concat(byte[]... parts)
+    {
+        byte[] result = new byte[Arrays.stream(parts).mapToInt(part -> part.length).sum()];
+        int pos = 0;
+        for (byte[] part : parts)
+        {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+}
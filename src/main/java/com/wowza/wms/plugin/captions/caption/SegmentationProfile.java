@@ -0,0 +1,95 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * How caption text of one language is split into lines: the terminators of both passes, the maximum line width and
+ * the speaker change indicator, resolved once from the configuration. Chinese and Japanese use their own punctuation
+ * as terminators.
+ * <p>
+ * In {@link #MODE_CHARS} mode (the default) widths are counted in {@code char}s and Chinese and Japanese use the
+ * shorter {@link CaptionHelper#defaultMaxLineLengthMBCS} when the line length is left at
+ * {@link CaptionHelper#defaultMaxLineLengthSBCS}. In {@link #MODE_UNICODE} mode widths are display columns, lines
+ * break only at Unicode line break opportunities, sentence boundaries and terminators, and the line length applies to
+ * every language as configured, see {@link UnicodeCaptionSegmenter}.
+ * <p>
+ * Immutable and thread safe. Handlers keep their profiles in {@link SegmentationProfiles} rather than compiling one
+ * per result.
+ */
+public final class SegmentationProfile
+{
+    public static final String MODE_CHARS = "chars";
+    public static final String MODE_UNICODE = "unicode";
+
+    private final String language;
+    private final LineSegmenter segmenter;
+
+    private SegmentationProfile(String language, LineSegmenter segmenter)
+    {
+        this.language = language;
+        this.segmenter = segmenter;
+    }
+
+    public static SegmentationProfile compile(String language, int maxLineLength, String lineTerminators, int firstPassPercentage,
+                                              String speakerChangeIndicator)
+    {
+        return compile(MODE_CHARS, language, maxLineLength, lineTerminators, firstPassPercentage, speakerChangeIndicator);
+    }
+
+    public static SegmentationProfile compile(String mode, String language, int maxLineLength, String lineTerminators,
+                                              int firstPassPercentage, String speakerChangeIndicator)
+    {
+        boolean unicode = MODE_UNICODE.equalsIgnoreCase(mode);
+        String[] firstPassTerminators;
+        String[] secondPassTerminators;
+        int maxWidth = maxLineLength;
+        switch (language)
+        {
+            case "zh":
+            case "ja":
+                firstPassTerminators = new String[]{"，", "、", "；", "？", "！", "?", "!", ",", ";"};
+                secondPassTerminators = new String[]{"。", " "};
+                if (!unicode && maxWidth == CaptionHelper.defaultMaxLineLengthSBCS)
+                    maxWidth = CaptionHelper.defaultMaxLineLengthMBCS;
+                break;
+            default:
+                firstPassTerminators = Arrays.stream(lineTerminators.split("\\|"))
+                        .filter(Predicate.not(String::isBlank)).toArray(String[]::new);
+                secondPassTerminators = new String[]{" "};
+                break;
+        }
+        if (unicode)
+            return new SegmentationProfile(language, new UnicodeCaptionSegmenter(UnicodeCaptionSegmenter.toLocale(language), maxWidth,
+                    firstPassTerminators, firstPassPercentage, speakerChangeIndicator));
+        return new SegmentationProfile(language, new CaptionSegmenter(maxWidth, firstPassTerminators, secondPassTerminators,
+                firstPassPercentage, speakerChangeIndicator));
+    }
+
+    public String getLanguage()
+    {
+        return language;
+    }
+
+    public int getMaxWidth()
+    {
+        return segmenter.getMaxWidth();
+    }
+
+    List<String> split(String text)
+    {
+        return segmenter.split(text);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SegmentationProfile{language=" + language + ", maxWidth=" + getMaxWidth() + "}";
+    }
+}
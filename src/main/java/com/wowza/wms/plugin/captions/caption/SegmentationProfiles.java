@@ -0,0 +1,48 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link SegmentationProfile} of each language for one segmentation configuration, compiled the first time a
+ * language is seen and reused for every later result. Thread safe.
+ */
+public final class SegmentationProfiles
+{
+    private final String mode;
+    private final int maxLineLength;
+    private final String lineTerminators;
+    private final int firstPassPercentage;
+    private final String speakerChangeIndicator;
+    private final Map<String, SegmentationProfile> profiles = new ConcurrentHashMap<>();
+
+    public SegmentationProfiles(int maxLineLength, String lineTerminators, int firstPassPercentage, String speakerChangeIndicator)
+    {
+        this(SegmentationProfile.MODE_CHARS, maxLineLength, lineTerminators, firstPassPercentage, speakerChangeIndicator);
+    }
+
+    public SegmentationProfiles(String mode, int maxLineLength, String lineTerminators, int firstPassPercentage, String speakerChangeIndicator)
+    {
+        this.mode = mode;
+        this.maxLineLength = maxLineLength;
+        this.lineTerminators = lineTerminators;
+        this.firstPassPercentage = firstPassPercentage;
+        this.speakerChangeIndicator = speakerChangeIndicator;
+    }
+
+    public SegmentationProfile get(String language)
+    {
+        return profiles.computeIfAbsent(language,
+                lang -> SegmentationProfile.compile(mode, lang, maxLineLength, lineTerminators, firstPassPercentage, speakerChangeIndicator));
+    }
+
+    public int size()
+    {
+        return profiles.size();
+    }
+}
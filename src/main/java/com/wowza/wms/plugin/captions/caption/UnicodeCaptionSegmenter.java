@@ -0,0 +1,450 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Splits caption text into lines of at most {@code maxWidth} display columns, breaking only between grapheme clusters
+ * (UAX #29) and measuring each cluster by its East Asian width (UAX #11): wide and fullwidth characters and emoji
+ * take two columns, combining marks and format characters none.
+ * <p>
+ * A line ends before the next speaker change indicator when that fits, otherwise at the last sentence boundary or
+ * first pass terminator that fits, unless that line would fill no more than {@code firstPassPercentage} percent of
+ * the columns the last line break opportunity (UAX #14) allows, in which case it ends there. Line break opportunities
+ * come from the locale's line iterator, so Chinese and Japanese break between ideographs, Thai between dictionary
+ * words and Korean, Arabic and other spaced scripts at spaces. A cluster sequence without any opportunity, such as a
+ * long URL, is broken at the last cluster that fits.
+ * <p>
+ * Break iterators are expensive to create and not thread safe, so every thread keeps one set per locale and resets
+ * it to each text it splits. Immutable and thread safe.
+ */
+class UnicodeCaptionSegmenter implements LineSegmenter
+{
+    private static final ThreadLocal<Map<Locale, Iterators>> ITERATORS = ThreadLocal.withInitial(HashMap::new);
+
+    private static final int ZERO_WIDTH_JOINER = 0x200D;
+    private static final int EMOJI_PRESENTATION_SELECTOR = 0xFE0F;
+
+    // East Asian Wide and Fullwidth ranges, including the emoji blocks with default emoji presentation
+    private static final int[] WIDE_RANGES = {
+            0x1100, 0x115F, 0x231A, 0x231B, 0x2329, 0x232A, 0x23E9, 0x23EC, 0x23F0, 0x23F0, 0x23F3, 0x23F3,
+            0x25FD, 0x25FE, 0x2614, 0x2615, 0x2648, 0x2653, 0x267F, 0x267F, 0x2693, 0x2693, 0x26A1, 0x26A1,
+            0x26AA, 0x26AB, 0x26BD, 0x26BE, 0x26C4, 0x26C5, 0x26CE, 0x26CE, 0x26D4, 0x26D4, 0x26EA, 0x26EA,
+            0x26F2, 0x26F3, 0x26F5, 0x26F5, 0x26FA, 0x26FA, 0x26FD, 0x26FD, 0x2705, 0x2705, 0x270A, 0x270B,
+            0x2728, 0x2728, 0x274C, 0x274C, 0x274E, 0x274E, 0x2753, 0x2755, 0x2757, 0x2757, 0x2795, 0x2797,
+            0x27B0, 0x27B0, 0x27BF, 0x27BF, 0x2B1B, 0x2B1C, 0x2B50, 0x2B50, 0x2B55, 0x2B55, 0x2E80, 0x303E,
+            0x3041, 0x33FF, 0x3400, 0x4DBF, 0x4E00, 0x9FFF, 0xA000, 0xA4CF, 0xA960, 0xA97F, 0xAC00, 0xD7A3,
+            0xF900, 0xFAFF, 0xFE10, 0xFE19, 0xFE30, 0xFE6F, 0xFF00, 0xFF60, 0xFFE0, 0xFFE6, 0x16FE0, 0x16FE4,
+            0x17000, 0x18CFF, 0x1B000, 0x1B2FF, 0x1F004, 0x1F004, 0x1F0CF, 0x1F0CF, 0x1F18E, 0x1F18E,
+            0x1F191, 0x1F19A, 0x1F1E6, 0x1F1FF, 0x1F200, 0x1F2FF, 0x1F300, 0x1F64F, 0x1F680, 0x1F6FF,
+            0x1F7E0, 0x1F7EB, 0x1F90C, 0x1F9FF, 0x1FA70, 0x1FAFF, 0x20000, 0x2FFFD, 0x30000, 0x3FFFD
+    };
+
+    private final Locale locale;
+    private final int maxWidth;
+    private final String[] firstPassTerminators;
+    private final int firstPassPercentage;
+    private final String speakerChangeIndicator;
+
+    UnicodeCaptionSegmenter(Locale locale, int maxWidth, String[] firstPassTerminators, int firstPassPercentage, String speakerChangeIndicator)
+    {
+        this.locale = locale;
+        this.maxWidth = maxWidth;
+        this.firstPassTerminators = firstPassTerminators.clone();
+        this.firstPassPercentage = firstPassPercentage;
+        this.speakerChangeIndicator = speakerChangeIndicator == null || speakerChangeIndicator.isEmpty() ? null : speakerChangeIndicator;
+    }
+
+    @Override
+    public int getMaxWidth()
+    {
+        return maxWidth;
+    }
+
+    /**
+     * The lines of {@code text}, stripped of leading and trailing whitespace. Whitespace between lines never produces
+     * an empty line.
+     */
+    @Override
+    public List<String> split(String text)
+    {
+        List<String> lines = new ArrayList<>();
+        if (text.isEmpty())
+            return lines;
+        Iterators iterators = ITERATORS.get().computeIfAbsent(locale, Iterators::new);
+        iterators.setText(text);
+        try
+        {
+            Scan scan = new Scan(text, iterators);
+            int cluster = scan.skipWhitespace(0);
+            while (cluster < scan.count)
+            {
+                int next = scan.clusterAt(scan.bestBreak(cluster));
+                String line = text.substring(scan.bounds[cluster], scan.bounds[next]).strip();
+                if (!line.isEmpty())
+                    lines.add(line);
+                cluster = scan.skipWhitespace(next);
+            }
+        }
+        finally
+        {
+            // don't hold on to the text until the thread splits the next one
+            iterators.clear();
+        }
+        return lines;
+    }
+
+    /**
+     * The grapheme clusters of one text with their display columns, and the iterators placing lines in it.
+     */
+    private final class Scan
+    {
+        private final String text;
+        // start of each cluster, followed by the text length
+        private final int[] bounds;
+        // display columns before each cluster
+        private final int[] columns;
+        private int count = 0;
+        private final int[] lineBreaks;
+        private final int[] sentenceBreaks;
+        private int nextSpeaker;
+
+        private Scan(String text, Iterators iterators)
+        {
+            this.text = text;
+            this.nextSpeaker = speakerChangeIndicator != null ? text.indexOf(speakerChangeIndicator) : -1;
+            int length = text.length();
+            bounds = new int[length + 1];
+            columns = new int[length + 1];
+            int start = 0;
+            while (start < length)
+            {
+                int end;
+                if (isSimple(text.charAt(start)) && (start + 1 == length || isSimple(text.charAt(start + 1))))
+                {
+                    // Latin text and punctuation followed by more of it need no iterator
+                    end = start + 1;
+                }
+                else
+                {
+                    BreakIterator characters = iterators.characters(text);
+                    end = characters.following(start);
+                    while (end < length && joinsCluster(text, start, end))
+                        end = characters.following(end);
+                }
+                bounds[count] = start;
+                columns[count + 1] = columns[count] + clusterWidth(text, start, end);
+                count++;
+                start = end;
+            }
+            bounds[count] = length;
+            this.lineBreaks = boundaries(iterators.lines, length);
+            this.sentenceBreaks = boundaries(iterators.sentences, length);
+        }
+
+        /**
+         * End of the line starting at {@code cluster}, at most the text length and always after its start.
+         */
+        private int bestBreak(int cluster)
+        {
+            int start = bounds[cluster];
+            int limitCluster = lastFitting(cluster);
+            int limit = bounds[limitCluster];
+            if (speakerChangeIndicator != null)
+            {
+                int speaker = speakerFrom(start);
+                if (speaker == start)
+                    speaker = speakerFrom(start + speakerChangeIndicator.length());
+                if (speaker > start && speaker <= limit)
+                    return speaker;
+            }
+            if (limitCluster == count)
+                return text.length();
+
+            // whitespace after the last cluster that fits is trimmed from the line, so breaks there fit as well
+            int reach = limit;
+            while (reach < text.length() && Character.isWhitespace(text.charAt(reach)))
+                reach++;
+            if (reach == text.length())
+                return reach;
+            int lineBreak = lastBoundary(lineBreaks, start, reach);
+            int firstPass = Math.max(lastBoundary(sentenceBreaks, start, reach), lastTerminator(start, reach));
+            if (firstPass != -1 && (lineBreak == -1 || firstPass >= lineBreak ||
+                    (width(start, firstPass) * 100.0f) / width(start, lineBreak) > firstPassPercentage))
+                return firstPass;
+            return lineBreak != -1 ? lineBreak : limit;
+        }
+
+        /**
+         * The last cluster boundary after {@code cluster} within {@code maxWidth} columns of it, or the next one when
+         * even that is wider.
+         */
+        private int lastFitting(int cluster)
+        {
+            int maxColumns = columns[cluster] + maxWidth;
+            int low = cluster + 1;
+            int high = count;
+            if (columns[low] > maxColumns)
+                return low;
+            while (low < high)
+            {
+                int mid = (low + high + 1) >>> 1;
+                if (columns[mid] <= maxColumns)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            return low;
+        }
+
+        /**
+         * Index of the first cluster starting at or after {@code position}, {@link #count} past the last one.
+         */
+        private int clusterAt(int position)
+        {
+            int low = 0;
+            int high = count;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (bounds[mid] < position)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * The first cluster from {@code cluster} on that is not whitespace only. A whitespace character carrying a
+         * combining mark is a cluster of its own; the line starts there and strip() removes only the whitespace.
+         */
+        private int skipWhitespace(int cluster)
+        {
+            while (cluster < count && isWhitespace(bounds[cluster], bounds[cluster + 1]))
+                cluster++;
+            return cluster;
+        }
+
+        private boolean isWhitespace(int start, int end)
+        {
+            for (int i = start; i < end; )
+            {
+                int codePoint = text.codePointAt(i);
+                if (!Character.isWhitespace(codePoint))
+                    return false;
+                i += Character.charCount(codePoint);
+            }
+            return true;
+        }
+
+        // columns of the text from start to end once trailing whitespace is trimmed
+        private int width(int start, int end)
+        {
+            while (end > start && Character.isWhitespace(text.charAt(end - 1)))
+                end--;
+            return columns[clusterAt(end)] - columns[clusterAt(start)];
+        }
+
+        private int lastBoundary(int[] boundaries, int start, int reach)
+        {
+            int i = Arrays.binarySearch(boundaries, reach);
+            if (i < 0)
+                i = -i - 2;
+            return i >= 0 && boundaries[i] > start ? boundaries[i] : -1;
+        }
+
+        private int lastTerminator(int start, int reach)
+        {
+            int best = -1;
+            for (String terminator : firstPassTerminators)
+            {
+                int length = terminator.length();
+                for (int i = reach - length; i > best - length && i >= start; i--)
+                {
+                    if (text.startsWith(terminator, i))
+                    {
+                        best = i + length;
+                        break;
+                    }
+                }
+            }
+            return best > start ? best : -1;
+        }
+
+        // line starts only move forward, so the search for the next indicator does too
+        private int speakerFrom(int from)
+        {
+            if (nextSpeaker != -1 && nextSpeaker < from)
+                nextSpeaker = text.indexOf(speakerChangeIndicator, from);
+            return nextSpeaker;
+        }
+    }
+
+    // every boundary of the text after its start, walking forward as iterators are fastest at
+    private static int[] boundaries(BreakIterator breaks, int length)
+    {
+        int[] boundaries = new int[Math.min(length, 64)];
+        int count = 0;
+        breaks.first();
+        for (int boundary = breaks.next(); boundary != BreakIterator.DONE; boundary = breaks.next())
+        {
+            if (count == boundaries.length)
+                boundaries = Arrays.copyOf(boundaries, count * 2);
+            boundaries[count++] = boundary;
+        }
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    // below the combining diacritical marks and not a control, so a cluster of its own unless a mark follows
+    private static boolean isSimple(char c)
+    {
+        return c < 0x0300 && c >= ' ';
+    }
+
+    /**
+     * Whether the code point at {@code end} continues the cluster starting at {@code start}. Extends clusters of
+     * runtimes whose character iterator predates extended grapheme clusters, where emoji modifier, ZWJ and flag
+     * sequences come back as separate characters.
+     */
+    private static boolean joinsCluster(String text, int start, int end)
+    {
+        int codePoint = text.codePointAt(end);
+        if (codePoint == ZERO_WIDTH_JOINER || codePoint == EMOJI_PRESENTATION_SELECTOR || isEmojiModifier(codePoint) || isTag(codePoint))
+            return true;
+        int previous = text.codePointBefore(end);
+        if (previous == ZERO_WIDTH_JOINER && Character.getType(codePoint) == Character.OTHER_SYMBOL)
+            return true;
+        // a flag is a pair of regional indicators
+        return isRegionalIndicator(codePoint) && isRegionalIndicator(text.codePointAt(start)) && end - start == 2;
+    }
+
+    static int clusterWidth(String text, int start, int end)
+    {
+        int codePoint = text.codePointAt(start);
+        switch (Character.getType(codePoint))
+        {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.FORMAT:
+            case Character.CONTROL:
+                return 0;
+            default:
+                break;
+        }
+        if (isWide(codePoint))
+            return 2;
+        for (int i = start + Character.charCount(codePoint); i < end; i++)
+        {
+            if (text.charAt(i) == EMOJI_PRESENTATION_SELECTOR)
+                return 2;
+        }
+        return 1;
+    }
+
+    static boolean isWide(int codePoint)
+    {
+        if (codePoint < WIDE_RANGES[0])
+            return false;
+        int low = 0;
+        int high = WIDE_RANGES.length / 2 - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (codePoint < WIDE_RANGES[mid * 2])
+                high = mid - 1;
+            else if (codePoint > WIDE_RANGES[mid * 2 + 1])
+                low = mid + 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isEmojiModifier(int codePoint)
+    {
+        return codePoint >= 0x1F3FB && codePoint <= 0x1F3FF;
+    }
+
+    private static boolean isTag(int codePoint)
+    {
+        return codePoint >= 0xE0020 && codePoint <= 0xE007F;
+    }
+
+    private static boolean isRegionalIndicator(int codePoint)
+    {
+        return codePoint >= 0x1F1E6 && codePoint <= 0x1F1FF;
+    }
+
+    /**
+     * The locale of a caption language given as an ISO 639-1 or 639-2 code or a language tag, the root locale when
+     * it is not known.
+     */
+    static Locale toLocale(String language)
+    {
+        Locale locale = Locale.forLanguageTag(language.replace('_', '-'));
+        if (locale.getLanguage().length() == 3)
+        {
+            for (String isoLanguage : Locale.getISOLanguages())
+            {
+                Locale candidate = Locale.forLanguageTag(isoLanguage);
+                if (candidate.getISO3Language().equals(locale.getLanguage()))
+                    return candidate;
+            }
+        }
+        return locale;
+    }
+
+    /**
+     * One thread's iterators for a locale.
+     */
+    private static final class Iterators
+    {
+        private final BreakIterator characters;
+        private final BreakIterator lines;
+        private final BreakIterator sentences;
+        private String charactersText;
+
+        private Iterators(Locale locale)
+        {
+            this.characters = BreakIterator.getCharacterInstance(locale);
+            this.lines = BreakIterator.getLineInstance(locale);
+            this.sentences = BreakIterator.getSentenceInstance(locale);
+        }
+
+        private void setText(String text)
+        {
+            lines.setText(text);
+            sentences.setText(text);
+        }
+
+        // only text beyond Latin needs the character iterator, and setting its text can find every cluster up front
+        private BreakIterator characters(String text)
+        {
+            if (charactersText != text)
+            {
+                characters.setText(text);
+                charactersText = text;
+            }
+            return characters;
+        }
+
+        private void clear()
+        {
+            setText("");
+            if (charactersText != null)
+                characters.setText("");
+            charactersText = null;
+        }
+    }
+}
@@ -18,16 +18,26 @@ public class AMFPacketComparator implements Comparator<AMFPacket>
     {
         if (thisPacket == otherPacket)
             return 0;
+        return compare(thisPacket.getAbsTimecode(), thisPacket.getType(),
+                FLVUtils.isVideoCodecConfig(thisPacket) || FLVUtils.isAudioCodecConfig(thisPacket),
+                otherPacket.getAbsTimecode(), otherPacket.getType());
+    }
+
+    /**
+     * Packet order by timecode; at the same timecode video goes first and, within a type, codec config goes first.
+     */
+    public static int compare(long thisTimecode, int thisType, boolean thisCodecConfig, long otherTimecode, int otherType)
+    {
         int ret = 0;
-        if (thisPacket.getAbsTimecode() == otherPacket.getAbsTimecode())
+        if (thisTimecode == otherTimecode)
         {
-            if (thisPacket.getType() != otherPacket.getType())
-                ret = thisPacket.getType() == IVHost.CONTENTTYPE_VIDEO ? -1 : 1;
+            if (thisType != otherType)
+                ret = thisType == IVHost.CONTENTTYPE_VIDEO ? -1 : 1;
             else
-                ret = (FLVUtils.isVideoCodecConfig(thisPacket) || FLVUtils.isAudioCodecConfig(thisPacket)) ? -1 : 1;
+                ret = thisCodecConfig ? -1 : 1;
         }
         else
-            ret = thisPacket.getAbsTimecode() < otherPacket.getAbsTimecode() ? -1 : 1;
+            ret = thisTimecode < otherTimecode ? -1 : 1;
 
         return ret;
     }
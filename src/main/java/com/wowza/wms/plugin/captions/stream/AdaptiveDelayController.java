@@ -0,0 +1,77 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import com.wowza.wms.plugin.captions.util.LatencyHistogram;
+
+/**
+ * Chooses the playout delay of a {@link DelayedStream} from the measured caption latency of that stream.
+ * <p>
+ * The caption latency is how far the live edge of the stream is ahead of a caption's start when the caption arrives.
+ * The target delay is the 99th percentile of the recent latencies plus a safety margin, kept between the configured
+ * minimum and maximum. The delay starts at the maximum and moves towards the target by at most {@code maxStep} per
+ * call, which the stream makes at video key frames, so the output never jumps by more than one step at a time.
+ */
+public class AdaptiveDelayController
+{
+    static final double PERCENTILE = 99;
+    // captions needed before the delay moves away from the maximum
+    static final int MIN_SAMPLES = 5;
+    private static final int WINDOW_SIZE = 200;
+    private static final long HISTOGRAM_BUCKET = 50;
+
+    private final long minDelay;
+    private final long maxDelay;
+    private final long margin;
+    private final long maxStep;
+    private final LatencyHistogram latencies;
+    private long adjustmentCount = 0;
+
+    public AdaptiveDelayController(long minDelay, long maxDelay, long margin, long maxStep)
+    {
+        this.minDelay = Math.max(0, Math.min(minDelay, maxDelay));
+        this.maxDelay = Math.max(this.minDelay, maxDelay);
+        this.margin = Math.max(0, margin);
+        this.maxStep = Math.max(1, maxStep);
+        this.latencies = new LatencyHistogram(HISTOGRAM_BUCKET, this.maxDelay, WINDOW_SIZE);
+    }
+
+    public long getInitialDelay()
+    {
+        return maxDelay;
+    }
+
+    public synchronized void recordLatency(long latencyMillis)
+    {
+        latencies.add(latencyMillis);
+    }
+
+    /**
+     * Delay the stream should use from now on, at most {@code maxStep} away from {@code currentDelay}.
+     */
+    public synchronized long nextDelay(long currentDelay)
+    {
+        long target = getTargetDelay();
+        long next = currentDelay < target ? Math.min(target, currentDelay + maxStep) : Math.max(target, currentDelay - maxStep);
+        if (next != currentDelay)
+            adjustmentCount++;
+        return next;
+    }
+
+    public synchronized long getTargetDelay()
+    {
+        if (latencies.getSampleCount() < MIN_SAMPLES)
+            return maxDelay;
+        return Math.max(minDelay, Math.min(maxDelay, latencies.getPercentile(PERCENTILE) + margin));
+    }
+
+    public synchronized String getStats()
+    {
+        return "[min=" + minDelay + ", max=" + maxDelay + ", margin=" + margin + ", target=" + getTargetDelay() +
+                ", p" + (int) PERCENTILE + "=" + latencies.getPercentile(PERCENTILE) + ", maxLatency=" + latencies.getMax() +
+                ", captions=" + latencies.getTotalCount() + ", adjustments=" + adjustmentCount + "]";
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import com.wowza.util.FLVUtils;
+import com.wowza.wms.amf.AMFPacket;
+import com.wowza.wms.vhost.IVHost;
+
+import java.util.Comparator;
+
+/**
+ * Index entry of a packet held by a {@link DelayedStream}. The header fields needed for ordering and publishing are
+ * kept on the heap, the payload either on the heap or in a {@link PayloadStore} chunk.
+ */
+class DelayedPacket
+{
+    static final Comparator<DelayedPacket> COMPARATOR = (thisPacket, otherPacket) -> thisPacket == otherPacket ? 0 :
+            AMFPacketComparator.compare(thisPacket.timecode, thisPacket.type, thisPacket.codecConfig, otherPacket.timecode, otherPacket.type);
+
+    private final int type;
+    private final long timecode;
+    private final int seq;
+    private final boolean codecConfig;
+    private final boolean keyFrame;
+    private final int size;
+
+    // payload location, set by the PayloadStore
+    byte[] data;
+    PayloadStore.Chunk chunk;
+    int offset;
+
+    DelayedPacket(AMFPacket packet)
+    {
+        this.type = packet.getType();
+        this.timecode = packet.getAbsTimecode();
+        this.seq = packet.getSeq();
+        this.codecConfig = FLVUtils.isVideoCodecConfig(packet) || FLVUtils.isAudioCodecConfig(packet);
+        this.keyFrame = type == IVHost.CONTENTTYPE_VIDEO && FLVUtils.isVideoKeyFrame(packet);
+        this.size = packet.getSize();
+    }
+
+    int getType()
+    {
+        return type;
+    }
+
+    long getAbsTimecode()
+    {
+        return timecode;
+    }
+
+    int getSeq()
+    {
+        return seq;
+    }
+
+    boolean isCodecConfig()
+    {
+        return codecConfig;
+    }
+
+    boolean isKeyFrame()
+    {
+        return keyFrame;
+    }
+
+    int getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DelayedPacket{" +
+               "type=" + type +
+               ", timecode=" + timecode +
+               ", seq=" + seq +
+               ", size=" + size +
+               (chunk != null ? ", offHeap" : "") +
+               '}';
+    }
+}
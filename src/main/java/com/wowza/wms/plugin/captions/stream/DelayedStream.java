@@ -5,14 +5,15 @@
 
 package com.wowza.wms.plugin.captions.stream;
 
-import com.wowza.util.FLVUtils;
 import com.wowza.wms.amf.AMFPacket;
 import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
 import com.wowza.wms.logging.*;
 import com.wowza.wms.stream.*;
 import com.wowza.wms.stream.publish.Publisher;
 import com.wowza.wms.vhost.IVHost;
 
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -23,21 +24,56 @@ public class DelayedStream
     private static final Class<DelayedStream> CLASS = DelayedStream.class;
     private static final String CLASS_NAME = CLASS.getSimpleName();
     public static final long DEFAULT_START_DELAY = 30000;
+    // timecode span of a delay buffer bucket
+    private static final long BUCKET_MILLIS = 100;
     private final IApplicationInstance appInstance;
     private final WMSLogger logger;
     private final String streamName;
+    // shared by all delayed streams of the application instance, never shut down here
     private final ScheduledExecutorService executor;
     private final long startTime;
     private final long startDelay;
+    // playout delay in use, startDelay unless adapted by the delay controller or catching up
+    private volatile long streamDelay;
+    private final AdaptiveDelayController delayController;
+    // largest delay change at a key frame while catching up without a delay controller
+    private final long delayStep;
+    // key frame the delay was last adapted at, guarded by the packets lock
+    private DelayedPacket adaptedKeyFrame;
     private boolean debugLog = false;
-    private long startOffset = -1;
+    private volatile long startOffset = -1;
 
     private Publisher publisher;
     private boolean doSendOnMetaData = true;
     private boolean isFirstAudio = true;
     private boolean isFirstVideo = true;
-    private final Queue<AMFPacket> packets = new PriorityBlockingQueue<>(2400, new AMFPacketComparator());
+    private final TimecodeBucketBuffer<DelayedPacket> packets;
+    // payloads of the buffered packets, guarded by the packets lock
+    private final PayloadStore payloads;
     private volatile boolean doShutdown = false;
+    // the pending release task and its due time, guarded by the packets lock
+    private ScheduledFuture<?> releaseTask;
+    private long releaseDue = Long.MAX_VALUE;
+    private boolean released = false;
+    // the scheduler refused a release, so the stream is stopped on the calling thread, guarded by the packets lock
+    private boolean releaseRejected = false;
+    // one release at a time per stream, the publisher is not thread safe
+    private final Object releaseLock = new Object();
+    // buffer state published after every change for lock-free readers
+    private volatile long firstTimecode = -1;
+    private volatile long lastTimecode = -1;
+    private volatile long bufferedBytes = 0;
+    private volatile int packetCount = 0;
+    // highest timecode handed to the publisher, the playout head of the delayed stream
+    private volatile long lastReleasedTimecode = -1;
+    // timecodes of the buffered video key frames until publishing starts, guarded by the packets lock
+    private final ArrayDeque<Long> startKeyFrames = new ArrayDeque<>();
+    private boolean started = false;
+    // no video is published before a key frame, guarded by the packets lock
+    private boolean videoKeyFrameReleased = false;
+    private long skippedPacketCount = 0;
+    private volatile long timeToFirstFrame = -1;
+    private final List<Runnable> shutdownListeners = new CopyOnWriteArrayList<>();
 
     public DelayedStream(IApplicationInstance appInstance, String streamName, ScheduledExecutorService executor)
     {
@@ -47,8 +83,31 @@ public class DelayedStream
         this.streamName = streamName;
         this.executor = executor;
         startTime = System.currentTimeMillis();
-        startDelay = appInstance.getProperties().getPropertyLong(PROP_CAPTIONS_STREAM_DELAY, DEFAULT_START_DELAY);
-        executor.scheduleAtFixedRate(() -> processPackets(), 0, 75, TimeUnit.MILLISECONDS);
+        WMSProperties props = appInstance.getProperties();
+        startDelay = props.getPropertyLong(PROP_CAPTIONS_STREAM_DELAY, DEFAULT_START_DELAY);
+        if (props.getPropertyBoolean(PROP_ADAPTIVE_STREAM_DELAY, false))
+        {
+            delayController = new AdaptiveDelayController(props.getPropertyLong(PROP_MIN_STREAM_DELAY, DEFAULT_MIN_STREAM_DELAY),
+                    props.getPropertyLong(PROP_MAX_STREAM_DELAY, startDelay),
+                    props.getPropertyLong(PROP_ADAPTIVE_DELAY_MARGIN, DEFAULT_ADAPTIVE_DELAY_MARGIN),
+                    props.getPropertyLong(PROP_ADAPTIVE_DELAY_STEP, DEFAULT_ADAPTIVE_DELAY_STEP));
+            streamDelay = delayController.getInitialDelay();
+        }
+        else
+        {
+            delayController = null;
+            streamDelay = startDelay;
+        }
+        delayStep = Math.max(1, props.getPropertyLong(PROP_ADAPTIVE_DELAY_STEP, DEFAULT_ADAPTIVE_DELAY_STEP));
+        long catchUpDelay = props.getPropertyLong(PROP_CATCH_UP_STREAM_DELAY, 0);
+        if (catchUpDelay > 0 && catchUpDelay < streamDelay)
+            streamDelay = catchUpDelay;
+        long maxDelay = Math.max(startDelay, delayController != null ? props.getPropertyLong(PROP_MAX_STREAM_DELAY, startDelay) : startDelay);
+        packets = new TimecodeBucketBuffer<>(BUCKET_MILLIS, streamDelay, maxDelay, DelayedPacket::getAbsTimecode, DelayedPacket.COMPARATOR);
+        payloads = new PayloadStore(logger, appInstance.getContextStr() + "/" + streamName,
+                props.getPropertyStr(PROP_DELAYED_STREAM_STORAGE, PayloadStore.STORAGE_HEAP),
+                props.getPropertyInt(PROP_DELAYED_STREAM_CHUNK_SIZE, DEFAULT_DELAYED_STREAM_CHUNK_SIZE),
+                Paths.get(props.getPropertyStr(PROP_DELAYED_STREAM_SPILL_DIR, System.getProperty("java.io.tmpdir"))));
     }
 
     public long getStartOffset()
@@ -60,30 +119,140 @@ public class DelayedStream
     {
         if(doShutdown)
             return;
-        packets.add(packet);
+        DelayedPacket delayedPacket = new DelayedPacket(packet);
+        boolean rejected;
+        synchronized (packets)
+        {
+            if (released)
+                return;
+            if (startOffset == -1)
+                startOffset = packet.getAbsTimecode();
+            payloads.store(delayedPacket, packet.getData());
+            packets.add(delayedPacket);
+            if (!started && delayedPacket.isKeyFrame())
+                startKeyFrames.add(delayedPacket.getAbsTimecode());
+            bufferedBytes += delayedPacket.getSize();
+            updateBufferState();
+            scheduleRelease(getDueTime(delayedPacket.getAbsTimecode()));
+            rejected = releaseRejected;
+        }
+        if (rejected)
+            stop();
         if (debugLog)
             logger.info(MODULE_NAME + "::" + CLASS_NAME + ".writePacket() [" + appInstance.getContextStr() + "/" + streamName + "] packet: " + packet);
-        if (startOffset == -1)
-            startOffset = packet.getAbsTimecode();
     }
 
-    private void processPackets()
+    // wall clock time a packet is due: the stream delay after the stream started plus its offset into the stream
+    private long getDueTime(long timecode)
+    {
+        return startTime + streamDelay + Math.max(0, timecode - startOffset);
+    }
+
+    /**
+     * The playout delay currently applied to the stream in milliseconds.
+     */
+    public long getStreamDelay()
+    {
+        return streamDelay;
+    }
+
+    /**
+     * Reports a caption starting at absolute timecode {@code captionTimecode} that has just been written, for the
+     * adaptive delay. The latency is measured against the newest buffered packet, the live edge of the stream.
+     */
+    public void recordCaptionLatency(long captionTimecode)
     {
+        if (delayController == null)
+            return;
+        long liveEdge = lastTimecode;
+        if (liveEdge != -1)
+            delayController.recordLatency(liveEdge - captionTimecode);
+    }
+
+    /**
+     * Makes sure a release runs at {@code due} at the latest. Called holding the packets lock; when the scheduler has
+     * been shut down it sets {@code releaseRejected} and the caller calls {@link #stop()} once it has let go of the lock.
+     */
+    private void scheduleRelease(long due)
+    {
+        if (released || due >= releaseDue)
+            return;
+        if (releaseTask != null)
+            releaseTask.cancel(false);
+        releaseDue = due;
         try
         {
-            if(doShutdown && packets.isEmpty())
+            releaseTask = executor.schedule(this::processPackets, Math.max(0, due - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the application is stopping, no later release would run
+            releaseTask = null;
+            releaseRejected = true;
+        }
+    }
+
+    private void processPackets()
+    {
+        synchronized (releaseLock)
+        {
+            synchronized (packets)
+            {
+                // this run takes over the pending release
+                releaseTask = null;
+                releaseDue = Long.MAX_VALUE;
+            }
+            releasePackets(false);
+            boolean finished = false;
+            boolean rejected = false;
+            synchronized (packets)
+            {
+                if (doShutdown && packets.isEmpty())
+                {
+                    finished = !released;
+                    released = true;
+                }
+                else if (!packets.isEmpty())
+                {
+                    scheduleRelease(getDueTime(packets.peek().getAbsTimecode()));
+                    rejected = releaseRejected;
+                }
+            }
+            if (rejected)
+                stop();
+            else if (finished)
             {
-                executor.shutdown();
                 shutdownPublisher();
+                synchronized (packets)
+                {
+                    closePayloads();
+                }
             }
+        }
+    }
 
+    /**
+     * Publishes the packets that are due, or all buffered packets when {@code flush} is set.
+     */
+    private void releasePackets(boolean flush)
+    {
+        try
+        {
             long now = System.currentTimeMillis();
-            if(now - startDelay < startTime)
+            if(!flush && now - streamDelay < startTime)
                 return;
-            if(packets.isEmpty())
+            if(isEmpty())
             {
                 return;
             }
+            // packets are due once their timecode is the stream delay behind the wall clock
+            long dueTimecode = now - streamDelay - startTime + startOffset;
+            long maxTimecode = flush ? Long.MAX_VALUE : dueTimecode;
+            synchronized (packets)
+            {
+                if (!started)
+                    alignStart(dueTimecode);
+            }
             if (publisher == null)
             {
                 publisher = Publisher.createInstance(appInstance);
@@ -92,12 +261,51 @@ public class DelayedStream
             }
             while (true)
             {
-                AMFPacket packet = packets.peek();
-                if (packet == null)
-                    return;
+                DelayedPacket packet;
+                byte[] data;
+                synchronized (packets)
+                {
+                    DelayedPacket head = packets.peek();
+                    if ((delayController != null || streamDelay < startDelay) && head != null && head.isKeyFrame() && head != adaptedKeyFrame)
+                    {
+                        // only change the delay at key frames, players can join or skip there
+                        adaptedKeyFrame = head;
+                        long delay = delayController != null ? delayController.nextDelay(streamDelay) : Math.min(startDelay, streamDelay + delayStep);
+                        if (delay != streamDelay)
+                        {
+                            if (debugLog)
+                                logger.info(MODULE_NAME + "::" + CLASS_NAME + ".processPackets() [" + appInstance.getContextStr() + "/" + streamName + "] stream delay: " + streamDelay + " -> " + delay);
+                            streamDelay = delay;
+                            if (!flush)
+                                maxTimecode = now - streamDelay - startTime + startOffset;
+                        }
+                    }
+                    packet = packets.pollUntil(maxTimecode);
+                    if (packet == null)
+                        return;
+                    bufferedBytes -= packet.getSize();
+                    updateBufferState();
+                    lastReleasedTimecode = Math.max(lastReleasedTimecode, packet.getAbsTimecode());
+                    if (packet.getType() == IVHost.CONTENTTYPE_VIDEO && !videoKeyFrameReleased)
+                    {
+                        // frames before the first key frame cannot be decoded
+                        if (!packet.isKeyFrame())
+                        {
+                            payloads.release(packet);
+                            skippedPacketCount++;
+                            continue;
+                        }
+                        videoKeyFrameReleased = true;
+                    }
+                    data = payloads.load(packet);
+                }
                 long timecode = packet.getAbsTimecode();
-                if (startTime - startOffset + timecode > now - startDelay)
-                    break;
+                if (timeToFirstFrame == -1 && packet.getType() != IVHost.CONTENTTYPE_DATA0 && packet.getType() != IVHost.CONTENTTYPE_DATA3)
+                {
+                    timeToFirstFrame = now - startTime;
+                    logger.info(MODULE_NAME + "::" + CLASS_NAME + ".processPackets() [" + appInstance.getContextStr() + "/" + streamName + "] first frame after " + timeToFirstFrame +
+                            "ms, stream delay: " + streamDelay + ", skipped packets: " + skippedPacketCount);
+                }
 
                 if (debugLog)
                     logger.info(MODULE_NAME + "::" + CLASS_NAME + ".processPackets() [" + appInstance.getContextStr() + "/" + streamName + "] packet: " + packet);
@@ -155,11 +363,11 @@ public class DelayedStream
                                 publisher.addAudioData(configPacket.getData(), configPacket.getSize(), timecode);
                             isFirstAudio = false;
                         }
-                        publisher.addAudioData(packet.getData(), packet.getSize(), timecode);
+                        publisher.addAudioData(data, packet.getSize(), timecode);
                         break;
                     case IVHost.CONTENTTYPE_VIDEO:
                         if (debugLog)
-                            logger.info(MODULE_NAME + "::" + CLASS_NAME + ".writePacket live: vi" + (FLVUtils.isVideoKeyFrame(packet) ? "k" : "p") + ":" + timecode + ":" + packet.getSeq());
+                            logger.info(MODULE_NAME + "::" + CLASS_NAME + ".writePacket live: vi" + (packet.isKeyFrame() ? "k" : "p") + ":" + timecode + ":" + packet.getSeq());
                         if (isFirstVideo)
                         {
                             IMediaStream videoSourceStream = appInstance.getStreams().getStream(streamName);
@@ -170,16 +378,15 @@ public class DelayedStream
                                 publisher.addVideoData(configPacket.getData(), configPacket.getSize(), timecode);
                             isFirstVideo = false;
                         }
-                        publisher.addVideoData(packet.getData(), packet.getSize(), timecode);
+                        publisher.addVideoData(data, packet.getSize(), timecode);
                         break;
                     case IVHost.CONTENTTYPE_DATA0:
                     case IVHost.CONTENTTYPE_DATA3:
                         if (debugLog)
                             logger.info(MODULE_NAME + "::" + CLASS_NAME + ".writePacket live: dat:" + timecode + ":" + packet.getSeq());
-                        publisher.addDataData(packet.getData(), packet.getSize(), timecode);
+                        publisher.addDataData(data, packet.getSize(), timecode);
                         break;
                 }
-                packets.remove(packet);
             }
         }
         catch (Exception e)
@@ -188,9 +395,108 @@ public class DelayedStream
         }
     }
 
+    /**
+     * Starts publishing on a video key frame: the latest buffered one that is already due, otherwise the first one
+     * buffered, and drops the packets in front of it. Without a buffered key frame, for example on audio only streams,
+     * nothing is dropped here and video is held back until a key frame is released. Called holding the packets lock.
+     */
+    private void alignStart(long maxTimecode)
+    {
+        started = true;
+        if (startKeyFrames.isEmpty())
+            return;
+        long keyFrame = startKeyFrames.peekFirst();
+        for (long timecode : startKeyFrames)
+        {
+            if (timecode <= maxTimecode)
+                keyFrame = timecode;
+        }
+        startKeyFrames.clear();
+        DelayedPacket packet;
+        while ((packet = packets.pollUntil(keyFrame - 1)) != null)
+        {
+            payloads.release(packet);
+            bufferedBytes -= packet.getSize();
+            skippedPacketCount++;
+        }
+        updateBufferState();
+        // the delay does not change on the frame playout starts with
+        DelayedPacket head = packets.peek();
+        if (head != null && head.isKeyFrame())
+            adaptedKeyFrame = head;
+    }
+
+    /**
+     * Milliseconds from the creation of the stream until its first audio or video packet was published, or -1 before
+     * that.
+     */
+    public long getTimeToFirstFrame()
+    {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * Runs {@code listener} when the stream is shut down and stops accepting packets, right away if it already has.
+     */
+    public void addShutdownListener(Runnable listener)
+    {
+        shutdownListeners.add(listener);
+        if (doShutdown && shutdownListeners.remove(listener))
+            listener.run();
+    }
+
     public void shutdown()
     {
         doShutdown = true;
+        runShutdownListeners();
+        // runs right away to unpublish a stream with nothing left to release
+        boolean rejected;
+        synchronized (packets)
+        {
+            scheduleRelease(System.currentTimeMillis());
+            rejected = releaseRejected;
+        }
+        if (rejected)
+            stop();
+    }
+
+    /**
+     * Shuts the stream down and, instead of waiting for the buffered packets to become due, publishes them right
+     * away, unpublishes the delayed stream and releases the payloads on the calling thread. Used when the application
+     * stops, as the shared scheduler will not run any more releases.
+     */
+    public void stop()
+    {
+        doShutdown = true;
+        runShutdownListeners();
+        synchronized (releaseLock)
+        {
+            synchronized (packets)
+            {
+                if (released)
+                    return;
+                released = true;
+                if (releaseTask != null)
+                    releaseTask.cancel(false);
+                releaseTask = null;
+                releaseDue = Long.MAX_VALUE;
+            }
+            releasePackets(true);
+            shutdownPublisher();
+            synchronized (packets)
+            {
+                closePayloads();
+            }
+        }
+    }
+
+    private void runShutdownListeners()
+    {
+        for (Runnable listener : shutdownListeners)
+        {
+            if (shutdownListeners.remove(listener))
+                listener.run();
+        }
     }
 
     private void shutdownPublisher()
@@ -208,17 +514,71 @@ public class DelayedStream
         return startTime;
     }
 
+    // called holding the packets lock
+    private void closePayloads()
+    {
+        if (delayController != null)
+            logger.info(MODULE_NAME + "::" + CLASS_NAME + ".closePayloads() [" + appInstance.getContextStr() + "/" + streamName + "] adaptive delay: " + streamDelay + " " + delayController.getStats());
+        if (payloads.isOffHeap())
+            logger.info(MODULE_NAME + "::" + CLASS_NAME + ".closePayloads() [" + appInstance.getContextStr() + "/" + streamName + "] " + payloads.getStats());
+        payloads.close();
+    }
+
+    private boolean isEmpty()
+    {
+        return packetCount == 0;
+    }
+
+    // called holding the packets lock
+    private void updateBufferState()
+    {
+        firstTimecode = packets.getFirstTimecode();
+        lastTimecode = packets.getLastTimecode();
+        packetCount = packets.size();
+    }
+
+    /**
+     * Timecode of the oldest buffered packet, or -1 when nothing is buffered.
+     */
     public long getFirstPacketTimecode()
     {
-        return packets.stream()
-                .reduce((prev, next) -> prev)
-                .map(AMFPacket::getAbsTimecode).orElse(-1L);
+        return firstTimecode;
     }
 
+    /**
+     * Highest timecode of the buffered packets, or -1 when nothing is buffered.
+     */
     public long getLastPacketTimecode()
     {
-        return packets.stream()
-                .reduce((prev, next) -> next)
-                .map(AMFPacket::getAbsTimecode).orElse(-1L);
+        return lastTimecode;
+    }
+
+    /**
+     * Highest timecode released to the delayed stream so far, or -1 before the first release. Packets written with
+     * an earlier timecode go out behind the playout head.
+     */
+    public long getLastReleasedTimecode()
+    {
+        return lastReleasedTimecode;
+    }
+
+    public int getBufferedPacketCount()
+    {
+        return packetCount;
+    }
+
+    public long getBufferedBytes()
+    {
+        return bufferedBytes;
+    }
+
+    /**
+     * Timecode span of the buffered packets in milliseconds.
+     */
+    public long getBufferedDuration()
+    {
+        long first = firstTimecode;
+        long last = lastTimecode;
+        return first == -1 || last < first ? 0 : last - first;
     }
 }
@@ -11,7 +11,7 @@ import com.wowza.wms.mediacaster.*;
 import com.wowza.wms.stream.*;
 
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.DELAYED_STREAM_SUFFIX;
 
@@ -19,11 +19,13 @@ public class DelayedStreamListener implements IMediaStreamLivePacketNotify, Medi
 {
     protected final IApplicationInstance appInstance;
     protected final Map<String, DelayedStream> delayedStreams;
+    protected final ScheduledExecutorService scheduler;
 
-    public DelayedStreamListener(IApplicationInstance appInstance, Map<String, DelayedStream> delayedStreams)
+    public DelayedStreamListener(IApplicationInstance appInstance, Map<String, DelayedStream> delayedStreams, ScheduledExecutorService scheduler)
     {
         this.appInstance = appInstance;
         this.delayedStreams = delayedStreams;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -44,7 +46,7 @@ public class DelayedStreamListener implements IMediaStreamLivePacketNotify, Medi
             return;
         String mappedName = streamName.replace(".stream", "");
         DelayedStream delayedStream = delayedStreams.computeIfAbsent(mappedName,
-                name -> new DelayedStream(appInstance, streamName, Executors.newSingleThreadScheduledExecutor()));
+                name -> new DelayedStream(appInstance, streamName, scheduler));
         delayedStream.writePacket(packet);
     }
 
@@ -0,0 +1,231 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the payloads of delayed packets out of the Java heap.
+ * <p>
+ * Payloads are appended to fixed size chunks of direct memory ({@code direct}) or of a memory-mapped spill file per
+ * stream ({@code mapped}). A chunk counts the payloads it holds and goes back to the store's free list once the last
+ * one has been released, so a stream in steady state cycles through the same chunks. With {@code heap} the payload
+ * arrays are kept as they are. Payloads larger than a chunk, and payloads that cannot be placed because direct memory
+ * or the spill file is exhausted, stay on the heap.
+ * <p>
+ * Not thread safe, the {@link DelayedStream} calls it holding its buffer lock.
+ */
+class PayloadStore
+{
+    private static final Class<PayloadStore> CLASS = PayloadStore.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+
+    public static final String STORAGE_HEAP = "heap";
+    public static final String STORAGE_DIRECT = "direct";
+    public static final String STORAGE_MAPPED = "mapped";
+
+    private final WMSLogger logger;
+    private final String name;
+    private final String storage;
+    private final int chunkSize;
+    private final Path spillDir;
+    private final ArrayDeque<Chunk> freeChunks = new ArrayDeque<>();
+
+    private Chunk current;
+    private FileChannel spillChannel;
+    private Path spillFile;
+    private int mappedChunkCount = 0;
+    private boolean allocationFailed = false;
+    private boolean closed = false;
+
+    private int chunkCount = 0;
+    private long offHeapBytes = 0;
+    private long peakOffHeapBytes = 0;
+    private long heapFallbackCount = 0;
+
+    PayloadStore(WMSLogger logger, String name, String storage, int chunkSize, Path spillDir)
+    {
+        this.logger = logger;
+        this.name = name;
+        this.storage = STORAGE_DIRECT.equalsIgnoreCase(storage) ? STORAGE_DIRECT : STORAGE_MAPPED.equalsIgnoreCase(storage) ? STORAGE_MAPPED : STORAGE_HEAP;
+        this.chunkSize = Math.max(64 * 1024, chunkSize);
+        this.spillDir = spillDir;
+    }
+
+    boolean isOffHeap()
+    {
+        return !storage.equals(STORAGE_HEAP);
+    }
+
+    /**
+     * Stores the first {@code packet.getSize()} bytes of {@code data} as the payload of {@code packet}.
+     */
+    void store(DelayedPacket packet, byte[] data)
+    {
+        int size = packet.getSize();
+        if (!isOffHeap() || closed || size > chunkSize || size == 0)
+        {
+            packet.data = data;
+            return;
+        }
+        if (current == null || current.writePos + size > chunkSize)
+        {
+            retireCurrent();
+            current = nextChunk();
+            if (current == null)
+            {
+                heapFallbackCount++;
+                packet.data = data;
+                return;
+            }
+        }
+        current.buffer.put(current.writePos, data, 0, size);
+        packet.chunk = current;
+        packet.offset = current.writePos;
+        current.writePos += size;
+        current.refCount++;
+        offHeapBytes += size;
+        peakOffHeapBytes = Math.max(peakOffHeapBytes, offHeapBytes);
+    }
+
+    /**
+     * Copies the payload of {@code packet} back onto the heap for publishing and releases its off-heap space.
+     */
+    byte[] load(DelayedPacket packet)
+    {
+        Chunk chunk = packet.chunk;
+        if (chunk == null)
+        {
+            byte[] data = packet.data;
+            packet.data = null;
+            return data;
+        }
+        byte[] data = new byte[packet.getSize()];
+        chunk.buffer.get(packet.offset, data, 0, data.length);
+        release(packet);
+        return data;
+    }
+
+    /**
+     * Frees the payload of {@code packet} without reading it.
+     */
+    void release(DelayedPacket packet)
+    {
+        Chunk chunk = packet.chunk;
+        packet.data = null;
+        if (chunk == null)
+            return;
+        packet.chunk = null;
+        offHeapBytes -= packet.getSize();
+        chunk.refCount--;
+        if (chunk.refCount == 0 && chunk != current)
+            free(chunk);
+    }
+
+    void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        // direct and mapped buffers are returned to the OS when they are garbage collected
+        freeChunks.clear();
+        current = null;
+        if (spillChannel != null)
+        {
+            try
+            {
+                spillChannel.close();
+                Files.deleteIfExists(spillFile);
+            }
+            catch (IOException e)
+            {
+                logger.warn(CLASS_NAME + ".close [" + name + "] failed to remove spill file " + spillFile + ": " + e);
+            }
+            spillChannel = null;
+        }
+    }
+
+    String getStats()
+    {
+        return "[storage=" + storage + ", chunkSize=" + chunkSize + ", chunks=" + chunkCount + ", offHeapBytes=" + offHeapBytes +
+                ", peakOffHeapBytes=" + peakOffHeapBytes + ", heapFallbacks=" + heapFallbackCount + "]";
+    }
+
+    private void retireCurrent()
+    {
+        Chunk chunk = current;
+        current = null;
+        if (chunk != null && chunk.refCount == 0)
+            free(chunk);
+    }
+
+    private void free(Chunk chunk)
+    {
+        chunk.writePos = 0;
+        if (!closed)
+            freeChunks.add(chunk);
+    }
+
+    private Chunk nextChunk()
+    {
+        Chunk chunk = freeChunks.pollLast();
+        if (chunk != null)
+            return chunk;
+        if (allocationFailed)
+            return null;
+        try
+        {
+            ByteBuffer buffer = storage.equals(STORAGE_MAPPED) ? mapChunk() : ByteBuffer.allocateDirect(chunkSize);
+            chunkCount++;
+            return new Chunk(buffer);
+        }
+        catch (IOException | OutOfMemoryError e)
+        {
+            // keep further payloads on the heap rather than retrying every packet
+            allocationFailed = true;
+            logger.error(CLASS_NAME + ".nextChunk [" + name + "] cannot allocate " + storage + " chunk, keeping payloads on the heap: " + e);
+            return null;
+        }
+    }
+
+    private ByteBuffer mapChunk() throws IOException
+    {
+        if (spillChannel == null)
+        {
+            File dir = spillDir.toFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("cannot create spill directory " + dir);
+            spillFile = Files.createTempFile(spillDir, "delayed-", ".spill");
+            spillFile.toFile().deleteOnExit();
+            spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        long position = (long) mappedChunkCount * chunkSize;
+        ByteBuffer buffer = spillChannel.map(FileChannel.MapMode.READ_WRITE, position, chunkSize);
+        mappedChunkCount++;
+        return buffer;
+    }
+
+    static final class Chunk
+    {
+        private final ByteBuffer buffer;
+        private int writePos = 0;
+        private int refCount = 0;
+
+        private Chunk(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+}
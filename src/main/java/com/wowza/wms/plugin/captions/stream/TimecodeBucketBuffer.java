@@ -0,0 +1,289 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Delay buffer that keeps items ordered by timecode in a ring of fixed width timecode buckets.
+ * <p>
+ * An item goes straight to the bucket of its timecode, so appending in-order media is O(1) and so is taking the
+ * oldest item off the head. Within a bucket items are kept in {@code comparator} order; only an item that arrives out
+ * of order, such as a caption data packet timed in the past, is moved back past the items that sort after it. Items
+ * older than the head bucket are released next. The ring grows when the buffered span exceeds it, up to twice the
+ * largest delay, and bucket storage is reused once the head has passed, so a buffer in steady state does not allocate.
+ * <p>
+ * A timecode jump further ahead than that is a discontinuity: the items past it wait in a small priority queue instead
+ * of the ring growing over the gap, and move into the ring once the head gets close or the items before the jump have
+ * left. Empty buckets are skipped without allocating them.
+ * <p>
+ * Not thread safe, callers synchronize on the buffer.
+ */
+public class TimecodeBucketBuffer<T>
+{
+    private static final int INITIAL_BUCKET_CAPACITY = 8;
+
+    private final long bucketMillis;
+    private final ToLongFunction<T> timecodeFunction;
+    private final Comparator<T> comparator;
+
+    private final int maxBuckets;
+    // items past the end of the ring, so all of them sort after the items in the ring
+    private final PriorityQueue<T> overflow;
+
+    private Bucket[] buckets;
+    // absolute bucket number of the head, valid when size > 0
+    private long headBucket;
+    // items in the ring, the overflow is empty when the ring is
+    private int size = 0;
+    private long lastTimecode = -1;
+
+    /**
+     * @param bucketMillis  timecode span of a bucket
+     * @param initialSpan   timecode span the ring covers before it has to grow, normally the delay
+     * @param maxSpan       largest delay, the ring does not grow past twice this span
+     */
+    public TimecodeBucketBuffer(long bucketMillis, long initialSpan, long maxSpan, ToLongFunction<T> timecodeFunction, Comparator<T> comparator)
+    {
+        this.bucketMillis = Math.max(1, bucketMillis);
+        this.timecodeFunction = timecodeFunction;
+        this.comparator = comparator;
+        this.buckets = new Bucket[(int) Math.max(16, initialSpan / this.bucketMillis + 16)];
+        this.maxBuckets = (int) Math.min(1 << 20, Math.max(buckets.length, 2 * (maxSpan / this.bucketMillis) + 16));
+        this.overflow = new PriorityQueue<>(comparator);
+    }
+
+    public void add(T item)
+    {
+        long timecode = timecodeFunction.applyAsLong(item);
+        long bucketNumber = Math.floorDiv(timecode, bucketMillis);
+        if (size == 0)
+            headBucket = bucketNumber;
+        else if (bucketNumber < headBucket)
+            // already late, queue it with the head bucket so it is released next
+            bucketNumber = headBucket;
+        else if (bucketNumber - headBucket >= maxBuckets)
+        {
+            // a jump past the delay window, keep it aside rather than grow the ring over the gap
+            overflow.add(item);
+            if (timecode > lastTimecode)
+                lastTimecode = timecode;
+            return;
+        }
+        else if (bucketNumber - headBucket >= buckets.length)
+        {
+            grow(bucketNumber - headBucket + 1);
+            moveOverflowIntoRing();
+        }
+
+        insert(bucket(bucketNumber), item);
+        // items leave in order, so the highest timecode added since the buffer was empty is still buffered
+        if (size == 0 || timecode > lastTimecode)
+            lastTimecode = timecode;
+        size++;
+    }
+
+    /**
+     * The oldest item, or {@code null} when empty.
+     */
+    public T peek()
+    {
+        return size == 0 ? null : headItem();
+    }
+
+    public T poll()
+    {
+        if (size == 0)
+            return null;
+        return removeHead();
+    }
+
+    /**
+     * Takes the oldest item off the buffer if its timecode is at most {@code maxTimecode}.
+     */
+    public T pollUntil(long maxTimecode)
+    {
+        if (size == 0 || timecodeFunction.applyAsLong(headItem()) > maxTimecode)
+            return null;
+        return removeHead();
+    }
+
+    public int size()
+    {
+        return size + overflow.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Timecode of the oldest item, or -1 when empty.
+     */
+    public long getFirstTimecode()
+    {
+        return size == 0 ? -1 : timecodeFunction.applyAsLong(headItem());
+    }
+
+    /**
+     * Highest timecode of the buffered items, or -1 when empty.
+     */
+    public long getLastTimecode()
+    {
+        return size == 0 ? -1 : lastTimecode;
+    }
+
+    public void clear()
+    {
+        for (Bucket bucket : buckets)
+        {
+            if (bucket != null)
+                bucket.clear();
+        }
+        overflow.clear();
+        size = 0;
+    }
+
+    int getBucketCount()
+    {
+        return buckets.length;
+    }
+
+    private T headItem()
+    {
+        Bucket head = bucket(headBucket);
+        return itemAt(head, head.read);
+    }
+
+    private T removeHead()
+    {
+        Bucket head = bucket(headBucket);
+        T item = itemAt(head, head.read);
+        head.items[head.read++] = null;
+        size--;
+        if (head.isEmpty())
+        {
+            head.clear();
+            if (size > 0)
+            {
+                // skip the empty buckets of gaps in the timeline, there is an item within the ring
+                headBucket++;
+                while (isEmpty(headBucket))
+                    headBucket++;
+            }
+            else if (!overflow.isEmpty())
+                // the items before a discontinuity have left, continue after it
+                headBucket = bucketNumber(overflow.peek());
+            moveOverflowIntoRing();
+        }
+        return item;
+    }
+
+    private void moveOverflowIntoRing()
+    {
+        T item;
+        while ((item = overflow.peek()) != null && bucketNumber(item) - headBucket < buckets.length)
+        {
+            overflow.poll();
+            insert(bucket(bucketNumber(item)), item);
+            size++;
+        }
+    }
+
+    private long bucketNumber(T item)
+    {
+        return Math.floorDiv(timecodeFunction.applyAsLong(item), bucketMillis);
+    }
+
+    private boolean isEmpty(long bucketNumber)
+    {
+        Bucket bucket = buckets[(int) Math.floorMod(bucketNumber, (long) buckets.length)];
+        return bucket == null || bucket.isEmpty();
+    }
+
+    private Bucket bucket(long bucketNumber)
+    {
+        int index = (int) Math.floorMod(bucketNumber, (long) buckets.length);
+        Bucket bucket = buckets[index];
+        if (bucket == null)
+        {
+            bucket = new Bucket();
+            buckets[index] = bucket;
+        }
+        return bucket;
+    }
+
+    private void grow(long minBuckets)
+    {
+        int length = buckets.length;
+        int newLength = length;
+        while (newLength < minBuckets)
+            newLength = Math.min(maxBuckets, Math.multiplyExact(newLength, 2));
+        Bucket[] grown = new Bucket[newLength];
+        for (int i = 0; i < length; i++)
+        {
+            long bucketNumber = headBucket + i;
+            grown[(int) Math.floorMod(bucketNumber, (long) newLength)] = buckets[(int) Math.floorMod(bucketNumber, (long) length)];
+        }
+        buckets = grown;
+    }
+
+    private void insert(Bucket bucket, T item)
+    {
+        if (bucket.write == bucket.items.length)
+            bucket.makeRoom();
+        // in-order items stop at the first comparison, late ones move back past the items that sort after them
+        int position = bucket.write;
+        while (position > bucket.read && comparator.compare(item, itemAt(bucket, position - 1)) < 0)
+            position--;
+        if (position < bucket.write)
+            System.arraycopy(bucket.items, position, bucket.items, position + 1, bucket.write - position);
+        bucket.items[position] = item;
+        bucket.write++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T itemAt(Bucket bucket, int index)
+    {
+        return (T) bucket.items[index];
+    }
+
+    private static final class Bucket
+    {
+        private Object[] items = new Object[INITIAL_BUCKET_CAPACITY];
+        private int read = 0;
+        private int write = 0;
+
+        void makeRoom()
+        {
+            if (read > 0)
+            {
+                System.arraycopy(items, read, items, 0, write - read);
+                Arrays.fill(items, write - read, write, null);
+                write -= read;
+                read = 0;
+            }
+            else
+                items = Arrays.copyOf(items, items.length * 2);
+        }
+
+        boolean isEmpty()
+        {
+            return read == write;
+        }
+
+        void clear()
+        {
+            Arrays.fill(items, read, write, null);
+            read = 0;
+            write = 0;
+        }
+    }
+}
@@ -6,11 +6,13 @@
 package com.wowza.wms.plugin.captions.transcoder;
 
 import com.wowza.wms.plugin.captions.audio.SpeechHandler;
-import com.wowza.wms.plugin.captions.azure.AzureSpeechToTextHandler;
 import com.wowza.wms.plugin.captions.caption.CaptionHandler;
+import com.wowza.wms.plugin.captions.caption.CompositeCaptionHandler;
 import com.wowza.wms.plugin.captions.caption.DelayedStreamCaptionHandler;
 import com.wowza.wms.plugin.captions.stream.DelayedStream;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
 import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.logging.WMSLoggerFactory;
 import com.wowza.wms.transcoder.model.LiveStreamTranscoder;
 import com.wowza.wms.transcoder.model.TranscoderSessionAudio;
 
@@ -20,17 +22,24 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.DELAYED_STREAM_SUFFIX;
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.PROP_CAPTION_SINKS;
 
 public abstract class AudioResamplingTranscoderActionListener extends CaptionsTranscoderActionListener
 {
+    private static final String CLASS_NAME = AudioResamplingTranscoderActionListener.class.getSimpleName();
     protected final IApplicationInstance appInstance;
     private final Map<String, SpeechHandler> handlers;
     private final Map<String, DelayedStream> delayedStreams;
+    private final HandlerThreads handlerThreads;
+    private final ScheduledExecutorService delayedStreamScheduler;
 
     private static final Path resampleTemplate;
 
@@ -47,11 +56,14 @@ public abstract class AudioResamplingTranscoderActionListener extends CaptionsTr
         }
     }
 
-    public AudioResamplingTranscoderActionListener(IApplicationInstance appInstance, Map<String, SpeechHandler> handlers, Map<String, DelayedStream> delayedStreams)
+    public AudioResamplingTranscoderActionListener(IApplicationInstance appInstance, Map<String, SpeechHandler> handlers, Map<String, DelayedStream> delayedStreams,
+                                                   HandlerThreads handlerThreads, ScheduledExecutorService delayedStreamScheduler)
     {
         this.appInstance = appInstance;
         this.handlers = handlers;
         this.delayedStreams = delayedStreams;
+        this.handlerThreads = handlerThreads;
+        this.delayedStreamScheduler = delayedStreamScheduler;
     }
 
     @Override
@@ -72,19 +84,84 @@ public abstract class AudioResamplingTranscoderActionListener extends CaptionsTr
         TranscoderSessionAudio sessionAudio = transcoder.getTranscodingSession().getSessionAudio();
         SpeechHandler speechHandler = handlers.computeIfAbsent(mappedName, k -> {
             DelayedStream delayedStream = delayedStreams.computeIfAbsent(mappedName,
-                    name -> new DelayedStream(appInstance, streamName, Executors.newSingleThreadScheduledExecutor()));
-            CaptionHandler captionHandler = new DelayedStreamCaptionHandler(appInstance, delayedStream);
-            SpeechHandler handler = getSpeechHandler(captionHandler);
-            new Thread(handler, AzureSpeechToTextHandler.class.getSimpleName() + "[" + appInstance.getContextStr() + "/" + streamName + "]")
-                    .start();
-            return handler;
+                    name -> new DelayedStream(appInstance, streamName, delayedStreamScheduler));
+            CaptionHandler captionHandler = null;
+            SpeechHandler handler = null;
+            try
+            {
+                captionHandler = createCaptionHandler(streamName, delayedStream);
+                handler = getSpeechHandler(captionHandler);
+                SpeechHandler speechLoop = handler;
+                CaptionHandler captionSink = captionHandler;
+                handlerThreads.start(handler.getClass().getSimpleName() + "[" + appInstance.getContextStr() + "/" + streamName + "]", () -> {
+                    try
+                    {
+                        speechLoop.run();
+                    }
+                    finally
+                    {
+                        // the speech handler has handed over its last captions, release the sinks and their workers
+                        captionSink.close();
+                    }
+                });
+                return handler;
+            }
+            catch (RejectedExecutionException e)
+            {
+                WMSLoggerFactory.getLoggerObj(appInstance).error(CLASS_NAME + ".onInitStop [" + appInstance.getContextStr() + "/" + streamName +
+                        "] no handler thread available, stream will not be captioned: " + handlerThreads.getStats());
+                if (handler != null)
+                    handler.abort();
+                if (captionHandler != null)
+                    captionHandler.close();
+                return null;
+            }
         });
+        if (speechHandler == null)
+            return;
         TranscoderAudioFrameListener frameListener = new TranscoderAudioFrameListener(speechHandler);
         sessionAudio.addFrameListener(frameListener);
     }
 
     public abstract SpeechHandler getSpeechHandler(CaptionHandler captionHandler);
 
+    /**
+     * The delayed stream caption handler, fanned out together with the {@code captionHandlerSinks} (a comma separated
+     * list of {@link CaptionHandler} class names with an {@code (IApplicationInstance, String streamName)} constructor)
+     * when any are configured.
+     */
+    private CaptionHandler createCaptionHandler(String streamName, DelayedStream delayedStream)
+    {
+        CaptionHandler delayedStreamHandler = new DelayedStreamCaptionHandler(appInstance, delayedStream, delayedStreamScheduler);
+        String sinkClasses = appInstance.getProperties().getPropertyStr(PROP_CAPTION_SINKS, "");
+        if (sinkClasses.isBlank())
+            return delayedStreamHandler;
+
+        List<CaptionHandler> sinks = new ArrayList<>();
+        sinks.add(delayedStreamHandler);
+        for (String className : sinkClasses.split(","))
+        {
+            if (className.isBlank())
+                continue;
+            try
+            {
+                Class<? extends CaptionHandler> sinkClass = Class.forName(className.trim()).asSubclass(CaptionHandler.class);
+                sinks.add(sinkClass.getConstructor(IApplicationInstance.class, String.class).newInstance(appInstance, streamName));
+            }
+            catch (ReflectiveOperationException | ClassCastException e)
+            {
+                WMSLoggerFactory.getLoggerObj(appInstance).error(CLASS_NAME + ".createCaptionHandler [" + appInstance.getContextStr() + "/" + streamName +
+                        "] cannot create caption sink " + className.trim() + ": " + e, e);
+            }
+        }
+        if (sinks.size() == 1)
+            return delayedStreamHandler;
+        CompositeCaptionHandler compositeHandler = new CompositeCaptionHandler(appInstance, appInstance.getContextStr() + "/" + streamName, sinks, handlerThreads);
+        // captions are no longer published once the delayed stream has stopped
+        delayedStream.addShutdownListener(compositeHandler::close);
+        return compositeHandler;
+    }
+
     @Override
     public void onShutdownStart(LiveStreamTranscoder transcoder)
     {
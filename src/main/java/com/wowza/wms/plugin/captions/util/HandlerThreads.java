@@ -0,0 +1,214 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.util;
+
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.*;
+
+/**
+ * Runs the long-lived blocking loops of the caption handlers (speech handler loops, socket listeners).
+ * <p>
+ * Depending on {@code captionHandlerThreadMode} each loop gets its own platform thread (the default), a virtual
+ * thread (requires a Java 21+ runtime, falls back to platform threads otherwise) or a slot in a bounded pool of
+ * {@code captionHandlerMaxThreads} threads. The loops only end with their stream, so a bounded pool never queues
+ * them: once every slot is taken {@link #start} fails and the caller gives up on the stream, rather than leaving it
+ * waiting for a slot that may not come free. Active, peak and total thread counts are tracked for monitoring.
+ */
+public class HandlerThreads
+{
+    private static final Class<HandlerThreads> CLASS = HandlerThreads.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+    public static final String MODE_BOUNDED = "bounded";
+
+    private final WMSLogger logger;
+    private final String contextStr;
+    private final boolean debugLog;
+    private final String mode;
+    private final int maxThreads;
+    private final ThreadPoolExecutor boundedExecutor;
+    private final Method ofVirtual;
+    private final Method builderName;
+    private final Method builderUnstarted;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger peakCount = new AtomicInteger();
+    private final AtomicInteger startedCount = new AtomicInteger();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    public HandlerThreads(IApplicationInstance appInstance)
+    {
+        this.logger = WMSLoggerFactory.getLoggerObj(appInstance);
+        this.contextStr = appInstance.getContextStr();
+        WMSProperties props = appInstance.getProperties();
+        this.debugLog = props.getPropertyBoolean(PROP_CAPTIONS_DEBUG_LOG, false);
+        this.maxThreads = Math.max(1, props.getPropertyInt(PROP_MAX_HANDLER_THREADS, DEFAULT_MAX_HANDLER_THREADS));
+        String requestedMode = props.getPropertyStr(PROP_HANDLER_THREAD_MODE, MODE_PLATFORM).trim().toLowerCase();
+
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        if (requestedMode.equals(MODE_VIRTUAL))
+        {
+            // Thread.ofVirtual() is not part of the Java 17 API the plugin is compiled against, so look it up at runtime.
+            try
+            {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                builderName = builderClass.getMethod("name", String.class);
+                builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+            }
+            catch (ReflectiveOperationException e)
+            {
+                logger.warn(CLASS_NAME + " [" + contextStr + "] virtual threads require Java 21 or later (running " +
+                        System.getProperty("java.version") + "), using platform threads");
+                requestedMode = MODE_PLATFORM;
+                ofVirtual = null;
+            }
+        }
+        else if (!requestedMode.equals(MODE_BOUNDED))
+        {
+            requestedMode = MODE_PLATFORM;
+        }
+        this.mode = requestedMode;
+        this.ofVirtual = ofVirtual;
+        this.builderName = builderName;
+        this.builderUnstarted = builderUnstarted;
+
+        if (mode.equals(MODE_BOUNDED))
+        {
+            AtomicInteger poolThreadCount = new AtomicInteger();
+            // no queue, a loop either gets a thread right away or is rejected
+            boundedExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    r -> new Thread(r, CLASS_NAME + "-" + poolThreadCount.incrementAndGet() + "[" + contextStr + "]"));
+            boundedExecutor.allowCoreThreadTimeOut(true);
+        }
+        else
+            boundedExecutor = null;
+
+        logger.info(CLASS_NAME + " [" + contextStr + "] thread mode: " + mode + (boundedExecutor != null ? ", max threads: " + maxThreads : ""));
+    }
+
+    /**
+     * Starts {@code task} on a thread (or pool slot) named {@code name}.
+     *
+     * @throws RejectedExecutionException in bounded mode when all {@code captionHandlerMaxThreads} threads are busy
+     */
+    public void start(String name, Runnable task)
+    {
+        Runnable counted = () -> {
+            int active = activeCount.incrementAndGet();
+            peakCount.accumulateAndGet(active, Math::max);
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                activeCount.decrementAndGet();
+                if (debugLog)
+                    logger.info(CLASS_NAME + ".start [" + contextStr + "] finished: " + name + " " + getStats());
+            }
+        };
+
+        if (boundedExecutor != null)
+        {
+            try
+            {
+                boundedExecutor.execute(() -> {
+                    Thread thread = Thread.currentThread();
+                    String poolName = thread.getName();
+                    thread.setName(name);
+                    try
+                    {
+                        counted.run();
+                    }
+                    finally
+                    {
+                        thread.setName(poolName);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                rejectedCount.incrementAndGet();
+                logger.warn(CLASS_NAME + ".start [" + contextStr + "] all " + maxThreads + " threads are busy, cannot start " + name + " " + getStats());
+                throw e;
+            }
+        }
+        else
+            newThread(name, counted).start();
+        startedCount.incrementAndGet();
+
+        if (debugLog)
+            logger.info(CLASS_NAME + ".start [" + contextStr + "] started: " + name + " " + getStats());
+    }
+
+    private Thread newThread(String name, Runnable task)
+    {
+        if (ofVirtual != null)
+        {
+            try
+            {
+                Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+                return (Thread) builderUnstarted.invoke(builder, task);
+            }
+            catch (ReflectiveOperationException e)
+            {
+                logger.error(CLASS_NAME + ".newThread [" + contextStr + "] failed to create virtual thread, using platform thread: " + e, e);
+            }
+        }
+        return new Thread(task, name);
+    }
+
+    public void shutdown()
+    {
+        if (boundedExecutor != null)
+            boundedExecutor.shutdown();
+        logger.info(CLASS_NAME + ".shutdown [" + contextStr + "] " + getStats());
+    }
+
+    public String getMode()
+    {
+        return mode;
+    }
+
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+    public int getPeakCount()
+    {
+        return peakCount.get();
+    }
+
+    public int getStartedCount()
+    {
+        return startedCount.get();
+    }
+
+    public int getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    public String getStats()
+    {
+        return "[mode=" + mode + ", active=" + activeCount.get() + ", peak=" + peakCount.get() + ", started=" + startedCount.get() +
+                ", rejected=" + rejectedCount.get() + "]";
+    }
+}
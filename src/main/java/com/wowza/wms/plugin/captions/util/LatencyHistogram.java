@@ -0,0 +1,97 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.util;
+
+/**
+ * Histogram of the most recent {@code windowSize} latency samples in fixed width buckets, for percentile queries
+ * over a sliding window. Adding a sample is O(1), a percentile query scans the buckets. Samples above
+ * {@code maxMillis} are counted in the last bucket. Not thread safe.
+ */
+public class LatencyHistogram
+{
+    private final long bucketMillis;
+    private final int[] counts;
+    private final long[] window;
+    private int windowStart = 0;
+    private int sampleCount = 0;
+    private long totalCount = 0;
+    private long maxSample = 0;
+
+    public LatencyHistogram(long bucketMillis, long maxMillis, int windowSize)
+    {
+        this.bucketMillis = Math.max(1, bucketMillis);
+        this.counts = new int[(int) (Math.max(0, maxMillis) / this.bucketMillis) + 1];
+        this.window = new long[Math.max(1, windowSize)];
+    }
+
+    public void add(long latencyMillis)
+    {
+        long sample = Math.max(0, latencyMillis);
+        if (sampleCount == window.length)
+        {
+            // evict the oldest sample from the window
+            counts[bucket(window[windowStart])]--;
+            window[windowStart] = sample;
+            windowStart = (windowStart + 1) % window.length;
+        }
+        else
+        {
+            window[(windowStart + sampleCount) % window.length] = sample;
+            sampleCount++;
+        }
+        counts[bucket(sample)]++;
+        totalCount++;
+        maxSample = Math.max(maxSample, sample);
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code percentile} (0 - 100) of the samples in the window, or -1 when
+     * there are none.
+     */
+    public long getPercentile(double percentile)
+    {
+        if (sampleCount == 0)
+            return -1;
+        long rank = Math.max(1, (long) Math.ceil(sampleCount * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return (i + 1) * bucketMillis;
+        }
+        return counts.length * bucketMillis;
+    }
+
+    /**
+     * Number of samples in the window.
+     */
+    public int getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    /**
+     * Number of samples added since creation.
+     */
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Highest sample added since creation.
+     */
+    public long getMax()
+    {
+        return maxSample;
+    }
+
+    private int bucket(long sample)
+    {
+        return (int) Math.min(counts.length - 1, sample / bucketMillis);
+    }
+}
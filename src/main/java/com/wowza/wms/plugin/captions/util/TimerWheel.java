@@ -0,0 +1,271 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.util;
+
+import com.wowza.wms.logging.WMSLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timer wheel running one-shot deadlines for all streams of an application instance on a single thread.
+ * <p>
+ * Deadlines are rounded up to the next tick and hashed into a ring of buckets, so scheduling and cancelling are O(1)
+ * however many timeouts are pending. The thread only wakes on ticks while something is scheduled and waits
+ * without a timeout otherwise, so idle streams cost nothing. Tasks run on the wheel thread and must be short, any
+ * real work should be handed to another thread; a task that throws is logged and does not affect the others.
+ */
+public class TimerWheel
+{
+    private static final Class<TimerWheel> CLASS = TimerWheel.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+
+    private final WMSLogger logger;
+    private final String name;
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    private final Object lock = new Object();
+    private final Thread worker;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private long lastProcessedTick = 0;
+    private int pendingCount = 0;
+    private boolean running = true;
+
+    /**
+     * @param tickMillis resolution of the deadlines
+     * @param wheelSize  number of buckets, rounded up to a power of two. Deadlines further away than
+     *                   {@code tickMillis * wheelSize} are kept in their bucket over several turns of the wheel.
+     */
+    public TimerWheel(WMSLogger logger, String name, long tickMillis, int wheelSize)
+    {
+        this.logger = logger;
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs {@code task} on the wheel thread once {@code delayMillis} have passed, at most one tick late. After
+     * {@link #stop()} the task is not run and the returned timeout is already cancelled.
+     */
+    public Timeout schedule(Runnable task, long delayMillis)
+    {
+        Timeout timeout = new Timeout(task);
+        synchronized (lock)
+        {
+            if (!running)
+            {
+                timeout.state = Timeout.CANCELLED;
+                return timeout;
+            }
+            long now = System.nanoTime();
+            if (pendingCount == 0)
+            {
+                // nothing can be due in the ticks skipped while idle
+                lastProcessedTick = tickAt(now);
+            }
+            long dueNanos = now - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+            timeout.deadlineTick = Math.max(lastProcessedTick + 1, (dueNanos + tickNanos - 1) / tickNanos);
+            add(timeout);
+            pendingCount++;
+            if (pendingCount == 1)
+                lock.notify();
+        }
+        scheduledCount.incrementAndGet();
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel thread. Pending timeouts are discarded without running.
+     */
+    public void stop()
+    {
+        synchronized (lock)
+        {
+            running = false;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                for (Timeout timeout = buckets[i]; timeout != null; timeout = timeout.next)
+                    timeout.state = Timeout.CANCELLED;
+                buckets[i] = null;
+            }
+            pendingCount = 0;
+            lock.notify();
+        }
+    }
+
+    public int getPendingCount()
+    {
+        synchronized (lock)
+        {
+            return pendingCount;
+        }
+    }
+
+    public String getStats()
+    {
+        return "[pending=" + getPendingCount() + ", scheduled=" + scheduledCount.get() + ", expired=" + expiredCount.get() + "]";
+    }
+
+    private long tickAt(long nanoTime)
+    {
+        return (nanoTime - startNanos) / tickNanos;
+    }
+
+    private void run()
+    {
+        List<Timeout> expired = new ArrayList<>();
+        while (true)
+        {
+            synchronized (lock)
+            {
+                try
+                {
+                    while (running)
+                    {
+                        if (pendingCount == 0)
+                        {
+                            lock.wait();
+                            continue;
+                        }
+                        long waitNanos = startNanos + (lastProcessedTick + 1) * tickNanos - System.nanoTime();
+                        if (waitNanos <= 0)
+                            break;
+                        TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    running = false;
+                }
+                if (!running)
+                    return;
+
+                long currentTick = tickAt(System.nanoTime());
+                while (lastProcessedTick < currentTick && pendingCount > 0)
+                {
+                    lastProcessedTick++;
+                    expireBucket(lastProcessedTick, expired);
+                }
+                if (pendingCount == 0)
+                    lastProcessedTick = currentTick;
+            }
+
+            for (Timeout timeout : expired)
+            {
+                try
+                {
+                    timeout.task.run();
+                }
+                catch (Throwable t)
+                {
+                    logger.error(CLASS_NAME + ".run [" + name + "] timeout task failed: " + t, t);
+                }
+            }
+            expiredCount.addAndGet(expired.size());
+            expired.clear();
+        }
+    }
+
+    // called holding the lock
+    private void expireBucket(long tick, List<Timeout> expired)
+    {
+        Timeout timeout = buckets[(int) (tick & mask)];
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+            if (timeout.deadlineTick <= tick)
+            {
+                remove(timeout);
+                pendingCount--;
+                timeout.state = Timeout.EXPIRED;
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    // called holding the lock
+    private void add(Timeout timeout)
+    {
+        int index = (int) (timeout.deadlineTick & mask);
+        Timeout head = buckets[index];
+        timeout.next = head;
+        if (head != null)
+            head.prev = timeout;
+        buckets[index] = timeout;
+    }
+
+    // called holding the lock
+    private void remove(Timeout timeout)
+    {
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            buckets[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public final class Timeout
+    {
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Runnable task;
+        private long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        private int state = PENDING;
+
+        private Timeout(Runnable task)
+        {
+            this.task = task;
+        }
+
+        /**
+         * Prevents the task from running. Returns {@code false} when it already ran or was cancelled before.
+         */
+        public boolean cancel()
+        {
+            synchronized (lock)
+            {
+                if (state != PENDING)
+                    return false;
+                state = CANCELLED;
+                remove(this);
+                pendingCount--;
+                return true;
+            }
+        }
+
+        public boolean isPending()
+        {
+            synchronized (lock)
+            {
+                return state == PENDING;
+            }
+        }
+    }
+}
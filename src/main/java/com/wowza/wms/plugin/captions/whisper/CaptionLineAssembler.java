@@ -0,0 +1,168 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.plugin.captions.whisper.model.CaptionLine;
+
+import java.util.ArrayDeque;
+
+/**
+ * Packs the words of Whisper responses for one language into caption lines of at most {@code maxLineLength}
+ * characters, spreading each response's time range evenly over its words.
+ * <p>
+ * Words are found by scanning for whitespace and appended straight into the line's text buffer, times are kept as
+ * primitive milliseconds and lines handed back through {@link #recycle(CaptionLine)} are reused, so assembling a
+ * response does not allocate once the pool has warmed up. Not thread safe, callers synchronize on the assembler.
+ */
+public class CaptionLineAssembler
+{
+    private final String language;
+    private final int maxLineLength;
+    private final int newLineThreshold;
+    private final ArrayDeque<CaptionLine> lines = new ArrayDeque<>();
+    private final ArrayDeque<CaptionLine> free = new ArrayDeque<>();
+
+    public CaptionLineAssembler(String language, int maxLineLength, int newLineThreshold)
+    {
+        this.language = language;
+        this.maxLineLength = maxLineLength;
+        this.newLineThreshold = newLineThreshold;
+    }
+
+    /**
+     * Adds the words of {@code text}, spoken from {@code startMillis} to {@code endMillis}. Text continues the last
+     * line when it starts less than {@code newLineThreshold} ms after that line ended.
+     */
+    public void append(CharSequence text, long startMillis, long endMillis)
+    {
+        int wordCount = countWords(text);
+        if (wordCount == 0)
+            return;
+
+        CaptionLine line = lines.peekLast();
+        long currentEnd;
+        if (line != null && startMillis - line.getEndMillis() < newLineThreshold)
+        {
+            currentEnd = line.getEndMillis();
+        }
+        else
+        {
+            line = newLine(startMillis);
+            currentEnd = startMillis;
+        }
+
+        double perWordDuration = (double) (endMillis - startMillis) / wordCount;
+        StringBuilder sb = line.getTextBuilder();
+        int length = text.length();
+        int word = 0;
+        int i = 0;
+        while (i < length)
+        {
+            while (i < length && isWhitespace(text.charAt(i)))
+                i++;
+            if (i == length)
+                break;
+            int wordStart = i;
+            while (i < length && !isWhitespace(text.charAt(i)))
+                i++;
+
+            long wordStartMillis = startMillis + (long) (word * perWordDuration);
+            if (sb.length() > 0)
+            {
+                // check if the text length + preceding space will exceed the max line length. If so, create a new line
+                if (sb.length() + 1 + (i - wordStart) > maxLineLength)
+                {
+                    // end the line at the last word that was actually included
+                    line.setEndMillis(currentEnd);
+                    line = newLine(wordStartMillis);
+                    sb = line.getTextBuilder();
+                }
+                else
+                    sb.append(' ');
+            }
+            sb.append(text, wordStart, i);
+            word++;
+            currentEnd = startMillis + (long) (word * perWordDuration);
+        }
+        line.setEndMillis(currentEnd);
+    }
+
+    private CaptionLine newLine(long startMillis)
+    {
+        CaptionLine line = free.pollLast();
+        if (line == null)
+            line = new CaptionLine(language);
+        else
+            line.reset();
+        line.setStartMillis(startMillis);
+        lines.add(line);
+        return line;
+    }
+
+    // the characters matched by the regex \s
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static int countWords(CharSequence text)
+    {
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++)
+        {
+            boolean whitespace = isWhitespace(text.charAt(i));
+            if (!whitespace && !inWord)
+                count++;
+            inWord = !whitespace;
+        }
+        return count;
+    }
+
+    public int size()
+    {
+        return lines.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return lines.isEmpty();
+    }
+
+    public CaptionLine peekFirst()
+    {
+        return lines.peekFirst();
+    }
+
+    public CaptionLine peekLast()
+    {
+        return lines.peekLast();
+    }
+
+    public CaptionLine pollFirst()
+    {
+        return lines.pollFirst();
+    }
+
+    /**
+     * Returns a line taken with {@link #pollFirst()} for reuse once its text and times have been read.
+     */
+    public void recycle(CaptionLine line)
+    {
+        free.add(line);
+    }
+
+    public String getLanguage()
+    {
+        return language;
+    }
+
+    @Override
+    public String toString()
+    {
+        return lines.toString();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format used by {@link FramedWhisperTransport} to carry many audio sessions over one TCP connection.
+ * <p>
+ * Every frame is {@code [int length][byte type][int sessionId][payload]}, big endian, where {@code length} counts
+ * the type, session id and payload bytes. Upstream the client sends {@link #TYPE_OPEN}, any number of
+ * {@link #TYPE_AUDIO} frames with raw PCM and finally {@link #TYPE_CLOSE}. Downstream the server sends
+ * {@link #TYPE_RESPONSE} frames, each holding one UTF-8 JSON {@code WhisperResponse}, and {@link #TYPE_END} once it
+ * has finished with the session.
+ */
+public final class FramedWhisperProtocol
+{
+    public static final byte TYPE_OPEN = 1;
+    public static final byte TYPE_AUDIO = 2;
+    public static final byte TYPE_CLOSE = 3;
+    public static final byte TYPE_RESPONSE = 4;
+    public static final byte TYPE_END = 5;
+
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    private FramedWhisperProtocol()
+    {
+    }
+
+    /**
+     * Fills {@code header} with a frame header and flips it, ready to be written.
+     */
+    public static ByteBuffer putHeader(ByteBuffer header, byte type, int sessionId, int payloadLength)
+    {
+        header.clear();
+        header.putInt(HEADER_SIZE - 4 + payloadLength);
+        header.put(type);
+        header.putInt(sessionId);
+        header.flip();
+        return header;
+    }
+
+    public static Frame readFrame(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < HEADER_SIZE - 4 || length > HEADER_SIZE - 4 + MAX_PAYLOAD_SIZE)
+            throw new IOException("Invalid frame length: " + length);
+        byte type = in.readByte();
+        int sessionId = in.readInt();
+        byte[] payload = new byte[length - (HEADER_SIZE - 4)];
+        in.readFully(payload);
+        return new Frame(type, sessionId, payload);
+    }
+
+    public static class Frame
+    {
+        private final byte type;
+        private final int sessionId;
+        private final byte[] payload;
+
+        public Frame(byte type, int sessionId, byte[] payload)
+        {
+            this.type = type;
+            this.sessionId = sessionId;
+            this.payload = payload;
+        }
+
+        public byte getType()
+        {
+            return type;
+        }
+
+        public int getSessionId()
+        {
+            return sessionId;
+        }
+
+        public byte[] getPayload()
+        {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static com.wowza.wms.plugin.captions.whisper.FramedWhisperProtocol.*;
+
+/**
+ * Multiplexing transport. Each {@link WhisperConnection} is a session on one of a small pool of persistent TCP
+ * connections per Whisper server, using the length prefixed frames described in {@link FramedWhisperProtocol}.
+ * A new session goes to the pooled connection with the fewest sessions; pooled connections are opened on demand,
+ * outside the pool lock so a slow server connect does not hold up sessions joining connections already open, and
+ * replaced when they fail.
+ * <p>
+ * Frames of all sessions on a pooled connection are written one at a time on its blocking channel. A server that
+ * stops reading therefore holds up audio of every session sharing the connection until the socket fails, not just
+ * the session it stalled on; the pool size bounds how many streams one stalled connection can hold up.
+ */
+public class FramedWhisperTransport implements WhisperTransport
+{
+    private static final Class<FramedWhisperTransport> CLASS = FramedWhisperTransport.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+
+    private final WMSLogger logger;
+    private final BiConsumer<String, Runnable> threadStarter;
+    private final int poolSize;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSessionId = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public FramedWhisperTransport(IApplicationInstance appInstance, HandlerThreads handlerThreads, int poolSize)
+    {
+        this(WMSLoggerFactory.getLoggerObj(appInstance), handlerThreads::start, poolSize);
+    }
+
+    FramedWhisperTransport(WMSLogger logger, BiConsumer<String, Runnable> threadStarter, int poolSize)
+    {
+        this.logger = logger;
+        this.threadStarter = threadStarter;
+        this.poolSize = Math.max(1, poolSize);
+    }
+
+    @Override
+    public WhisperConnection connect(String host, int port, WhisperConnection.Listener listener) throws IOException
+    {
+        if (closed)
+            throw new ClosedChannelException();
+        String address = host + ":" + port;
+        Pool pool = pools.computeIfAbsent(address, k -> new Pool());
+        PooledConnection pooled = null;
+        int openSlot = -1;
+        synchronized (pool)
+        {
+            while (pooled == null && openSlot == -1)
+            {
+                int shared = -1;
+                for (int i = 0; i < poolSize; i++)
+                {
+                    PooledConnection connection = pool.connections[i];
+                    if (connection == null || !connection.isOpen())
+                    {
+                        // prefer an unused slot over sharing an open connection
+                        if (!pool.opening[i])
+                        {
+                            openSlot = i;
+                            break;
+                        }
+                    }
+                    else if (shared == -1 || connection.sessions.size() < pool.connections[shared].sessions.size())
+                        shared = i;
+                }
+                if (openSlot != -1)
+                    pool.opening[openSlot] = true;
+                else if (shared != -1)
+                    pooled = pool.connections[shared];
+                else
+                {
+                    // every slot is being opened by another session, wait for one of them
+                    try
+                    {
+                        pool.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new ClosedByInterruptException();
+                    }
+                }
+            }
+        }
+        if (pooled == null)
+            pooled = open(pool, openSlot, host, port);
+        FramedSession session = new FramedSession(pooled, nextSessionId.incrementAndGet(), listener);
+        pooled.sessions.put(session.sessionId, session);
+        try
+        {
+            pooled.writeFrame(TYPE_OPEN, session.sessionId, null, 0);
+        }
+        catch (IOException e)
+        {
+            pooled.sessions.remove(session.sessionId);
+            pooled.close();
+            throw e;
+        }
+        return session;
+    }
+
+    // opens the connection of a slot reserved in the pool, without holding the pool lock
+    private PooledConnection open(Pool pool, int slot, String host, int port) throws IOException
+    {
+        PooledConnection opened = null;
+        try
+        {
+            opened = new PooledConnection(SocketChannel.open(new InetSocketAddress(host, port)), host + ":" + port + "#" + slot);
+            try
+            {
+                threadStarter.accept(CLASS_NAME + ".Reader[" + opened.name + "]", opened::listen);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // not a backend failure, so not an IOException
+                opened.close();
+                opened = null;
+                throw e;
+            }
+            return opened;
+        }
+        finally
+        {
+            synchronized (pool)
+            {
+                pool.opening[slot] = false;
+                if (opened != null)
+                    pool.connections[slot] = opened;
+                pool.notifyAll();
+            }
+            // the transport was closed while connecting
+            if (closed && opened != null)
+                opened.close();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        for (Pool pool : pools.values())
+        {
+            synchronized (pool)
+            {
+                for (PooledConnection pooled : pool.connections)
+                {
+                    if (pooled != null)
+                        pooled.close();
+                }
+            }
+        }
+        pools.clear();
+    }
+
+    /**
+     * The pooled connections to one server and the slots being opened, guarded by itself.
+     */
+    private class Pool
+    {
+        private final PooledConnection[] connections = new PooledConnection[poolSize];
+        private final boolean[] opening = new boolean[poolSize];
+    }
+
+    private class PooledConnection
+    {
+        private final SocketChannel channel;
+        private final String name;
+        private final Map<Integer, FramedSession> sessions = new ConcurrentHashMap<>();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final Object writeLock = new Object();
+        private final ByteBuffer controlHeader = ByteBuffer.allocate(HEADER_SIZE);
+        private final ByteBuffer[] controlFrame = new ByteBuffer[]{controlHeader};
+        // reader thread only
+        private final WhisperResponseDecoder decoder = new WhisperResponseDecoder();
+
+        PooledConnection(SocketChannel channel, String name)
+        {
+            this.channel = channel;
+            this.name = name;
+        }
+
+        boolean isOpen()
+        {
+            return !closed.get() && channel.isOpen();
+        }
+
+        /**
+         * Writes a whole frame. {@code frame[0]} must be a header for the payload held by the remaining buffers;
+         * {@code null} writes a payload-less control frame.
+         */
+        void writeFrame(byte type, int sessionId, ByteBuffer[] frame, int payloadLength) throws IOException
+        {
+            synchronized (writeLock)
+            {
+                if (frame == null)
+                {
+                    putHeader(controlHeader, type, sessionId, 0);
+                    frame = controlFrame;
+                }
+                else
+                    putHeader(frame[0], type, sessionId, payloadLength);
+                // blocking channel, only loops on a short write
+                ByteBuffer last = frame[frame.length - 1];
+                while (last.hasRemaining())
+                    channel.write(frame);
+            }
+        }
+
+        void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore close exceptions
+            }
+            if (closed.compareAndSet(false, true))
+            {
+                for (FramedSession session : sessions.values())
+                    session.closed();
+                sessions.clear();
+            }
+        }
+
+        private void listen()
+        {
+            try
+            {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                while (isOpen())
+                {
+                    Frame frame = readFrame(in);
+                    FramedSession session = sessions.get(frame.getSessionId());
+                    if (session == null)
+                        continue;
+                    if (frame.getType() == TYPE_RESPONSE)
+                    {
+                        try (JsonParser parser = WhisperResponseDecoder.JSON_FACTORY.createParser(frame.getPayload()))
+                        {
+                            decoder.reset();
+                            WhisperResponse response = decoder.next(parser);
+                            if (response != null)
+                                session.listener.onResponse(response);
+                        }
+                    }
+                    else if (frame.getType() == TYPE_END)
+                        session.closed();
+                }
+            }
+            catch (EOFException | SocketException | AsynchronousCloseException e)
+            {
+                logger.info(CLASS_NAME + ".PooledConnection.listen [" + name + "]: Socket connection closed: " + e.getMessage());
+            }
+            catch (IOException e)
+            {
+                logger.error(CLASS_NAME + ".PooledConnection.listen [" + name + "]: IO exception: " + e.getMessage(), e);
+            }
+            catch (Exception e)
+            {
+                logger.error(CLASS_NAME + ".PooledConnection.listen [" + name + "]: Unexpected exception: " + e.getMessage(), e);
+            }
+            finally
+            {
+                // every session on this connection is gone; their handlers reconnect onto a fresh pooled connection
+                close();
+            }
+        }
+    }
+
+    private class FramedSession implements WhisperConnection
+    {
+        private final PooledConnection pooled;
+        private final int sessionId;
+        private final WhisperConnection.Listener listener;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final AtomicBoolean outputShutdown = new AtomicBoolean(false);
+        // reused by the single thread writing audio for this session
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private ByteBuffer[] frame = new ByteBuffer[]{header, null};
+
+        FramedSession(PooledConnection pooled, int sessionId, WhisperConnection.Listener listener)
+        {
+            this.pooled = pooled;
+            this.sessionId = sessionId;
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !closed.get() && pooled.isOpen();
+        }
+
+        @Override
+        public long write(ByteBuffer[] data) throws IOException
+        {
+            if (!isOpen() || outputShutdown.get())
+                throw new ClosedChannelException();
+            long total = 0;
+            for (ByteBuffer buffer : data)
+                total += buffer.remaining();
+            if (total == 0)
+                return 0;
+
+            if (total <= MAX_PAYLOAD_SIZE)
+            {
+                if (frame.length != data.length + 1)
+                {
+                    frame = new ByteBuffer[data.length + 1];
+                    frame[0] = header;
+                }
+                System.arraycopy(data, 0, frame, 1, data.length);
+                writeFrame(frame, (int) total);
+            }
+            else
+            {
+                for (ByteBuffer buffer : data)
+                {
+                    while (buffer.hasRemaining())
+                    {
+                        ByteBuffer chunk = buffer.duplicate();
+                        chunk.limit(chunk.position() + Math.min(chunk.remaining(), MAX_PAYLOAD_SIZE));
+                        writeFrame(new ByteBuffer[]{header, chunk}, chunk.remaining());
+                        buffer.position(chunk.limit());
+                    }
+                }
+            }
+            return total;
+        }
+
+        private void writeFrame(ByteBuffer[] frame, int payloadLength) throws IOException
+        {
+            try
+            {
+                pooled.writeFrame(TYPE_AUDIO, sessionId, frame, payloadLength);
+            }
+            catch (IOException e)
+            {
+                // the frame stream is corrupt after a failed write, drop the whole pooled connection
+                pooled.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException
+        {
+            if (isOpen() && outputShutdown.compareAndSet(false, true))
+                pooled.writeFrame(TYPE_CLOSE, sessionId, null, 0);
+        }
+
+        @Override
+        public void close()
+        {
+            try
+            {
+                shutdownOutput();
+            }
+            catch (IOException e)
+            {
+                // Ignore close exceptions
+            }
+            closed();
+        }
+
+        private void closed()
+        {
+            if (closed.compareAndSet(false, true))
+            {
+                pooled.sessions.remove(sessionId);
+                listener.onClosed();
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking transport. All connections opened by this transport are multiplexed over a small, fixed set of
+ * selector threads which perform the JSON response reads, so a stream no longer needs a dedicated listener thread.
+ * <p>
+ * Only the reads are multiplexed: PCM is still written by each stream's own handler thread, straight to the socket,
+ * so the transport saves the listener thread but not the writer thread of a stream. A write returns what the socket
+ * accepted and, when its send buffer is full, waits a short while for the selector to report space, so unsent audio
+ * stays in the caller's bounded buffer and its overload policy keeps applying. The wait uses a lock condition rather
+ * than a monitor, so it does not pin the carrier thread when handler threads are virtual. Listener callbacks run in
+ * order per connection on a small shared callback pool, never on a selector thread, so a slow stream cannot hold up
+ * the others.
+ */
+public class NioWhisperTransport implements WhisperTransport
+{
+    private static final Class<NioWhisperTransport> CLASS = NioWhisperTransport.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+    private static final int READ_BUFFER_SIZE = 8192;
+    // how long a write waits for socket space before handing the rest back to the caller
+    private static final long WRITE_WAIT_MILLIS = 100;
+
+    private final WMSLogger logger;
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final ThreadPoolExecutor callbackExecutor;
+
+    public NioWhisperTransport(IApplicationInstance appInstance, int selectorCount) throws IOException
+    {
+        this(WMSLoggerFactory.getLoggerObj(appInstance), appInstance.getContextStr(), selectorCount);
+    }
+
+    NioWhisperTransport(WMSLogger logger, String contextStr, int selectorCount) throws IOException
+    {
+        this.logger = logger;
+        AtomicInteger callbackThreadCount = new AtomicInteger();
+        int callbackThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        // at most one task is queued per connection, see NioConnection.dispatch
+        this.callbackExecutor = new ThreadPoolExecutor(callbackThreads, callbackThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, CLASS_NAME + ".Callback-" + callbackThreadCount.incrementAndGet() + "[" + contextStr + "]"));
+        callbackExecutor.allowCoreThreadTimeOut(true);
+        this.loops = new SelectorLoop[Math.max(1, selectorCount)];
+        for (int i = 0; i < loops.length; i++)
+        {
+            loops[i] = new SelectorLoop();
+            new Thread(loops[i], CLASS_NAME + ".Selector-" + i + "[" + contextStr + "]").start();
+        }
+    }
+
+    @Override
+    public WhisperConnection connect(String host, int port, WhisperConnection.Listener listener) throws IOException
+    {
+        // connect in blocking mode so connection failures surface to the caller the same way as with a plain socket
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try
+        {
+            channel.configureBlocking(false);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        SelectorLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        NioConnection connection = new NioConnection(loop, channel, listener);
+        loop.execute(connection::register);
+        return connection;
+    }
+
+    @Override
+    public void close()
+    {
+        for (SelectorLoop loop : loops)
+            loop.shutdown();
+        // callbacks already queued still run, later ones run on the calling thread
+        callbackExecutor.shutdown();
+    }
+
+    private class SelectorLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        SelectorLoop() throws IOException
+        {
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown()
+        {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                try
+                {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try
+                        {
+                            if (key.isValid() && key.isWritable())
+                                connection.onWritable();
+                            if (key.isValid() && key.isReadable())
+                                connection.onReadable();
+                        }
+                        catch (Exception e)
+                        {
+                            logger.info(CLASS_NAME + ".SelectorLoop.run: Socket connection closed: " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+                }
+                catch (Exception e)
+                {
+                    logger.error(CLASS_NAME + ".SelectorLoop.run: Unexpected exception: " + e.getMessage(), e);
+                }
+            }
+            for (SelectionKey key : selector.keys())
+                ((NioConnection) key.attachment()).close();
+            try
+            {
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore close exceptions
+            }
+        }
+
+        private Selector getSelector()
+        {
+            return selector;
+        }
+    }
+
+    private class NioConnection implements WhisperConnection
+    {
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private final WhisperConnection.Listener listener;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final JsonParser parser;
+        private final WhisperResponseDecoder decoder = new WhisperResponseDecoder();
+        private final Queue<Runnable> callbacks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean dispatching = new AtomicBoolean(false);
+        // set by a writer waiting for socket space, cleared by the selector when the channel is writable
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final Condition writable = writeLock.newCondition();
+        private boolean writeBlocked = false;
+        private SelectionKey key;
+
+        NioConnection(SelectorLoop loop, SocketChannel channel, WhisperConnection.Listener listener) throws IOException
+        {
+            this.loop = loop;
+            this.channel = channel;
+            this.listener = listener;
+            this.parser = WhisperResponseDecoder.JSON_FACTORY.createNonBlockingByteArrayParser();
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !closed.get() && channel.isOpen();
+        }
+
+        @Override
+        public long write(ByteBuffer[] data) throws IOException
+        {
+            if (!isOpen())
+                throw new ClosedChannelException();
+            long written = channel.write(data);
+            if (data[data.length - 1].hasRemaining())
+                awaitWritable();
+            return written;
+        }
+
+        /**
+         * Waits up to {@link #WRITE_WAIT_MILLIS} for the selector to report space in the socket send buffer, so a
+         * caller retrying the unsent remainder does not spin.
+         */
+        private void awaitWritable() throws IOException
+        {
+            writeLock.lock();
+            try
+            {
+                if (!writeBlocked)
+                {
+                    writeBlocked = true;
+                    loop.execute(this::updateInterest);
+                }
+                long remaining = TimeUnit.MILLISECONDS.toNanos(WRITE_WAIT_MILLIS);
+                while (writeBlocked && isOpen() && remaining > 0)
+                    remaining = writable.awaitNanos(remaining);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for the Whisper socket");
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException
+        {
+            // nothing is queued here, unsent audio is still in the caller's buffer
+            channel.shutdownOutput();
+        }
+
+        @Override
+        public void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore close exceptions
+            }
+            writeLock.lock();
+            try
+            {
+                writable.signalAll();
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+            if (closed.compareAndSet(false, true))
+                dispatch(listener::onClosed);
+        }
+
+        /**
+         * Runs {@code callback} on the callback pool after every callback dispatched before it for this connection.
+         */
+        private void dispatch(Runnable callback)
+        {
+            callbacks.add(callback);
+            if (!dispatching.compareAndSet(false, true))
+                return;
+            try
+            {
+                callbackExecutor.execute(this::runCallbacks);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the transport is closing
+                runCallbacks();
+            }
+        }
+
+        private void runCallbacks()
+        {
+            do
+            {
+                Runnable callback;
+                while ((callback = callbacks.poll()) != null)
+                {
+                    try
+                    {
+                        callback.run();
+                    }
+                    catch (Exception e)
+                    {
+                        logger.error(CLASS_NAME + ".runCallbacks: Unexpected exception: " + e.getMessage(), e);
+                    }
+                }
+                dispatching.set(false);
+            }
+            while (!callbacks.isEmpty() && dispatching.compareAndSet(false, true));
+        }
+
+        // selector thread only
+        private void register()
+        {
+            try
+            {
+                key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+                updateInterest();
+            }
+            catch (ClosedChannelException e)
+            {
+                close();
+            }
+        }
+
+        // selector thread only
+        private void updateInterest()
+        {
+            if (key == null || !key.isValid())
+                return;
+            writeLock.lock();
+            try
+            {
+                key.interestOps(writeBlocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+
+        // selector thread only
+        private void onWritable()
+        {
+            writeLock.lock();
+            try
+            {
+                writeBlocked = false;
+                key.interestOps(SelectionKey.OP_READ);
+                writable.signalAll();
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+
+        // selector thread only
+        private void onReadable() throws IOException
+        {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read == -1)
+            {
+                logger.info(CLASS_NAME + ".parseJsonStream: Stream parsing ended");
+                try
+                {
+                    // a value at the very end of the stream is only complete once the parser knows no more input follows
+                    parser.getNonBlockingInputFeeder().endOfInput();
+                    parseAvailableTokens();
+                }
+                finally
+                {
+                    close();
+                }
+                return;
+            }
+            if (read == 0)
+                return;
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(readBuffer.array(), 0, read);
+            parseAvailableTokens();
+        }
+
+        private void parseAvailableTokens() throws IOException
+        {
+            WhisperResponse response;
+            while ((response = decoder.next(parser)) != null)
+            {
+                // the decoder reuses its instance for the next response
+                WhisperResponse copy = new WhisperResponse();
+                copy.setLanguage(response.getLanguage());
+                copy.setText(response.getText());
+                copy.setStart(response.getStart());
+                copy.setEnd(response.getEnd());
+                dispatch(() -> listener.onResponse(copy));
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Blocking transport. Each connection owns a blocking {@link SocketChannel} and a listener thread, started through
+ * {@link HandlerThreads}, that reads the response stream.
+ */
+public class SocketWhisperTransport implements WhisperTransport
+{
+    private static final Class<SocketWhisperTransport> CLASS = SocketWhisperTransport.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+
+    private final WMSLogger logger;
+    private final HandlerThreads handlerThreads;
+
+    public SocketWhisperTransport(IApplicationInstance appInstance, HandlerThreads handlerThreads)
+    {
+        this.logger = WMSLoggerFactory.getLoggerObj(appInstance);
+        this.handlerThreads = handlerThreads;
+    }
+
+    @Override
+    public WhisperConnection connect(String host, int port, WhisperConnection.Listener listener) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        SocketConnection connection = new SocketConnection(channel, listener);
+        try
+        {
+            handlerThreads.start(WhisperSpeechToTextHandler.class.getSimpleName() + ".SocketListener", connection::listen);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // without a listener no captions would ever come back; not a backend failure, so not an IOException
+            channel.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    private class SocketConnection implements WhisperConnection
+    {
+        private final SocketChannel channel;
+        private final WhisperConnection.Listener listener;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        SocketConnection(SocketChannel channel, WhisperConnection.Listener listener)
+        {
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !closed.get() && channel.isConnected() && channel.isOpen();
+        }
+
+        @Override
+        public long write(ByteBuffer[] data) throws IOException
+        {
+            // gathering write of the whole batch; a blocking channel only returns early on a short write
+            long written = 0;
+            ByteBuffer last = data[data.length - 1];
+            while (last.hasRemaining())
+                written += channel.write(data);
+            return written;
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException
+        {
+            channel.shutdownOutput();
+        }
+
+        @Override
+        public void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // Ignore close exceptions
+            }
+            if (closed.compareAndSet(false, true))
+                listener.onClosed();
+        }
+
+        private void listen()
+        {
+            try (InputStream inputStream = Channels.newInputStream(channel))
+            {
+                parseJsonStream(inputStream);
+            }
+            catch (SocketException | AsynchronousCloseException s)
+            {
+                logger.info(CLASS_NAME + ".SocketListener.run: Socket connection closed: " + s.getMessage());
+            }
+            catch (IOException e)
+            {
+                logger.error(CLASS_NAME + ".SocketListener.run: IO exception: " + e.getMessage(), e);
+            }
+            catch (Exception e)
+            {
+                logger.error(CLASS_NAME + ".SocketListener.run: Unexpected exception: " + e.getMessage(), e);
+            }
+            finally
+            {
+                // Mark the connection as closed so the handler reconnects and flushes any remaining captions
+                close();
+            }
+        }
+
+        private void parseJsonStream(InputStream inputStream) throws IOException
+        {
+            JsonParser parser = WhisperResponseDecoder.JSON_FACTORY.createParser(inputStream);
+            WhisperResponseDecoder decoder = new WhisperResponseDecoder();
+
+            WhisperResponse response;
+            while (!closed.get() && (response = decoder.next(parser)) != null)
+                listener.onResponse(response);
+            logger.info(CLASS_NAME + ".parseJsonStream: Stream parsing ended");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One Whisper server in a {@link WhisperBackendPool}, with the load and latency figures used to route new streams.
+ */
+public class WhisperBackend
+{
+    // weight of the latest sample in the moving latency average
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final String host;
+    private final int port;
+    final Set<WhisperBackendPool.BackendConnection> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalSessions = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong audioBytes = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private volatile long lastFailure = 0;
+    private volatile double latencyMillis = -1;
+
+    WhisperBackend(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public int getConnectionCount()
+    {
+        return sessions.size();
+    }
+
+    /**
+     * Seconds of audio sent to this backend that have not been covered by a response yet, over all open sessions.
+     */
+    public double getInFlightSeconds()
+    {
+        double inFlight = 0;
+        for (WhisperBackendPool.BackendConnection session : sessions)
+            inFlight += session.getInFlightSeconds();
+        return inFlight;
+    }
+
+    /**
+     * Moving average of the time between sending audio and receiving the response covering it, -1 until measured.
+     */
+    public double getLatencyMillis()
+    {
+        return latencyMillis;
+    }
+
+    public int getFailureCount()
+    {
+        return failures.get();
+    }
+
+    boolean isCoolingDown(long now, long retryDelay)
+    {
+        return lastFailure != 0 && now - lastFailure < retryDelay;
+    }
+
+    void sessionOpened()
+    {
+        totalSessions.incrementAndGet();
+    }
+
+    void failed()
+    {
+        failures.incrementAndGet();
+        lastFailure = System.currentTimeMillis();
+    }
+
+    void audioSent(long bytes)
+    {
+        audioBytes.addAndGet(bytes);
+    }
+
+    synchronized void responseReceived(long latency)
+    {
+        responses.incrementAndGet();
+        if (latency >= 0)
+            latencyMillis = latencyMillis < 0 ? latency : latencyMillis + LATENCY_SMOOTHING * (latency - latencyMillis);
+    }
+
+    @Override
+    public String toString()
+    {
+        return host + ":" + port + "[connections=" + sessions.size() + ", inFlightSeconds=" + String.format("%.1f", getInFlightSeconds()) +
+                ", latencyMillis=" + Math.round(latencyMillis) + ", sessions=" + totalSessions.get() + ", failures=" + failures.get() +
+                ", audioBytes=" + audioBytes.get() + ", responses=" + responses.get() + "]";
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.application.IApplicationInstance;
+import com.wowza.wms.application.WMSProperties;
+import com.wowza.wms.logging.WMSLogger;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.PROP_CAPTIONS_DEBUG_LOG;
+import static com.wowza.wms.plugin.captions.ModuleWhisperCaptions.*;
+
+/**
+ * The Whisper servers configured for an application instance. Each new stream, and each reconnect, is routed to
+ * the backend with the least in-flight audio ({@code leastLoad}, the default) or the fewest open connections
+ * ({@code leastConnections}). A reconnect avoids the backend that just failed when another one is available, and
+ * backends that failed recently are only used when nothing else is reachable.
+ */
+public class WhisperBackendPool
+{
+    private static final Class<WhisperBackendPool> CLASS = WhisperBackendPool.class;
+    private static final String CLASS_NAME = CLASS.getSimpleName();
+
+    public static final String ROUTING_LEAST_LOAD = "leastLoad";
+    public static final String ROUTING_LEAST_CONNECTIONS = "leastConnections";
+
+    // 16 kHz, 16 bit mono PCM
+    private static final int AUDIO_BYTES_PER_SECOND = 16000 * 2;
+    private static final int MAX_PENDING_MARKS = 256;
+    private static final Comparator<double[]> RANKING_ORDER = (a, b) -> {
+        for (int i = 0; i < a.length; i++)
+        {
+            int result = Double.compare(a[i], b[i]);
+            if (result != 0)
+                return result;
+        }
+        return 0;
+    };
+
+    private final WMSLogger logger;
+    private final String contextStr;
+    private final boolean debugLog;
+    private final WhisperTransport transport;
+    private final List<WhisperBackend> backends;
+    private final boolean leastConnections;
+    private final long retryDelay;
+
+    public WhisperBackendPool(IApplicationInstance appInstance, WhisperTransport transport)
+    {
+        this.logger = WMSLoggerFactory.getLoggerObj(appInstance);
+        this.contextStr = appInstance.getContextStr();
+        this.transport = transport;
+        WMSProperties props = appInstance.getProperties();
+        this.debugLog = props.getPropertyBoolean(PROP_CAPTIONS_DEBUG_LOG, false);
+        this.retryDelay = props.getPropertyLong(PROP_WHISPER_BACKEND_RETRY_DELAY, DEFAULT_WHISPER_BACKEND_RETRY_DELAY);
+
+        String defaultHost = props.getPropertyStr(PROP_WHISPER_SOCKET_HOST, DEFAULT_WHISPER_SOCKET_HOST);
+        int defaultPort = props.getPropertyInt(PROP_WHISPER_SOCKET_PORT, DEFAULT_WHISPER_SOCKET_PORT);
+        this.backends = Collections.unmodifiableList(parseBackends(props.getPropertyStr(PROP_WHISPER_SOCKET_HOSTS, defaultHost), defaultPort));
+
+        this.leastConnections = props.getPropertyStr(PROP_WHISPER_BACKEND_ROUTING, ROUTING_LEAST_LOAD).trim().equalsIgnoreCase(ROUTING_LEAST_CONNECTIONS);
+        logger.info(CLASS_NAME + " [" + contextStr + "] Whisper backends: " + backends + ", routing: " + (leastConnections ? ROUTING_LEAST_CONNECTIONS : ROUTING_LEAST_LOAD));
+    }
+
+    private static List<WhisperBackend> parseBackends(String hostsStr, int defaultPort)
+    {
+        List<WhisperBackend> backends = new ArrayList<>();
+        for (String entry : hostsStr.split(","))
+        {
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+            int colon = entry.lastIndexOf(':');
+            if (colon > 0)
+                backends.add(new WhisperBackend(entry.substring(0, colon).trim(), Integer.parseInt(entry.substring(colon + 1).trim())));
+            else
+                backends.add(new WhisperBackend(entry, defaultPort));
+        }
+        if (backends.isEmpty())
+            backends.add(new WhisperBackend(DEFAULT_WHISPER_SOCKET_HOST, defaultPort));
+        return backends;
+    }
+
+    /**
+     * Opens a connection on the best available backend.
+     *
+     * @param previous the connection being replaced, if any. Its backend is only used again if no other backend connects.
+     */
+    public WhisperConnection connect(WhisperConnection.Listener listener, WhisperConnection previous) throws IOException
+    {
+        WhisperBackend avoid = previous instanceof BackendConnection ? ((BackendConnection) previous).backend : null;
+        long now = System.currentTimeMillis();
+        // snapshot the figures so they cannot change while sorting
+        List<double[]> ranking = new ArrayList<>(backends.size());
+        for (int i = 0; i < backends.size(); i++)
+        {
+            WhisperBackend backend = backends.get(i);
+            double connections = backend.getConnectionCount();
+            double inFlight = backend.getInFlightSeconds();
+            // healthy backends first, then the previous backend and those still cooling down after a failure
+            double penalty = backend == avoid || backend.isCoolingDown(now, retryDelay) ? 1 : 0;
+            ranking.add(leastConnections ? new double[]{penalty, connections, inFlight, backend.getLatencyMillis(), i}
+                    : new double[]{penalty, inFlight, connections, backend.getLatencyMillis(), i});
+        }
+        ranking.sort(RANKING_ORDER);
+
+        IOException lastException = null;
+        for (double[] rank : ranking)
+        {
+            WhisperBackend backend = backends.get((int) rank[rank.length - 1]);
+            BackendConnection connection = new BackendConnection(backend, listener);
+            try
+            {
+                connection.open(transport.connect(backend.getHost(), backend.getPort(), connection.new RecordingListener()));
+                if (debugLog)
+                    logger.info(CLASS_NAME + ".connect [" + contextStr + "] routed to " + backend);
+                return connection;
+            }
+            catch (IOException e)
+            {
+                backend.failed();
+                lastException = e;
+                logger.warn(CLASS_NAME + ".connect [" + contextStr + "] Whisper backend " + backend.getHost() + ":" + backend.getPort() + " failed: " + e.getMessage());
+            }
+        }
+        throw lastException;
+    }
+
+    public List<WhisperBackend> getBackends()
+    {
+        return backends;
+    }
+
+    public String getStats()
+    {
+        return backends.toString();
+    }
+
+    /**
+     * Connection to one backend that keeps that backend's load and latency figures up to date.
+     */
+    class BackendConnection implements WhisperConnection
+    {
+        private final WhisperBackend backend;
+        private final WhisperConnection.Listener listener;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        // (audio position in seconds, send time) of recent writes, oldest first
+        private final ArrayDeque<double[]> pendingMarks = new ArrayDeque<>();
+        private volatile WhisperConnection delegate;
+        private volatile boolean outputShutdown = false;
+        private volatile double sentSeconds = 0;
+        private volatile double respondedSeconds = 0;
+
+        BackendConnection(WhisperBackend backend, WhisperConnection.Listener listener)
+        {
+            this.backend = backend;
+            this.listener = listener;
+        }
+
+        private void open(WhisperConnection delegate)
+        {
+            this.delegate = delegate;
+            backend.sessionOpened();
+            backend.sessions.add(this);
+            // the transport may already have reported the connection as closed
+            if (closed.get())
+                backend.sessions.remove(this);
+        }
+
+        double getInFlightSeconds()
+        {
+            return Math.max(0, sentSeconds - respondedSeconds);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !closed.get() && delegate.isOpen();
+        }
+
+        @Override
+        public long write(ByteBuffer[] data) throws IOException
+        {
+            long written = delegate.write(data);
+            backend.audioSent(written);
+            double position = sentSeconds + (double) written / AUDIO_BYTES_PER_SECOND;
+            sentSeconds = position;
+            synchronized (pendingMarks)
+            {
+                if (pendingMarks.size() == MAX_PENDING_MARKS)
+                    pendingMarks.poll();
+                pendingMarks.add(new double[]{position, System.currentTimeMillis()});
+            }
+            return written;
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException
+        {
+            outputShutdown = true;
+            delegate.shutdownOutput();
+        }
+
+        @Override
+        public void close()
+        {
+            // only an orderly shutdownOutput() ends the stream, closing after a failed write still counts as a failure
+            delegate.close();
+        }
+
+        private class RecordingListener implements WhisperConnection.Listener
+        {
+            @Override
+            public void onResponse(WhisperResponse response)
+            {
+                // response times are seconds into the audio sent on this connection
+                double end = response.getEnd();
+                long latency = -1;
+                if (end > respondedSeconds)
+                {
+                    respondedSeconds = end;
+                    synchronized (pendingMarks)
+                    {
+                        double[] mark = null;
+                        while (!pendingMarks.isEmpty() && pendingMarks.peek()[0] <= end)
+                            mark = pendingMarks.poll();
+                        if (mark != null)
+                            latency = System.currentTimeMillis() - (long) mark[1];
+                    }
+                }
+                backend.responseReceived(latency);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onClosed()
+            {
+                if (closed.compareAndSet(false, true))
+                {
+                    backend.sessions.remove(BackendConnection.this);
+                    // closed by the server, or by the handler after a failed write, before the stream ended
+                    if (!outputShutdown)
+                        backend.failed();
+                    listener.onClosed();
+                }
+            }
+        }
+    }
+}
@@ -9,20 +9,30 @@ import com.wowza.wms.plugin.captions.audio.SpeechHandler;
 import com.wowza.wms.plugin.captions.caption.CaptionHandler;
 import com.wowza.wms.plugin.captions.stream.DelayedStream;
 import com.wowza.wms.plugin.captions.transcoder.AudioResamplingTranscoderActionListener;
+import com.wowza.wms.plugin.captions.util.HandlerThreads;
+import com.wowza.wms.plugin.captions.util.TimerWheel;
 import com.wowza.wms.application.IApplicationInstance;
 
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class WhisperCaptionsTranscoderActionListener extends AudioResamplingTranscoderActionListener
 {
-    public WhisperCaptionsTranscoderActionListener(IApplicationInstance appInstance, Map<String, SpeechHandler> speechHandlers, Map<String, DelayedStream> delayedStreams)
+    private final WhisperBackendPool backendPool;
+    private final TimerWheel flushTimer;
+
+    public WhisperCaptionsTranscoderActionListener(IApplicationInstance appInstance, Map<String, SpeechHandler> speechHandlers, Map<String, DelayedStream> delayedStreams,
+                                                   HandlerThreads handlerThreads, ScheduledExecutorService delayedStreamScheduler, WhisperBackendPool backendPool,
+                                                   TimerWheel flushTimer)
     {
-        super(appInstance, speechHandlers, delayedStreams);
+        super(appInstance, speechHandlers, delayedStreams, handlerThreads, delayedStreamScheduler);
+        this.backendPool = backendPool;
+        this.flushTimer = flushTimer;
     }
 
     @Override
     public SpeechHandler getSpeechHandler(CaptionHandler captionHandler)
     {
-        return new WhisperSpeechToTextHandler(appInstance, captionHandler);
+        return new WhisperSpeechToTextHandler(appInstance, captionHandler, backendPool, flushTimer);
     }
 }
@@ -0,0 +1,50 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A single audio session with a Whisper server. Audio is written upstream and decoded
+ * responses are delivered to the {@link Listener} the connection was opened with.
+ */
+public interface WhisperConnection
+{
+    boolean isOpen();
+
+    /**
+     * Writes remaining bytes of {@code data}, in order. A transport that cannot take everything without buffering it
+     * itself may return early, the caller keeps the remainder and writes it again. The buffers may be reused by the
+     * caller once this returns.
+     *
+     * @return the number of bytes consumed from {@code data}
+     */
+    long write(ByteBuffer[] data) throws IOException;
+
+    /**
+     * Signals the end of the audio for this session. Responses for audio already sent are still delivered.
+     */
+    void shutdownOutput() throws IOException;
+
+    void close();
+
+    interface Listener
+    {
+        /**
+         * Called on a transport thread, in the order the responses arrived. The response instance may be reused for
+         * the next response on this connection, so copy any values that are needed after this returns.
+         */
+        void onResponse(WhisperResponse response);
+
+        /**
+         * Called once when the connection is closed, either locally or by the server.
+         */
+        void onClosed();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+
+import java.io.IOException;
+
+/**
+ * Token level decoder for the stream of {@link WhisperResponse} JSON objects sent by a Whisper server.
+ * <p>
+ * Only {@code language}, {@code text}, {@code start} and {@code end} are read; other fields, including nested
+ * values, are skipped. The decoder keeps its own state between calls, so it works with both blocking parsers and
+ * non-blocking parsers that return {@link JsonToken#NOT_AVAILABLE} part way through an object. One decoder, and the
+ * single response instance it fills, belongs to one connection.
+ */
+public class WhisperResponseDecoder
+{
+    /** Shared by all connections, Jackson factories are thread safe. */
+    public static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final int FIELD_OTHER = 0;
+    private static final int FIELD_LANGUAGE = 1;
+    private static final int FIELD_TEXT = 2;
+    private static final int FIELD_START = 3;
+    private static final int FIELD_END = 4;
+
+    private final WhisperResponse response = new WhisperResponse();
+    private int depth = 0;
+    private int field = FIELD_OTHER;
+
+    /**
+     * Reads tokens until a complete response object has been decoded.
+     *
+     * @return the decoded response, which is reused by the next call, or {@code null} when the parser has no more
+     * input available (end of stream, or {@link JsonToken#NOT_AVAILABLE} for a non-blocking parser)
+     */
+    public WhisperResponse next(JsonParser parser) throws IOException
+    {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE)
+        {
+            if (depth == 0)
+            {
+                // skip anything between top level objects
+                if (token == JsonToken.START_OBJECT)
+                {
+                    response.reset();
+                    field = FIELD_OTHER;
+                    depth = 1;
+                }
+                continue;
+            }
+
+            switch (token)
+            {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    if (--depth == 0)
+                        return response;
+                    break;
+                case FIELD_NAME:
+                    field = depth == 1 ? fieldOf(parser.getCurrentName()) : FIELD_OTHER;
+                    break;
+                default:
+                    if (depth == 1)
+                        setField(parser, token);
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Discards any partially decoded object, for when the input is framed and a frame ended early.
+     */
+    public void reset()
+    {
+        depth = 0;
+        field = FIELD_OTHER;
+    }
+
+    private static int fieldOf(String name)
+    {
+        switch (name)
+        {
+            case "language":
+                return FIELD_LANGUAGE;
+            case "text":
+                return FIELD_TEXT;
+            case "start":
+                return FIELD_START;
+            case "end":
+                return FIELD_END;
+            default:
+                return FIELD_OTHER;
+        }
+    }
+
+    private void setField(JsonParser parser, JsonToken token) throws IOException
+    {
+        switch (field)
+        {
+            case FIELD_LANGUAGE:
+                response.setLanguage(token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+                break;
+            case FIELD_TEXT:
+                response.setText(token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+                break;
+            case FIELD_START:
+                response.setStart(floatValue(parser, token));
+                break;
+            case FIELD_END:
+                response.setEnd(floatValue(parser, token));
+                break;
+            default:
+                break;
+        }
+        field = FIELD_OTHER;
+    }
+
+    private static float floatValue(JsonParser parser, JsonToken token) throws IOException
+    {
+        if (token.isNumeric())
+            return parser.getFloatValue();
+        // numbers sent as strings are accepted, like the databind path did
+        return (float) parser.getValueAsDouble(0);
+    }
+}
@@ -5,14 +5,12 @@
 
 package com.wowza.wms.plugin.captions.whisper;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wowza.wms.plugin.captions.audio.AudioRingBuffer;
 import com.wowza.wms.plugin.captions.audio.SpeechHandler;
 import com.wowza.wms.plugin.captions.caption.Caption;
 import com.wowza.wms.plugin.captions.caption.CaptionHandler;
 import com.wowza.wms.plugin.captions.caption.CaptionHelper;
+import com.wowza.wms.plugin.captions.util.TimerWheel;
 import com.wowza.util.StringUtils;
 import com.wowza.wms.application.IApplicationInstance;
 import com.wowza.wms.application.WMSProperties;
@@ -22,52 +20,52 @@ import com.wowza.wms.plugin.captions.whisper.model.*;
 import com.wowza.wms.timedtext.model.ITimedTextConstants;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.net.SocketException;
-import java.nio.ByteBuffer;
-import java.time.Duration;
-import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.wowza.wms.plugin.captions.ModuleAzureSpeechToTextCaptions.PROP_DEFAULT_CAPTION_LANGUAGES;
 import static com.wowza.wms.plugin.captions.ModuleCaptionsBase.*;
-import static com.wowza.wms.plugin.captions.stream.DelayedStream.DEFAULT_START_DELAY;
+import static com.wowza.wms.plugin.captions.ModuleWhisperCaptions.*;
 
 public class WhisperSpeechToTextHandler implements SpeechHandler
 {
     private static final Class<WhisperSpeechToTextHandler> CLASS = WhisperSpeechToTextHandler.class;
     private static final String CLASS_NAME = CLASS.getSimpleName();
 
-    private final LinkedBlockingQueue<ByteBuffer> audioBuffer = new LinkedBlockingQueue<>();
-    private final Map<String, LinkedList<CaptionLine>> captionLines = new ConcurrentHashMap<>();
+    private final AudioRingBuffer audioBuffer;
+    private final Map<String, CaptionQueue> captionQueues = new ConcurrentHashMap<>();
 
     private final WMSLogger logger;
     private final CaptionHandler captionHandler;
-    private Socket socket;
-    private SocketListener socketListener;
+    private final WhisperBackendPool backendPool;
+    private final TimerWheel flushTimer;
+    private final WhisperConnection.Listener connectionListener = new ConnectionListener();
+    private volatile WhisperConnection connection;
+    // most recent successful connection, kept after a failure so reconnects can route around its backend
+    private volatile WhisperConnection lastConnection;
 
     private final Map<String, String> languageMap;
     private final boolean debugLog;
+    // Whisper lines are packed to the configured width in every language, they are not split by segmentation profiles
     private final int maxLineLength;
     private final int maxLineCount;
-    private final String socketHost;
-    private final int socketPort;
 
     private final IApplicationInstance appInstance;
     private final int newLineThreshold;
-    private final long delay;
 
     private volatile boolean doQuit = false;
-    private volatile boolean outputRunning = false;
+    private volatile boolean closed = false;
+    private volatile boolean droppingAudio = false;
 
-    public WhisperSpeechToTextHandler(IApplicationInstance appInstance, CaptionHandler captionHandler)
+    public WhisperSpeechToTextHandler(IApplicationInstance appInstance, CaptionHandler captionHandler, WhisperBackendPool backendPool, TimerWheel flushTimer)
     {
         this.appInstance = appInstance;
+        this.backendPool = backendPool;
+        this.flushTimer = flushTimer;
         this.logger = WMSLoggerFactory.getLoggerObj(appInstance);
         this.captionHandler = captionHandler;
         WMSProperties props = appInstance.getProperties();
@@ -75,7 +73,10 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
         this.maxLineLength = props.getPropertyInt(PROP_MAX_CAPTION_LINE_LENGTH, CaptionHelper.defaultMaxLineLengthSBCS);
         this.maxLineCount = props.getPropertyInt(PROP_MAX_CAPTION_LINE_COUNT, 2);
         this.newLineThreshold = props.getPropertyInt(PROP_NEW_LINE_THRESHOLD, DEFAULT_NEW_LINE_THRESHOLD);
-        this.delay = props.getPropertyLong(PROP_CAPTIONS_STREAM_DELAY, DEFAULT_START_DELAY);
+        this.audioBuffer = new AudioRingBuffer(props.getPropertyInt(PROP_WHISPER_AUDIO_BUFFER_SIZE, DEFAULT_WHISPER_AUDIO_BUFFER_SIZE),
+                props.getPropertyBoolean(PROP_WHISPER_AUDIO_BUFFER_DIRECT, false),
+                AudioRingBuffer.OverloadPolicy.fromString(props.getPropertyStr(PROP_WHISPER_AUDIO_OVERLOAD_POLICY), AudioRingBuffer.OverloadPolicy.DROP_OLDEST),
+                props.getPropertyInt(PROP_WHISPER_AUDIO_COALESCE_BYTES, DEFAULT_WHISPER_AUDIO_COALESCE_BYTES));
 
         String languagesStr = appInstance.getTimedTextProperties().getPropertyStr(PROP_DEFAULT_CAPTION_LANGUAGES, ITimedTextConstants.LANGUAGE_ID_ENGLISH);
         if (debugLog)
@@ -91,18 +92,19 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
         
         if (debugLog)
             logger.info(CLASS_NAME + " language map: " + languageMap);
+    }
 
-        this.socketHost = props.getPropertyStr("whisperSocketHost", "localhost");
-        this.socketPort = props.getPropertyInt("whisperSocketPort", 3000);
+    // the first connection is made once the handler loop runs, a handler that never starts holds no backend
+    private void connect()
+    {
         try
         {
-            this.socket = new Socket(socketHost, socketPort);
-            this.socketListener = new SocketListener();
-            new Thread(socketListener, CLASS_NAME + ".SocketListener").start();
+            this.connection = backendPool.connect(connectionListener, null);
+            this.lastConnection = connection;
         }
-        catch (IOException e)
+        catch (IOException | RejectedExecutionException e)
         {
-            socket = null;
+            connection = null;
             logger.error(CLASS_NAME + " error creating Whisper socket: " + e, e);
         }
     }
@@ -124,6 +126,8 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
     {
         int maxRetries = 5;
         int currentRetry = 0;
+        // route away from the backend that failed when another one is available
+        WhisperConnection previous = lastConnection;
         
         while (currentRetry < maxRetries && !doQuit)
         {
@@ -131,10 +135,10 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
             {
                 logger.info(CLASS_NAME + ".Socket.reconnect: Attempting to reconnect (attempt " + (currentRetry + 1) + "/" + maxRetries + ")...");
                 
-                // Close existing socket and listener
-                if (socket != null && !socket.isClosed())
+                // Close existing connection
+                if (connection != null)
                 {
-                    socket.close();
+                    connection.close();
                 }
                 
                 // Wait before attempting reconnection
@@ -143,16 +147,15 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
                     addExponentialDelayWithJitter(currentRetry);
                 }
                 
-                socket = new Socket(socketHost, socketPort);
-                socketListener = new SocketListener();
-                new Thread(socketListener, CLASS_NAME + ".SocketListener").start();
+                connection = backendPool.connect(connectionListener, previous);
+                lastConnection = connection;
                 
                 logger.info(CLASS_NAME + ".Socket.reconnect: Successfully reconnected to Whisper server");
                 return; // Exit the method if reconnection is successful
             }
             catch (Exception e)
             {
-                socket = null;
+                connection = null;
                 currentRetry++;
                 logger.warn(CLASS_NAME + ".Socket.reconnect: Reconnection attempt " + currentRetry + " failed: " + e.getMessage());
                 
@@ -167,135 +170,201 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
     @Override
     public void run()
     {
-        while (!doQuit)
+        try
         {
-            try
+            if (!closed)
+                connect();
+            // once closed, drain whatever audio is still queued and release the thread
+            while (!doQuit && !(closed && audioBuffer.isEmpty()))
             {
-                if (!outputRunning)
-                {
-                    outputRunning = true;
-                    appInstance.getVHost().getThreadPool().execute(this::processPendingCaptions);
-                }
-                ByteBuffer frame = audioBuffer.poll(100, TimeUnit.MILLISECONDS);
-                if (frame == null)
-                    continue;
-                    
-                // Check if socket is null or not connected before trying to send data
-                if (socket == null || !socket.isConnected() || socket.isClosed())
-                {
-                    logger.warn(CLASS_NAME + ".run(): Socket is not connected, attempting to reconnect...");
-                    reconnect();
-                    if (socket == null || !socket.isConnected() || socket.isClosed())
-                    {
-                        // If reconnection failed, skip this frame and continue
-                        continue;
-                    }
-                }
-                
                 try
                 {
-                    socket.getOutputStream().write(frame.array());
-                    socket.getOutputStream().flush();
-                }
-                catch (IOException ioException)
-                {
-                    logger.warn(CLASS_NAME + ".run(): Failed to send audio data: " + ioException.getMessage());
-                    // Mark socket as problematic and trigger reconnection on next iteration
-                    if (socket != null && !socket.isClosed())
+                    if (audioBuffer.awaitData(100, TimeUnit.MILLISECONDS) == 0)
+                        continue;
+
+                    // Check if connection is null or not open before trying to send data
+                    if (!isConnected())
                     {
-                        try {
-                            socket.close();
-                        } catch (IOException closeException) {
-                            // Ignore close exceptions
+                        logger.warn(CLASS_NAME + ".run(): Socket is not connected, attempting to reconnect...");
+                        reconnect();
+                        if (!isConnected())
+                        {
+                            // If reconnection failed, keep the buffered audio and continue
+                            continue;
                         }
                     }
-                    socket = null;
+
+                    long written = 0;
+                    try
+                    {
+                        // send everything that has accumulated since the last write as one gathering write
+                        written = connection.write(audioBuffer.readableBuffers());
+                    }
+                    catch (IOException ioException)
+                    {
+                        logger.warn(CLASS_NAME + ".run(): Failed to send audio data: " + ioException.getMessage());
+                        // Mark connection as problematic and trigger reconnection on next iteration
+                        WhisperConnection failed = connection;
+                        connection = null;
+                        if (failed != null)
+                            failed.close();
+                    }
+                    finally
+                    {
+                        // always hand the region back, a failed write leaves the unsent audio buffered for the next connection
+                        audioBuffer.commitRead(written);
+                    }
                 }
-            }
-            catch (Exception e)
-            {
-                if (doQuit)
-                    break;
-                logger.error(CLASS_NAME + ".run(): Unexpected error: " + e.getMessage(), e);
-                // Try to recover by reconnecting
-                reconnect();
-                if (socket == null)
+                catch (Exception e)
                 {
-                    logger.error(CLASS_NAME + ".run(): Failed to reconnect, will retry with next frame");
+                    if (doQuit)
+                        break;
+                    logger.error(CLASS_NAME + ".run(): Unexpected error: " + e.getMessage(), e);
+                    // Try to recover by reconnecting
+                    reconnect();
+                    if (connection == null)
+                    {
+                        logger.error(CLASS_NAME + ".run(): Failed to reconnect, will retry with next frame");
+                    }
                 }
             }
         }
+        finally
+        {
+            if (audioBuffer.getOverflowCount() > 0)
+                logger.info(CLASS_NAME + ".run(): audio buffer overflowed " + audioBuffer.getOverflowCount() + " times, dropped " +
+                        audioBuffer.getDroppedBytes() + " bytes (" + audioBuffer.getDroppedFrames() + " whole frames), policy: " + audioBuffer.getPolicy());
+            audioBuffer.release();
+        }
     }
 
-    private void processPendingCaptions()
+    private boolean isConnected()
     {
+        WhisperConnection current = connection;
+        return current != null && current.isOpen();
+    }
+
+    /**
+     * Sends the oldest lines of {@code queue} as one caption when they are due and schedules the next flush. Runs on
+     * the vhost thread pool, one flush of a queue at a time, when the flush timer fires or the connection closes.
+     */
+    private void flushCaptions(CaptionQueue queue)
+    {
+        CaptionLineAssembler lines = queue.lines;
+        Caption caption = null;
         try
         {
-            List<Caption> captions = new ArrayList<>();
-                
-            for (Map.Entry<String, LinkedList<CaptionLine>> entry : captionLines.entrySet())
+            synchronized (lines)
             {
-                String language = entry.getKey();
-                LinkedList<CaptionLine> lines = entry.getValue();
-                synchronized (lines)
+                long start = -1;
+                long end = -1;
+                List<String> textList = new ArrayList<>();
+                if (doQuit || lines.size() > maxLineCount || (!lines.isEmpty() && lines.peekFirst().getTimeAdded() <= System.currentTimeMillis() - getFlushDelay()))
                 {
-                    Instant start = null;
-                    Instant end = null;
-                    List<String> textList = new ArrayList<>();
-                    if (doQuit || lines.size() > maxLineCount || (!lines.isEmpty() && lines.peekLast().getTimeAdded() < System.currentTimeMillis() - delay / 2))
+                    while (textList.size() < maxLineCount && !lines.isEmpty())
                     {
-                        while (textList.size() < maxLineCount && !lines.isEmpty())
-                        {
-                            CaptionLine line = lines.removeFirst();
-                            if (start == null)
-                                start = line.getStart();
-                            end = line.getEnd();
-                            textList.add(line.getText());
-                        }
+                        CaptionLine line = lines.pollFirst();
+                        if (textList.isEmpty())
+                            start = line.getStartMillis();
+                        end = line.getEndMillis();
+                        textList.add(line.getText());
+                        lines.recycle(line);
                     }
+                }
+                scheduleFlush(queue);
 
-                    if (!textList.isEmpty())
+                if (!textList.isEmpty())
+                {
+                    // todo: make trackid dynamic
+                    caption = new Caption(lines.getLanguage(), start, end, String.join("\n", textList), 99);
+                    if (debugLog)
                     {
-                        // todo: make trackid dynamic
-                        Caption caption = new Caption(language, start, end, String.join("\n", textList), 99);
-                        captions.add(caption);
-                        if (debugLog)
-                        {
-                            DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
-                            String startTime = timeFormatter.format(start);
-                            String endTime = timeFormatter.format(end);
-                            logger.info(CLASS_NAME + ".processPendingCaptions FINAL_CAPTION: [" + startTime + "=>" + endTime + "] " + String.join("\\n", textList));
-                        }
+                        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+                        String startTime = timeFormatter.format(CaptionHelper.epochInstantFromMillis(start));
+                        String endTime = timeFormatter.format(CaptionHelper.epochInstantFromMillis(end));
+                        logger.info(CLASS_NAME + ".flushCaptions FINAL_CAPTION: [" + startTime + "=>" + endTime + "] " + String.join("\\n", textList));
                     }
                 }
             }
-            captions.forEach(captionHandler::handleCaption);
+            if (caption != null)
+                captionHandler.handleCaption(caption);
         }
         catch (Exception e)
         {
-            logger.error(CLASS_NAME + ".processPendingCaptions: Error processing pending captions: " + captionLines, e);
+            logger.error(CLASS_NAME + ".flushCaptions: Error processing pending captions: " + lines, e);
         }
-        finally
+    }
+
+    /**
+     * How long lines may wait for more words: half the stream delay, which follows the adaptive delay when enabled.
+     */
+    private long getFlushDelay()
+    {
+        return captionHandler.getStreamDelay() / 2;
+    }
+
+    /**
+     * Arms the flush timer of {@code queue} for its next deadline: immediately when more than {@code maxLineCount}
+     * lines are waiting, otherwise when the oldest line is {@link #getFlushDelay()} old. Nothing is scheduled for an empty
+     * queue. Called holding the queue's lines.
+     */
+    private void scheduleFlush(CaptionQueue queue)
+    {
+        CaptionLineAssembler lines = queue.lines;
+        if (lines.isEmpty())
         {
-            outputRunning = false;
+            queue.cancelFlush();
+            return;
         }
+        long now = System.currentTimeMillis();
+        long deadline = lines.size() > maxLineCount ? now : lines.peekFirst().getTimeAdded() + getFlushDelay();
+        if (queue.flushTimeout != null && queue.flushTimeout.isPending())
+        {
+            if (queue.flushDeadline <= deadline)
+                return;
+            queue.flushTimeout.cancel();
+        }
+        queue.flushDeadline = deadline;
+        queue.flushTimeout = flushTimer.schedule(queue, deadline - now);
     }
 
     @Override
     public void addAudioFrame(byte[] frame)
     {
-        audioBuffer.add(ByteBuffer.wrap(frame));
+        if (audioBuffer.write(frame, 0, frame.length))
+        {
+            droppingAudio = false;
+        }
+        else if (!droppingAudio)
+        {
+            droppingAudio = true;
+            logger.warn(CLASS_NAME + ".addAudioFrame: audio buffer full (" + audioBuffer.getCapacity() + " bytes), dropping audio (" +
+                    audioBuffer.getPolicy() + ") until the Whisper server catches up");
+        }
+    }
+
+    /**
+     * The handler loop never ran, so there is no connection yet; only the audio buffer is released.
+     */
+    @Override
+    public void abort()
+    {
+        closed = true;
+        doQuit = true;
+        audioBuffer.release();
     }
 
     @Override
     public void close()
     {
         logger.info(CLASS_NAME + ".close()");
-        if (socket != null)
+        closed = true;
+        WhisperConnection current = connection;
+        if (current != null)
         {
             try
             {
-                socket.shutdownOutput();
+                current.shutdownOutput();
             }
             catch (IOException e)
             {
@@ -315,125 +384,100 @@ public class WhisperSpeechToTextHandler implements SpeechHandler
         if (debugLog)
             logger.info(CLASS_NAME + ".handleWhisperResponse: responseLanguage='" + responseLanguage + "', mapped language='" + language + "'");
         
-        LinkedList<CaptionLine> lines = captionLines.computeIfAbsent(language, k -> new LinkedList<>());
-        synchronized (lines)
+        CaptionQueue queue = captionQueues.computeIfAbsent(language, CaptionQueue::new);
+        CaptionLineAssembler lines = queue.lines;
+        String text = response.getText();
+        if (!StringUtils.isEmpty(text))
         {
-            String text = response.getText();
-            if (!StringUtils.isEmpty(text))
+            if (debugLog)
+                logger.info(CLASS_NAME + ".handleWhisperResponse: processing text: '" + text + "' for language: '" + language + "'");
+
+            synchronized (lines)
             {
-                if (debugLog)
-                    logger.info(CLASS_NAME + ".handleWhisperResponse: processing text: '" + text + "' for language: '" + language + "'");
-                    
-                Instant start = CaptionHelper.epochInstantFromMillis((long) (response.getStart() * 1000));
-                Instant end = CaptionHelper.epochInstantFromMillis((long) (response.getEnd() * 1000));
-
-                StringBuilder sb = new StringBuilder();
-                CaptionLine line = lines.peekLast();
-                if (line != null && Duration.between(line.getEnd(), start).toMillis() < newLineThreshold)
-                {
-                    sb.append(line.getText());
-                }
-                else
-                {
-                    line = new CaptionLine(language);
-                    line.setStart(start);
-                    lines.add(line);
-                }
+                lines.append(text, (long) (response.getStart() * 1000), (long) (response.getEnd() * 1000));
+                scheduleFlush(queue);
+            }
+        }
+    }
 
-                List<String> items = Arrays.stream(text.split("\\s+")).toList();
+    private class ConnectionListener implements WhisperConnection.Listener
+    {
+        @Override
+        public void onResponse(WhisperResponse response)
+        {
+            handleWhisperResponse(response);
+        }
 
-                float duration = response.getEnd() - response.getStart();
-                float perWordDuration = duration / items.size();
-                Instant currentEnd = end; // Track the current end time for timing calculations
-                for (int i = 0; i < items.size(); i++)
-                {
-                    String item = items.get(i);
-                    float itemStart = response.getStart() + (i * perWordDuration);
-                    float itemEnd = itemStart + perWordDuration;
-                    int length = sb.length();
-                    if (length > 0)
-                    {
-                        // check if the text length + preceding space will exceed the max line length. If so, create a new line
-                        if (length + 1 + item.length() > maxLineLength)
-                        {
-                            // Set end time to the last word that was actually included in this chunk
-                            line.setEnd(currentEnd);
-                            line.setText(sb.toString());
-                            sb.setLength(0);
-                            line = new CaptionLine(language);
-                            line.setStart(CaptionHelper.epochInstantFromMillis((long) (itemStart * 1000)));
-                            lines.add(line);
-                        }
-                        else
-                            sb.append(" ");
-                    }
-                    sb.append(item);
-                    // Update end time for each word added
-                    currentEnd = CaptionHelper.epochInstantFromMillis((long) (itemEnd * 1000));
-                }
-                text = sb.toString();
-                if (!text.isEmpty())
-                {
-                    line.setEnd(currentEnd);
-                    line.setText(text);
-                }
+        @Override
+        public void onClosed()
+        {
+            // Process any remaining captions before the connection shuts down
+            if (!doQuit)
+            {
+                captionQueues.values().forEach(CaptionQueue::requestFlush);
             }
         }
     }
 
-    private class SocketListener implements Runnable
+    /**
+     * The caption lines of one language and their pending flush, guarded by {@code lines}.
+     * <p>
+     * The flush timer is shared by every stream of the application instance, so when it fires this only hands the
+     * flush to the vhost thread pool; encoding and publishing the caption never hold up other streams' deadlines.
+     * Flushes of one queue run one after the other, so its captions are handled in order.
+     */
+    private class CaptionQueue implements Runnable
     {
+        private final CaptionLineAssembler lines;
+        private final AtomicInteger flushRequests = new AtomicInteger();
+        private TimerWheel.Timeout flushTimeout;
+        private long flushDeadline;
+
+        private CaptionQueue(String language)
+        {
+            this.lines = new CaptionLineAssembler(language, maxLineLength, newLineThreshold);
+        }
+
+        private void cancelFlush()
+        {
+            if (flushTimeout != null)
+                flushTimeout.cancel();
+            flushTimeout = null;
+        }
+
+        // flush timer thread
         @Override
         public void run()
         {
-            try (InputStream inputStream = socket.getInputStream())
-            {
-                parseJsonStream(inputStream);
-            }
-            catch (SocketException s)
-            {
-                logger.info(CLASS_NAME + ".SocketListener.run: Socket connection closed: " + s.getMessage());
-                // Mark socket as disconnected so main thread can handle reconnection
-                socket = null;
-            }
-            catch (IOException e)
-            {
-                logger.error(CLASS_NAME + ".SocketListener.run: IO exception: " + e.getMessage(), e);
-                // Mark socket as disconnected so main thread can handle reconnection
-                socket = null;
-            }
-            catch (Exception e)
+            requestFlush();
+        }
+
+        /**
+         * Flushes the queue on the vhost thread pool, after any flush of it already running. Used by the flush timer
+         * and when the connection closes.
+         */
+        private void requestFlush()
+        {
+            if (flushRequests.getAndIncrement() != 0)
+                return;
+            try
             {
-                logger.error(CLASS_NAME + ".SocketListener.run: Unexpected exception: " + e.getMessage(), e);
-                socket = null;
+                appInstance.getVHost().getThreadPool().execute(this::runFlushes);
             }
-            finally
+            catch (RuntimeException e)
             {
-                // Process any remaining captions before the listener shuts down
-                if (!doQuit)
-                {
-                    processPendingCaptions();
-                }
+                logger.error(CLASS_NAME + ".CaptionQueue.requestFlush: cannot hand off caption flush, flushing on the calling thread: " + e, e);
+                runFlushes();
             }
         }
 
-        private void parseJsonStream(InputStream inputStream) throws IOException
+        private void runFlushes()
         {
-            JsonFactory factory = new JsonFactory();
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonParser parser = factory.createParser(inputStream);
-
-            while (!parser.isClosed() && !doQuit)
+            do
             {
-                JsonToken token = parser.nextToken();
-                if (token == JsonToken.START_OBJECT)
-                {
-                    // Deserialize the JSON object into a POJO
-                    WhisperResponse response = objectMapper.readValue(parser, WhisperResponse.class);
-                    handleWhisperResponse(response);
-                }
+                flushCaptions(this);
             }
-            logger.info(CLASS_NAME + ".parseJsonStream: Stream parsing ended");
+            while (flushRequests.decrementAndGet() > 0);
         }
     }
 }
@@ -0,0 +1,26 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import java.io.IOException;
+
+/**
+ * Opens {@link WhisperConnection}s. One transport is shared by all Whisper handlers in an application instance.
+ */
+public interface WhisperTransport extends AutoCloseable
+{
+    String TRANSPORT_SOCKET = "socket";
+    String TRANSPORT_NIO = "nio";
+    String TRANSPORT_FRAMED = "framed";
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException when no thread is available to read the responses
+     */
+    WhisperConnection connect(String host, int port, WhisperConnection.Listener listener) throws IOException;
+
+    @Override
+    void close();
+}
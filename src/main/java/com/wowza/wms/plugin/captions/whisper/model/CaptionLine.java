@@ -9,13 +9,17 @@ import com.wowza.wms.plugin.captions.caption.CaptionHelper;
 
 import java.time.Instant;
 
+/**
+ * One line of caption text being assembled from Whisper responses. Times are milliseconds on the
+ * {@link CaptionHelper#epochInstantFromMillis(long)} timeline. Lines are mutable and reused, see {@link #reset()}.
+ */
 public class CaptionLine
 {
     private final String language;
-    private String text;
-    private Instant start = CaptionHelper.epochInstantFromMillis(0);
-    private Instant end = CaptionHelper.epochInstantFromMillis(0);
-    private final long timeAdded = System.currentTimeMillis();
+    private final StringBuilder text = new StringBuilder();
+    private long startMillis = 0;
+    private long endMillis = 0;
+    private long timeAdded = System.currentTimeMillis();
 
     public CaptionLine(String language)
     {
@@ -29,32 +33,61 @@ public class CaptionLine
 
     public void setText(String text)
     {
-        this.text = text;
+        this.text.setLength(0);
+        this.text.append(text);
+    }
+
+    /**
+     * The text as a mutable buffer, for appending words without creating intermediate strings.
+     */
+    public StringBuilder getTextBuilder()
+    {
+        return text;
+    }
+
+    public void setStartMillis(long startMillis)
+    {
+        this.startMillis = startMillis;
+    }
+
+    public void setEndMillis(long endMillis)
+    {
+        this.endMillis = endMillis;
+    }
+
+    public long getStartMillis()
+    {
+        return startMillis;
+    }
+
+    public long getEndMillis()
+    {
+        return endMillis;
     }
 
     public void setStart(Instant start)
     {
-        this.start = start;
+        this.startMillis = CaptionHelper.millisFromEpochInstant(start);
     }
 
     public void setEnd(Instant end)
     {
-        this.end = end;
+        this.endMillis = CaptionHelper.millisFromEpochInstant(end);
     }
 
     public String getText()
     {
-        return text;
+        return text.toString();
     }
 
     public Instant getStart()
     {
-        return start;
+        return CaptionHelper.epochInstantFromMillis(startMillis);
     }
 
     public Instant getEnd()
     {
-        return end;
+        return CaptionHelper.epochInstantFromMillis(endMillis);
     }
 
     public long getTimeAdded()
@@ -62,13 +95,24 @@ public class CaptionLine
         return timeAdded;
     }
 
+    /**
+     * Clears the line so it can be used again as a new line.
+     */
+    public void reset()
+    {
+        text.setLength(0);
+        startMillis = 0;
+        endMillis = 0;
+        timeAdded = System.currentTimeMillis();
+    }
+
     @Override
     public String toString()
     {
         return "CaptionLine{" +
                "language='" + language + '\'' +
-               ", start=" + start +
-               ", end=" + end +
+               ", start=" + startMillis +
+               ", end=" + endMillis +
                ", text='" + text + '\'' +
                '}';
     }
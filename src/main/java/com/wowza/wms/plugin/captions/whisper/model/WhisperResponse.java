@@ -42,6 +42,37 @@ public class WhisperResponse
         return end;
     }
 
+    public void setLanguage(String language)
+    {
+        this.language = language;
+    }
+
+    public void setText(String text)
+    {
+        this.text = text;
+    }
+
+    public void setStart(float start)
+    {
+        this.start = start;
+    }
+
+    public void setEnd(float end)
+    {
+        this.end = end;
+    }
+
+    /**
+     * Restores the defaults so the instance can be reused for the next response.
+     */
+    public void reset()
+    {
+        language = Locale.ENGLISH.getLanguage();
+        text = null;
+        start = 0;
+        end = 0;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,188 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.archive;
+
+import com.wowza.wms.plugin.captions.caption.Caption;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptionArchiveTest
+{
+	@Test
+	void testReplayAfterReopenAcrossSegments() throws IOException
+	{
+		Path dir = Files.createTempDirectory("caption-archive-test");
+		try
+		{
+			List<Caption> written = new ArrayList<>();
+			try (CaptionArchive archive = new CaptionArchive(dir, CaptionArchive.MIN_SEGMENT_SIZE))
+			{
+				for (int i = 0; i < 200; i++)
+				{
+					Caption caption = new Caption(i % 2 == 0 ? "eng" : "spa", i * 1000L, i * 1000L + 900, "caption " + i + "\nsecond line ünïcödé", 99 + i % 2);
+					archive.append(caption);
+					written.add(caption);
+				}
+				assertTrue(segmentCount(dir) > 1);
+			}
+
+			try (CaptionArchive archive = new CaptionArchive(dir, CaptionArchive.MIN_SEGMENT_SIZE))
+			{
+				List<Caption> replayed = new ArrayList<>();
+				archive.replay(replayed::add);
+				assertEquals(written.size(), replayed.size());
+				for (int i = 0; i < written.size(); i++)
+					assertCaptionEquals(written.get(i), replayed.get(i));
+
+				// appends after a restart go to a new segment
+				int segments = segmentCount(dir);
+				archive.append(new Caption("eng", 500_000L, 501_000L, "after restart", 99));
+				assertEquals(segments + 1, segmentCount(dir));
+				assertEquals(201, archive.size());
+			}
+		}
+		finally
+		{
+			deleteRecursively(dir);
+		}
+	}
+
+	@Test
+	void testFindSeeksByTimeAndLanguage() throws IOException
+	{
+		Path dir = Files.createTempDirectory("caption-archive-test");
+		try (CaptionArchive archive = new CaptionArchive(dir, 64 * 1024))
+		{
+			// the second language arrives slightly behind the first
+			for (int i = 0; i < 100; i++)
+			{
+				archive.append(new Caption("eng", i * 2000L, i * 2000L + 1500, "eng " + i, 99));
+				if (i > 0)
+					archive.append(new Caption("fra", (i - 1) * 2000L + 100, (i - 1) * 2000L + 1900, "fra " + (i - 1), 100));
+			}
+			List<Caption> found = archive.find(null, 10_500, 14_000);
+			assertEquals(List.of("eng 5", "fra 5", "eng 6", "fra 6"), texts(found));
+			assertEquals(List.of("fra 5", "fra 6"), texts(archive.find("fra", 10_500, 14_000)));
+			assertTrue(archive.find("eng", 500_000, 600_000).isEmpty());
+		}
+		finally
+		{
+			deleteRecursively(dir);
+		}
+	}
+
+	@Test
+	void testTornRecordEndsReplayOfSegment() throws IOException
+	{
+		Path dir = Files.createTempDirectory("caption-archive-test");
+		try
+		{
+			try (CaptionArchive archive = new CaptionArchive(dir, 64 * 1024))
+			{
+				for (int i = 0; i < 3; i++)
+					archive.append(new Caption("eng", i * 1000L, i * 1000L + 500, "caption " + i, 99));
+			}
+			Path segment;
+			try (Stream<Path> files = Files.list(dir))
+			{
+				segment = files.findFirst().orElseThrow();
+			}
+			// flip a byte in the text of the last record
+			try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				int position = CaptionArchive.SEGMENT_HEADER_SIZE;
+				ByteBuffer length = ByteBuffer.allocate(4);
+				for (int i = 0; i < 2; i++)
+				{
+					length.clear();
+					channel.read(length, position);
+					position += length.flip().getInt();
+				}
+				channel.write(ByteBuffer.wrap(new byte[] {'X'}), position + 40);
+			}
+			try (CaptionArchive archive = new CaptionArchive(dir, 64 * 1024))
+			{
+				assertEquals(2, archive.size());
+				assertTrue(archive.getStats().contains("corruptSegments=1"), archive.getStats());
+			}
+		}
+		finally
+		{
+			deleteRecursively(dir);
+		}
+	}
+
+	@Test
+	void testExportWebVttAndSrt() throws IOException
+	{
+		Path dir = Files.createTempDirectory("caption-archive-test");
+		try (CaptionArchive archive = new CaptionArchive(dir, 64 * 1024))
+		{
+			archive.append(new Caption("eng", 3_723_004L, 3_725_500L, "Fish & chips\n<b>bold</b>", 99));
+			archive.append(new Caption("eng", 3_726_000L, 3_727_000L, "Next", 99));
+
+			StringWriter vtt = new StringWriter();
+			CaptionExporter.export(archive, "eng", 0, Long.MAX_VALUE, CaptionExporter.FORMAT_WEBVTT, vtt);
+			assertEquals("WEBVTT\n\n" +
+					"01:02:03.004 --> 01:02:05.500\nFish &amp; chips\n&lt;b&gt;bold&lt;/b&gt;\n\n" +
+					"01:02:06.000 --> 01:02:07.000\nNext\n\n", vtt.toString());
+
+			StringWriter srt = new StringWriter();
+			CaptionExporter.export(archive, "eng", 3_726_000L, Long.MAX_VALUE, CaptionExporter.FORMAT_SRT, srt);
+			assertEquals("1\n00:00:00,000 --> 00:00:01,000\nNext\n\n", srt.toString());
+		}
+		finally
+		{
+			deleteRecursively(dir);
+		}
+	}
+
+	private static void assertCaptionEquals(Caption expected, Caption actual)
+	{
+		assertEquals(expected.getLanguage(), actual.getLanguage());
+		assertEquals(expected.getBegin(), actual.getBegin());
+		assertEquals(expected.getEnd(), actual.getEnd());
+		assertEquals(expected.getText(), actual.getText());
+		assertEquals(expected.getTrackId(), actual.getTrackId());
+	}
+
+	private static List<String> texts(List<Caption> captions)
+	{
+		List<String> texts = new ArrayList<>();
+		captions.forEach(caption -> texts.add(caption.getText()));
+		return texts;
+	}
+
+	private static int segmentCount(Path dir) throws IOException
+	{
+		try (Stream<Path> files = Files.list(dir))
+		{
+			return (int) files.count();
+		}
+	}
+
+	private static void deleteRecursively(Path dir) throws IOException
+	{
+		try (Stream<Path> files = Files.walk(dir))
+		{
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+				Files.delete(file);
+		}
+	}
+}
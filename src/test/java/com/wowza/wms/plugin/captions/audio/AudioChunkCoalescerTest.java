@@ -0,0 +1,105 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioChunkCoalescerTest
+{
+
+	@Test
+	void testFramesAreWrittenInFullChunks()
+	{
+		List<byte[]> written = new ArrayList<>();
+		// the sink copies, the coalescer reuses its chunk
+		AudioChunkCoalescer coalescer = new AudioChunkCoalescer(10, 1000, data -> written.add(data.clone()));
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		int next = 0;
+		for (int i = 0; i < 7; i++)
+		{
+			byte[] frame = frame(next, 4);
+			next += 4;
+			expected.writeBytes(frame);
+			coalescer.write(frame, i);
+		}
+		assertEquals(2, written.size());
+		for (byte[] chunk : written)
+			assertEquals(10, chunk.length);
+		assertEquals(8, coalescer.getBuffered());
+		coalescer.flush();
+		assertEquals(3, written.size());
+		assertEquals(8, written.get(2).length);
+		assertArrayEquals(expected.toByteArray(), concat(written));
+		assertEquals(7, coalescer.getFrameCount());
+		assertEquals(3, coalescer.getChunkCount());
+	}
+
+	@Test
+	void testBufferedAudioIsFlushedAtDeadline()
+	{
+		List<byte[]> written = new ArrayList<>();
+		AudioChunkCoalescer coalescer = new AudioChunkCoalescer(100, 50, data -> written.add(data.clone()));
+		coalescer.write(frame(0, 10), 1000);
+		assertEquals(40, coalescer.flushIfDue(1010));
+		coalescer.write(frame(10, 10), 1030);
+		assertTrue(written.isEmpty());
+		// the deadline runs from the oldest buffered byte
+		assertEquals(50, coalescer.flushIfDue(1050));
+		assertEquals(1, written.size());
+		assertArrayEquals(frame(0, 20), written.get(0));
+		assertEquals(1, coalescer.getDeadlineFlushCount());
+		// the next frame checks the deadline too
+		coalescer.write(frame(20, 10), 1100);
+		coalescer.write(frame(30, 10), 1160);
+		assertEquals(2, written.size());
+		assertArrayEquals(frame(20, 20), written.get(1));
+	}
+
+	@Test
+	void testLargeFrameIsPassedThroughWhenNothingIsBuffered()
+	{
+		List<byte[]> written = new ArrayList<>();
+		AudioChunkCoalescer coalescer = new AudioChunkCoalescer(8, 1000, written::add);
+		byte[] large = frame(0, 20);
+		coalescer.write(large, 0);
+		assertSame(large, written.get(0));
+		// once audio is buffered a large frame is split into chunks
+		coalescer.write(frame(0, 2), 0);
+		coalescer.write(frame(2, 20), 0);
+		assertEquals(3, written.size());
+		assertEquals(6, coalescer.getBuffered());
+		assertTrue(coalescer.getStats().contains("frames=3"), coalescer.getStats());
+	}
+
+	@Test
+	void testChunkSizeFromMillisHoldsWholeSamples()
+	{
+		AudioChunkCoalescer coalescer = AudioChunkCoalescer.forMillis(100, 150, data -> { });
+		assertEquals(3200, coalescer.getChunkSize());
+		assertEquals(10, new AudioChunkCoalescer(11, 150, data -> { }).getChunkSize());
+	}
+
+	private static byte[] frame(int first, int length)
+	{
+		byte[] frame = new byte[length];
+		for (int i = 0; i < length; i++)
+			frame[i] = (byte) (first + i);
+		return frame;
+	}
+
+	private static byte[] concat(List<byte[]> chunks)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		chunks.forEach(out::writeBytes);
+		return out.toByteArray();
+	}
+}
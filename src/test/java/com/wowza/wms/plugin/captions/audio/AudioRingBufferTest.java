@@ -0,0 +1,106 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioRingBufferTest
+{
+
+	@Test
+	void testDrainAcrossWrapKeepsOrder()
+	{
+		AudioRingBuffer buffer = new AudioRingBuffer(10, false);
+		assertTrue(buffer.write(frame(0, 6), 0, 6));
+		assertArrayEquals(frame(0, 4), read(buffer, 4));
+		assertTrue(buffer.write(frame(6, 6), 0, 6));
+		assertEquals(2, buffer.readableBuffers().length);
+		assertArrayEquals(frame(4, 8), drain(buffer));
+		assertTrue(buffer.isEmpty());
+		buffer.release();
+	}
+
+	@Test
+	void testDropNewestKeepsBufferedAudio()
+	{
+		AudioRingBuffer buffer = new AudioRingBuffer(8, false, AudioRingBuffer.OverloadPolicy.DROP_NEWEST, 8);
+		assertTrue(buffer.write(frame(0, 6), 0, 6));
+		assertFalse(buffer.write(frame(6, 4), 0, 4));
+		assertEquals(4, buffer.getDroppedBytes());
+		assertEquals(1, buffer.getDroppedFrames());
+		assertArrayEquals(frame(0, 6), drain(buffer));
+		buffer.release();
+	}
+
+	@Test
+	void testDropOldestMakesRoomForNewFrame()
+	{
+		AudioRingBuffer buffer = new AudioRingBuffer(8, false, AudioRingBuffer.OverloadPolicy.DROP_OLDEST, 8);
+		assertTrue(buffer.write(frame(0, 6), 0, 6));
+		assertFalse(buffer.write(frame(6, 4), 0, 4));
+		assertEquals(2, buffer.getDroppedBytes());
+		assertEquals(0, buffer.getDroppedFrames());
+		assertEquals(1, buffer.getOverflowCount());
+		assertArrayEquals(frame(2, 8), drain(buffer));
+		buffer.release();
+	}
+
+	@Test
+	void testCoalesceKeepsRecentWindow()
+	{
+		AudioRingBuffer buffer = new AudioRingBuffer(8, false, AudioRingBuffer.OverloadPolicy.COALESCE, 4);
+		assertTrue(buffer.write(frame(0, 8), 0, 8));
+		assertFalse(buffer.write(frame(8, 2), 0, 2));
+		assertEquals(6, buffer.getDroppedBytes());
+		assertArrayEquals(frame(6, 4), drain(buffer));
+		buffer.release();
+	}
+
+	@Test
+	void testInFlightAudioIsNotOverwritten()
+	{
+		AudioRingBuffer buffer = new AudioRingBuffer(8, false, AudioRingBuffer.OverloadPolicy.DROP_OLDEST, 8);
+		assertTrue(buffer.write(frame(0, 8), 0, 8));
+		ByteBuffer[] views = buffer.readableBuffers();
+		assertFalse(buffer.write(frame(8, 2), 0, 2));
+		assertEquals(1, buffer.getDroppedFrames());
+		assertEquals(ByteBuffer.wrap(frame(0, 8)), views[0]);
+		buffer.commitRead(8);
+		assertTrue(buffer.isEmpty());
+		buffer.release();
+	}
+
+	private static byte[] frame(int first, int length)
+	{
+		byte[] frame = new byte[length];
+		for (int i = 0; i < length; i++)
+			frame[i] = (byte) (first + i);
+		return frame;
+	}
+
+	private static byte[] drain(AudioRingBuffer buffer)
+	{
+		return read(buffer, Integer.MAX_VALUE);
+	}
+
+	private static byte[] read(AudioRingBuffer buffer, int max)
+	{
+		int length = Math.min(buffer.getAvailable(), max);
+		byte[] bytes = new byte[length];
+		int read = 0;
+		for (ByteBuffer view : buffer.readableBuffers())
+		{
+			while (view.hasRemaining() && read < length)
+				bytes[read++] = view.get();
+		}
+		buffer.commitRead(read);
+		return bytes;
+	}
+}
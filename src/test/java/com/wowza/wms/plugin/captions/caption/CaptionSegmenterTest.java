@@ -0,0 +1,173 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.plugin.captions.ModuleCaptionsBase;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptionSegmenterTest
+{
+	private static final String[] DEFAULT_FIRST_PASS = terminators(ModuleCaptionsBase.DEFAULT_FIRST_PASS_TERMINATORS);
+	private static final String[] SPACE = {" "};
+	private static final String[] CJK_FIRST_PASS = {"，", "、", "；", "？", "！", "?", "!", ",", ";"};
+	private static final String[] CJK_SECOND_PASS = {"。", " "};
+
+	@Test
+	void testSplitsAtPunctuationAndSpeakers()
+	{
+		CaptionSegmenter segmenter = new CaptionSegmenter(32, DEFAULT_FIRST_PASS, SPACE, 60, ">>>");
+		assertEquals(List.of("Hi there. How are doing you", "today?", ">>> I'm good, thanks.", "What about you?"),
+				segmenter.split("Hi there. How are doing you today? >>> I'm good, thanks. What about you?"));
+		assertEquals(List.of("our attendees, this year.", "So here at Rising, we are joined"),
+				segmenter.split("our attendees, this year. So here at Rising, we are joined"));
+	}
+
+	@Test
+	void testTrailingSpacesLeaveEmptyLine()
+	{
+		CaptionSegmenter segmenter = new CaptionSegmenter(5, DEFAULT_FIRST_PASS, SPACE, 60, null);
+		assertEquals(List.of("short", ""), segmenter.split("short   "));
+		assertEquals(List.of(), segmenter.split(""));
+	}
+
+	@Test
+	void testMatchesSubstringScanningImplementation()
+	{
+		Random random = new Random(7);
+		String[] alphabet = {"a", "b", "cd", "efg", "hijkl", "mnopqrs", " ", " ", " ", "  ", ". ", ", ", "? ", "!", ";", ".", "\t", "\n",
+				">>", ">>>", "，", "、", "。", "字幕", "テスト", "..", "é"};
+		String[][][] terminatorSets = {
+				{DEFAULT_FIRST_PASS, SPACE},
+				{CJK_FIRST_PASS, CJK_SECOND_PASS},
+				{{"..", ".", ". "}, {" ", "  "}},
+				{{}, SPACE}
+		};
+		for (int run = 0; run < 5000; run++)
+		{
+			StringBuilder sb = new StringBuilder();
+			int tokens = random.nextInt(120);
+			for (int i = 0; i < tokens; i++)
+				sb.append(alphabet[random.nextInt(alphabet.length)]);
+			String text = sb.toString();
+			int maxWidth = 1 + random.nextInt(40);
+			int percentage = random.nextInt(101);
+			String speaker = random.nextBoolean() ? null : random.nextBoolean() ? ">>" : ">>>";
+			String[][] terminators = terminatorSets[random.nextInt(terminatorSets.length)];
+			CaptionSegmenter segmenter = new CaptionSegmenter(maxWidth, terminators[0], terminators[1], percentage, speaker);
+			List<String> expected = new LegacySegmenter(text, maxWidth, terminators[0], terminators[1], percentage, speaker).split();
+			assertEquals(expected, segmenter.split(text), () -> "text=\"" + text + "\" maxWidth=" + maxWidth + " percentage=" + percentage +
+					" speaker=" + speaker + " terminators=" + Arrays.deepToString(terminators));
+		}
+	}
+
+	private static String[] terminators(String lineTerminators)
+	{
+		return Arrays.stream(lineTerminators.split("\\|")).filter(Predicate.not(String::isBlank)).toArray(String[]::new);
+	}
+
+	/**
+	 * The line splitting previously in CaptionHelper, kept as the reference for the segmenter.
+	 */
+	private static class LegacySegmenter
+	{
+		private final String text;
+		private final int maxWidth;
+		private final String[] firstPassTerminators;
+		private final String[] secondPassTerminators;
+		private final int firstPassPercentage;
+		private final String speakerChangeIndicator;
+
+		LegacySegmenter(String text, int maxWidth, String[] firstPassTerminators, String[] secondPassTerminators, int firstPassPercentage,
+		                String speakerChangeIndicator)
+		{
+			this.text = text;
+			this.maxWidth = maxWidth;
+			this.firstPassTerminators = firstPassTerminators;
+			this.secondPassTerminators = secondPassTerminators;
+			this.firstPassPercentage = firstPassPercentage;
+			this.speakerChangeIndicator = speakerChangeIndicator;
+		}
+
+		List<String> split()
+		{
+			List<String> captionLines = new ArrayList<>();
+			int index = 0;
+			while (index < text.length())
+			{
+				while (text.length() > index && text.charAt(index) == ' ')
+					index++;
+				int lineLength = getBestWidth(index);
+				captionLines.add(text.substring(index, index + lineLength).trim());
+				index = index + lineLength;
+			}
+			return captionLines;
+		}
+
+		private int getBestWidth(int startIndex)
+		{
+			if (speakerChangeIndicator != null && !speakerChangeIndicator.isEmpty())
+			{
+				int speakerIndex = text.indexOf(speakerChangeIndicator, startIndex);
+				if (speakerIndex != -1)
+				{
+					if (speakerIndex == startIndex)
+						speakerIndex = text.indexOf(speakerChangeIndicator, speakerIndex + speakerChangeIndicator.length());
+					if (speakerIndex > startIndex)
+					{
+						int width = speakerIndex - startIndex;
+						if (width <= maxWidth)
+							return width;
+					}
+				}
+			}
+
+			int remaining = text.length() - startIndex;
+			if (remaining <= maxWidth)
+				return remaining;
+			int firstPass = findBestWidth(firstPassTerminators, startIndex);
+			if (firstPass == maxWidth)
+				return firstPass;
+			int firstPassWordCount = getWordCount(startIndex, firstPass);
+			int secondPass = findBestWidth(secondPassTerminators, startIndex);
+			int secondPassWordCount = getWordCount(startIndex, secondPass);
+			if (firstPassWordCount == 0 && secondPassWordCount == 0)
+				return maxWidth;
+			return (secondPassWordCount == 0 || (firstPassWordCount * 100.0f) / secondPassWordCount > firstPassPercentage) ? firstPass : secondPass;
+		}
+
+		private int getWordCount(int startIndex, int length)
+		{
+			if (length < 0)
+				return 0;
+			return text.substring(startIndex, startIndex + length).trim().split("\\s").length;
+		}
+
+		private int findBestWidth(String[] terminators, int startAt)
+		{
+			var remaining = text.length() - startAt;
+			var bestWidth = -1;
+			for (var terminator : terminators)
+			{
+				var checkChars = Math.min(remaining, maxWidth);
+				if (terminator.endsWith(" "))
+					checkChars += 1;
+				var index = text.substring(startAt, startAt + checkChars).lastIndexOf(terminator) + startAt;
+				var width = index - startAt;
+				if (width > bestWidth)
+					bestWidth = width + terminator.length();
+			}
+			return bestWidth;
+		}
+	}
+}
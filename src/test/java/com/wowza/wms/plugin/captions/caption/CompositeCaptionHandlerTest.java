@@ -0,0 +1,198 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompositeCaptionHandlerTest
+{
+	private final List<Thread> workerThreads = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void tearDown() throws Exception
+	{
+		for (Thread thread : workerThreads)
+		{
+			thread.interrupt();
+			thread.join(1000);
+		}
+	}
+
+	@Test
+	void testSlowSinkDropsOldestButPrimaryGetsEveryCaption() throws Exception
+	{
+		RecordingSink primary = new RecordingSink();
+		RecordingSink slow = new RecordingSink();
+		slow.blocked = new CountDownLatch(1);
+		CompositeCaptionHandler handler = create(2, primary, slow);
+
+		handler.handleCaption(caption("one"));
+		assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+		for (String text : new String[]{"two", "three", "four", "five"})
+			handler.handleCaption(caption(text));
+		// delivered on the calling thread, while the other sink is stuck
+		assertEquals(List.of("one", "two", "three", "four", "five"), primary.texts);
+
+		slow.blocked.countDown();
+		handler.close();
+		awaitWorkers();
+		assertEquals(List.of("one", "four", "five"), slow.texts);
+		assertTrue(handler.getStats().contains("dropped=2"), handler.getStats());
+	}
+
+	@Test
+	void testCloseDrainsQueuedCaptionsAndClosesSinks() throws Exception
+	{
+		RecordingSink primary = new RecordingSink();
+		RecordingSink archive = new RecordingSink();
+		archive.blocked = new CountDownLatch(1);
+		CompositeCaptionHandler handler = create(8, primary, archive);
+
+		for (String text : new String[]{"one", "two", "three"})
+			handler.handleCaption(caption(text));
+		handler.close();
+		archive.blocked.countDown();
+		awaitWorkers();
+
+		assertEquals(List.of("one", "two", "three"), archive.texts);
+		assertEquals(1, primary.closeCount.get());
+		assertEquals(1, archive.closeCount.get());
+	}
+
+	@Test
+	void testCloseWakesIdleWorkerAndIsIdempotent() throws Exception
+	{
+		RecordingSink primary = new RecordingSink();
+		RecordingSink archive = new RecordingSink();
+		CompositeCaptionHandler handler = create(8, primary, archive);
+
+		handler.close();
+		awaitWorkers();
+		handler.close();
+		handler.handleCaption(caption("late"));
+
+		assertTrue(primary.texts.isEmpty());
+		assertTrue(archive.texts.isEmpty());
+		assertEquals(1, primary.closeCount.get());
+		assertEquals(1, archive.closeCount.get());
+	}
+
+	@Test
+	void testRejectedWorkerClosesEverySink() throws Exception
+	{
+		RecordingSink primary = new RecordingSink();
+		RecordingSink started = new RecordingSink();
+		RecordingSink rejected = new RecordingSink();
+		List<CaptionHandler> sinks = List.of(primary, started, rejected);
+		AtomicInteger starts = new AtomicInteger();
+		assertThrows(RejectedExecutionException.class, () -> new CompositeCaptionHandler(WMSLoggerFactory.getLogger(CompositeCaptionHandlerTest.class), "test", false, 8, sinks,
+				(name, worker) -> {
+					if (starts.incrementAndGet() > 1)
+						throw new RejectedExecutionException();
+					startWorker(name, worker);
+				}));
+
+		awaitWorkers();
+		assertEquals(1, primary.closeCount.get());
+		assertEquals(1, started.closeCount.get());
+		assertEquals(1, rejected.closeCount.get());
+	}
+
+	private CompositeCaptionHandler create(int queueSize, CaptionHandler... sinks)
+	{
+		List<CaptionHandler> list = new ArrayList<>(List.of(sinks));
+		return new CompositeCaptionHandler(WMSLoggerFactory.getLogger(CompositeCaptionHandlerTest.class), "test", false, queueSize, list, this::startWorker);
+	}
+
+	private void startWorker(String name, Runnable worker)
+	{
+		Thread thread = new Thread(worker, name);
+		workerThreads.add(thread);
+		thread.start();
+	}
+
+	private void awaitWorkers() throws InterruptedException
+	{
+		for (Thread thread : workerThreads)
+		{
+			thread.join(5000);
+			assertFalse(thread.isAlive(), thread.getName() + " still running");
+		}
+	}
+
+	private static Caption caption(String text)
+	{
+		return new Caption("en", 0, 1000, text, 99);
+	}
+
+	private static class RecordingSink implements CaptionHandler
+	{
+		private final List<String> texts = new CopyOnWriteArrayList<>();
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final AtomicInteger closeCount = new AtomicInteger();
+		private volatile CountDownLatch blocked;
+
+		@Override
+		public void handleCaption(Caption caption)
+		{
+			entered.countDown();
+			CountDownLatch latch = blocked;
+			if (latch != null)
+			{
+				try
+				{
+					latch.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			texts.add(caption.getText());
+		}
+
+		@Override
+		public int getWordsPerMinute()
+		{
+			return 150;
+		}
+
+		@Override
+		public void setWordsPerMinute(int wordsPerMinute)
+		{
+		}
+
+		@Override
+		public CaptionTiming getCaptionTiming()
+		{
+			return null;
+		}
+
+		@Override
+		public long getStreamDelay()
+		{
+			return 0;
+		}
+
+		@Override
+		public void close()
+		{
+			closeCount.incrementAndGet();
+		}
+	}
+}
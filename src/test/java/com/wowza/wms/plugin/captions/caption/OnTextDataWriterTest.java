@@ -0,0 +1,75 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.amf.AMFDataItem;
+import com.wowza.wms.amf.AMFDataList;
+import com.wowza.wms.amf.AMFDataObj;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnTextDataWriterTest
+{
+	@Test
+	void testMatchesKnownEncoding()
+	{
+		byte[] expected = {
+				0x02, 0x00, 0x0A, 'o', 'n', 'T', 'e', 'x', 't', 'D', 'a', 't', 'a',
+				0x03,
+				0x00, 0x04, 't', 'e', 'x', 't', 0x02, 0x00, 0x02, 'H', 'i',
+				0x00, 0x08, 'l', 'a', 'n', 'g', 'u', 'a', 'g', 'e', 0x02, 0x00, 0x03, 'e', 'n', 'g',
+				0x00, 0x07, 't', 'r', 'a', 'c', 'k', 'i', 'd', 0x00, 0x40, 0x5C, 0x40, 0x00, 0x00, 0x00, 0x00, 0x00,
+				0x00, 0x00, 0x09
+		};
+		assertArrayEquals(expected, new OnTextDataWriter().write("Hi", "eng", 113));
+	}
+
+	@Test
+	void testMatchesAMFDataListSerialization()
+	{
+		OnTextDataWriter writer = new OnTextDataWriter();
+		String[] texts = {
+				"",
+				"Our greatest weakness lies in giving up.\nThe most certain way to succeed",
+				"Ça coûte 10 € — ¿verdad?",
+				"字幕のテスト\n자막 테스트",
+				"emoji 😀 and an unpaired \uD83D surrogate",
+				"x".repeat(5000)
+		};
+		for (String text : texts)
+		{
+			for (int trackId : new int[] {0, 99, -1, Integer.MAX_VALUE})
+				assertArrayEquals(serialize(text, "spa", trackId), writer.write(text, "spa", trackId), text);
+		}
+		assertArrayEquals(serialize("no language", null, 1), writer.write("no language", null, 1));
+	}
+
+	@Test
+	void testLongTextIsEncodedAsLongString()
+	{
+		OnTextDataWriter writer = new OnTextDataWriter();
+		String text = "€".repeat(30000);
+		byte[] data = writer.write(text, "eng", 1);
+		assertArrayEquals(serialize(text, "eng", 1), data);
+		assertEquals(0x0C, data[20]);
+		// the reused buffer is rewound for the next caption
+		assertArrayEquals(serialize("short", "eng", 1), writer.write("short", "eng", 1));
+	}
+
+	private static byte[] serialize(String text, String language, int trackId)
+	{
+		AMFDataObj amfData = new AMFDataObj();
+		amfData.put("text", new AMFDataItem(text));
+		amfData.put("language", new AMFDataItem(language));
+		amfData.put("trackid", new AMFDataItem(trackId));
+
+		AMFDataList dataList = new AMFDataList();
+		dataList.add(new AMFDataItem("onTextData"));
+		dataList.add(amfData);
+		return dataList.serialize();
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.plugin.captions.ModuleCaptionsBase;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentationProfileTest
+{
+	static String firstPassTerminators = ModuleCaptionsBase.DEFAULT_FIRST_PASS_TERMINATORS;
+	static int firstPassPercentage = ModuleCaptionsBase.DEFAULT_FIRST_PASS_PERCENTAGE;
+
+	@Test
+	void testProfilesAreCompiledOncePerLanguage()
+	{
+		SegmentationProfiles profiles = new SegmentationProfiles(CaptionHelper.defaultMaxLineLengthSBCS, firstPassTerminators, firstPassPercentage, null);
+		SegmentationProfile english = profiles.get("en");
+		assertSame(english, profiles.get("en"));
+		assertNotSame(english, profiles.get("ja"));
+		assertEquals(2, profiles.size());
+		assertEquals("ja", profiles.get("ja").getLanguage());
+	}
+
+	@Test
+	void testMultiByteLanguagesUseShorterDefaultWidth()
+	{
+		SegmentationProfiles profiles = new SegmentationProfiles(CaptionHelper.defaultMaxLineLengthSBCS, firstPassTerminators, firstPassPercentage, null);
+		assertEquals(CaptionHelper.defaultMaxLineLengthSBCS, profiles.get("en").getMaxWidth());
+		assertEquals(CaptionHelper.defaultMaxLineLengthMBCS, profiles.get("zh").getMaxWidth());
+		assertEquals(CaptionHelper.defaultMaxLineLengthMBCS, profiles.get("ja").getMaxWidth());
+		// a configured width applies to every language
+		assertEquals(20, SegmentationProfile.compile("ja", 20, firstPassTerminators, firstPassPercentage, null).getMaxWidth());
+	}
+
+	@Test
+	void testProfileCaptionsMatchPerCallConfiguration()
+	{
+		String text = "Hi there. How are doing you today? >>> I'm good, thanks. What about you? Our greatest weakness lies in giving up.";
+		CaptionTiming timing = new CaptionTiming(1000, 9000);
+		SegmentationProfile profile = SegmentationProfile.compile("en", 32, firstPassTerminators, firstPassPercentage, ">>>");
+		List<Caption> expected = CaptionHelper.getCaptions("en", 32, 2, firstPassTerminators, firstPassPercentage, ">>>", timing, text);
+		List<Caption> actual = CaptionHelper.getCaptions(profile, 2, timing, text);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertEquals(expected.get(i).getText(), actual.get(i).getText());
+			assertEquals(expected.get(i).getBegin(), actual.get(i).getBegin());
+			assertEquals(expected.get(i).getEnd(), actual.get(i).getEnd());
+			assertEquals("en", actual.get(i).getLanguage());
+		}
+	}
+}
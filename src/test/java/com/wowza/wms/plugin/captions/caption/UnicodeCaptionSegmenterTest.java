@@ -0,0 +1,131 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.caption;
+
+import com.wowza.wms.plugin.captions.ModuleCaptionsBase;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnicodeCaptionSegmenterTest
+{
+	static String firstPassTerminators = ModuleCaptionsBase.DEFAULT_FIRST_PASS_TERMINATORS;
+	static int firstPassPercentage = ModuleCaptionsBase.DEFAULT_FIRST_PASS_PERCENTAGE;
+
+	@Test
+	void testEnglishBreaksAtSentencesAndSpaces()
+	{
+		List<String> lines = split("en", 32, "Hi there. How are doing you today? >>> I'm good, thanks. What about you?", ">>>");
+		assertEquals(List.of("Hi there. How are doing you", "today?", ">>> I'm good, thanks.", "What about you?"), lines);
+		assertEquals(List.of(), split("en", 32, "   ", null));
+	}
+
+	@Test
+	void testWideCharactersTakeTwoColumns()
+	{
+		// 12 columns fit six ideographs, and a line never starts with the comma
+		List<String> lines = split("zh", 12, "今天天气很好，我们去公园散步吧。", null);
+		assertEquals(List.of("今天天气很", "好，我们去公", "园散步吧。"), lines);
+		for (String line : lines)
+			assertTrue(columns(line) <= 12, line);
+		// the comma wins over the last break opportunity when the line keeps most of its width
+		assertEquals(List.of("今天天气很好，", "我们去公园散步吧。"), split("zh", 18, "今天天气很好，我们去公园散步吧。", null));
+		// Korean breaks at spaces, not inside words
+		assertEquals(List.of("안녕하세요 여러분", "반갑습니다"), split("ko", 18, "안녕하세요 여러분 반갑습니다", null));
+	}
+
+	@Test
+	void testThaiBreaksBetweenWords()
+	{
+		String text = "ภาษาไทยเป็นภาษาที่ไม่มีการเว้นวรรคระหว่างคำ";
+		List<String> lines = split("th", 12, text, null);
+		assertEquals(text, String.join("", lines));
+		assertTrue(lines.size() > 1);
+		assertEquals(List.of("ภาษาไทยเป็น", "ภาษาที่ไม่มีการ", "เว้นวรรค", "ระหว่างคำ"), lines);
+		// combining vowels and tone marks take no columns
+		for (String line : lines)
+			assertTrue(columns(line) <= 12, line);
+	}
+
+	@Test
+	void testEmojiClustersAreNeverSplit()
+	{
+		String family = "👨‍👩‍👧";
+		String flag = "🇯🇵";
+		String thumb = "👍🏽";
+		String text = family + flag + thumb + family + flag + thumb;
+		List<String> lines = split("en", 4, text, null);
+		assertEquals(List.of(family + flag, thumb + family, flag + thumb), lines);
+		assertEquals(2, UnicodeCaptionSegmenter.clusterWidth(family, 0, family.length()));
+	}
+
+	@Test
+	void testUnbreakableTextIsCutAtLastFittingCluster()
+	{
+		assertEquals(List.of("Supercalifragi", "listicexpialid", "ocious"), split("en", 14, "Supercalifragilisticexpialidocious", null));
+		// a cluster wider than the line still makes progress
+		assertEquals(List.of("字", "幕"), split("ja", 1, "字幕", null));
+	}
+
+	@Test
+	void testMarkOnLeadingWhitespaceIsKept()
+	{
+		// a space followed by a Thai tone mark is one cluster, only the space is whitespace
+		assertEquals(List.of("่"), split("th", 12, " ่", null));
+		assertEquals(List.of("่ก"), split("th", 12, "  ่ก ", null));
+	}
+
+	@Test
+	void testLocaleOfIsoCodes()
+	{
+		assertEquals(Locale.forLanguageTag("th"), UnicodeCaptionSegmenter.toLocale("tha"));
+		assertEquals(Locale.forLanguageTag("en"), UnicodeCaptionSegmenter.toLocale("eng"));
+		assertEquals(Locale.forLanguageTag("ja-JP"), UnicodeCaptionSegmenter.toLocale("ja-JP"));
+	}
+
+	@Test
+	void testIteratorsAreReusedAcrossThreads() throws InterruptedException
+	{
+		UnicodeCaptionSegmenter segmenter = new UnicodeCaptionSegmenter(Locale.ENGLISH, 20, new String[]{". "}, firstPassPercentage, null);
+		String text = "Captions used to be an afterthought. Today they drive engagement, search and retention.";
+		List<String> expected = segmenter.split(text);
+		Thread[] threads = new Thread[4];
+		List<String>[] results = new List[threads.length];
+		for (int i = 0; i < threads.length; i++)
+		{
+			int index = i;
+			threads[i] = new Thread(() -> {
+				for (int run = 0; run < 200; run++)
+					results[index] = segmenter.split(run % 2 == 0 ? text : "something else entirely");
+				results[index] = segmenter.split(text);
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].join();
+			assertEquals(expected, results[i]);
+		}
+	}
+
+	private static List<String> split(String language, int maxWidth, String text, String speakerChangeIndicator)
+	{
+		return SegmentationProfile.compile(SegmentationProfile.MODE_UNICODE, language, maxWidth, firstPassTerminators, firstPassPercentage,
+				speakerChangeIndicator).split(text);
+	}
+
+	// columns of text without emoji sequences, where every code point but a combining mark starts a cluster
+	private static int columns(String text)
+	{
+		int columns = 0;
+		for (int i = 0; i < text.length(); i += Character.charCount(text.codePointAt(i)))
+			columns += UnicodeCaptionSegmenter.clusterWidth(text, i, i + Character.charCount(text.codePointAt(i)));
+		return columns;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveDelayControllerTest
+{
+	@Test
+	void testStartsAtMaximumUntilEnoughSamples()
+	{
+		AdaptiveDelayController controller = new AdaptiveDelayController(2000, 10000, 500, 1000);
+		assertEquals(10000, controller.getInitialDelay());
+		for (int i = 0; i < AdaptiveDelayController.MIN_SAMPLES - 1; i++)
+			controller.recordLatency(1000);
+		assertEquals(10000, controller.getTargetDelay());
+		assertEquals(10000, controller.nextDelay(10000));
+	}
+
+	@Test
+	void testTargetIsPercentilePlusMarginWithinBounds()
+	{
+		AdaptiveDelayController controller = new AdaptiveDelayController(2000, 10000, 500, 1000);
+		for (int i = 0; i < 100; i++)
+			controller.recordLatency(2970);
+		// 50 ms histogram buckets report their upper bound
+		assertEquals(3500, controller.getTargetDelay());
+
+		AdaptiveDelayController fast = new AdaptiveDelayController(2000, 10000, 500, 1000);
+		for (int i = 0; i < 100; i++)
+			fast.recordLatency(100);
+		assertEquals(2000, fast.getTargetDelay());
+
+		AdaptiveDelayController slow = new AdaptiveDelayController(2000, 10000, 500, 1000);
+		for (int i = 0; i < 100; i++)
+			slow.recordLatency(30000);
+		assertEquals(10000, slow.getTargetDelay());
+	}
+
+	@Test
+	void testDelayMovesByAtMostOneStep()
+	{
+		AdaptiveDelayController controller = new AdaptiveDelayController(2000, 10000, 500, 1000);
+		for (int i = 0; i < 100; i++)
+			controller.recordLatency(2950);
+		long delay = controller.getInitialDelay();
+		int steps = 0;
+		while (delay != controller.getTargetDelay())
+		{
+			long next = controller.nextDelay(delay);
+			assertTrue(delay - next <= 1000 && next < delay);
+			delay = next;
+			steps++;
+		}
+		assertEquals(3500, delay);
+		assertEquals(7, steps);
+
+		// a slow recognition burst raises the delay again, one step at a time
+		for (int i = 0; i < 200; i++)
+			controller.recordLatency(6000);
+		assertEquals(4500, controller.nextDelay(delay));
+	}
+
+	@Test
+	void testOldLatenciesLeaveTheWindow()
+	{
+		AdaptiveDelayController controller = new AdaptiveDelayController(0, 10000, 0, 1000);
+		for (int i = 0; i < 200; i++)
+			controller.recordLatency(8000);
+		assertEquals(8050, controller.getTargetDelay());
+		for (int i = 0; i < 200; i++)
+			controller.recordLatency(1000);
+		assertEquals(1050, controller.getTargetDelay());
+	}
+}
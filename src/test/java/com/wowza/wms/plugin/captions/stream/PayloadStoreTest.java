@@ -0,0 +1,113 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import com.wowza.wms.amf.AMFPacket;
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.vhost.IVHost;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadStoreTest
+{
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	@Test
+	void testHeapStorageKeepsPayloadArray()
+	{
+		PayloadStore store = newStore(PayloadStore.STORAGE_HEAP, null);
+		byte[] data = payload(100, 1);
+		DelayedPacket packet = packet(data);
+		store.store(packet, data);
+		assertNull(packet.chunk);
+		assertSame(data, store.load(packet));
+	}
+
+	@Test
+	void testDirectStorageRoundTripsAndReusesChunks()
+	{
+		PayloadStore store = newStore(PayloadStore.STORAGE_DIRECT, null);
+		assertRoundTripAndReuse(store);
+		store.close();
+	}
+
+	@Test
+	void testMappedStorageRoundTripsAndRemovesSpillFile() throws IOException
+	{
+		Path dir = Files.createTempDirectory("payload-store-test");
+		PayloadStore store = newStore(PayloadStore.STORAGE_MAPPED, dir);
+		assertRoundTripAndReuse(store);
+		store.close();
+		try (Stream<Path> files = Files.list(dir))
+		{
+			assertEquals(0, files.count());
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	void testPayloadLargerThanChunkStaysOnHeap()
+	{
+		PayloadStore store = newStore(PayloadStore.STORAGE_DIRECT, null);
+		byte[] data = payload(CHUNK_SIZE + 1, 7);
+		DelayedPacket packet = packet(data);
+		store.store(packet, data);
+		assertNull(packet.chunk);
+		assertSame(data, store.load(packet));
+		store.close();
+	}
+
+	private static void assertRoundTripAndReuse(PayloadStore store)
+	{
+		// three rounds of ten 20 KB payloads, each round released before the next, need no more than the first round's chunks
+		for (int round = 0; round < 3; round++)
+		{
+			List<DelayedPacket> packets = new ArrayList<>();
+			List<byte[]> payloads = new ArrayList<>();
+			for (int i = 0; i < 10; i++)
+			{
+				byte[] data = payload(20 * 1024, round * 10 + i);
+				DelayedPacket packet = packet(data);
+				store.store(packet, data);
+				assertNotNull(packet.chunk);
+				packets.add(packet);
+				payloads.add(data);
+			}
+			for (int i = 0; i < packets.size(); i++)
+				assertArrayEquals(payloads.get(i), store.load(packets.get(i)));
+		}
+		assertTrue(store.getStats().contains("chunks=4,"), store.getStats());
+		assertTrue(store.getStats().contains("offHeapBytes=0,"), store.getStats());
+	}
+
+	private static PayloadStore newStore(String storage, Path spillDir)
+	{
+		return new PayloadStore(WMSLoggerFactory.getLogger(PayloadStoreTest.class), "test", storage, CHUNK_SIZE, spillDir);
+	}
+
+	private static DelayedPacket packet(byte[] data)
+	{
+		AMFPacket packet = new AMFPacket(IVHost.CONTENTTYPE_AUDIO, 0, data);
+		packet.setAbsTimecode(1000);
+		return new DelayedPacket(packet);
+	}
+
+	private static byte[] payload(int size, int seed)
+	{
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++)
+			data[i] = (byte) (i * 31 + seed);
+		return data;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimecodeBucketBufferTest
+{
+	private static final Comparator<long[]> BY_TIMECODE_THEN_SEQ = Comparator.<long[]>comparingLong(item -> item[0]).thenComparingLong(item -> item[1]);
+
+	@Test
+	void testInOrderItemsComeOutInOrder()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000);
+		for (int i = 0; i < 100; i++)
+			buffer.add(item(i * 33, i));
+		assertEquals(100, buffer.size());
+		assertEquals(99 * 33, buffer.getLastTimecode());
+		for (int i = 0; i < 100; i++)
+			assertEquals(i * 33, buffer.poll()[0]);
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	void testLateItemIsReordered()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000);
+		buffer.add(item(0, 0));
+		buffer.add(item(40, 1));
+		buffer.add(item(80, 2));
+		buffer.add(item(250, 3));
+		// caption data timed before media already buffered
+		buffer.add(item(60, 4));
+		buffer.add(item(10, 5));
+		assertEquals(List.of(0L, 10L, 40L, 60L, 80L, 250L), drainTimecodes(buffer));
+	}
+
+	@Test
+	void testItemOlderThanHeadIsReleasedNext()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000);
+		buffer.add(item(500, 0));
+		buffer.add(item(700, 1));
+		assertEquals(500, buffer.poll()[0]);
+		buffer.add(item(100, 2));
+		assertEquals(100, buffer.peek()[0]);
+		assertEquals(List.of(100L, 700L), drainTimecodes(buffer));
+	}
+
+	@Test
+	void testFirstAndLastTimecodeFollowBufferedItems()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000);
+		assertEquals(-1, buffer.getFirstTimecode());
+		assertEquals(-1, buffer.getLastTimecode());
+		buffer.add(item(500, 0));
+		buffer.add(item(520, 1));
+		assertEquals(500, buffer.getFirstTimecode());
+		assertEquals(520, buffer.getLastTimecode());
+		buffer.poll();
+		// late items arriving after the newest one
+		buffer.add(item(505, 2));
+		buffer.add(item(510, 3));
+		assertEquals(505, buffer.getFirstTimecode());
+		buffer.poll();
+		buffer.poll();
+		assertEquals(520, buffer.getLastTimecode());
+		assertEquals(520, buffer.poll()[0]);
+		assertEquals(-1, buffer.getLastTimecode());
+		buffer.add(item(900, 4));
+		buffer.add(item(950, 5));
+		assertEquals(900, buffer.poll()[0]);
+		buffer.add(item(700, 6));
+		assertEquals(700, buffer.getFirstTimecode());
+		assertEquals(950, buffer.getLastTimecode());
+		assertEquals(700, buffer.poll()[0]);
+		assertEquals(950, buffer.getLastTimecode());
+	}
+
+	@Test
+	void testPollUntilStopsAtMaxTimecode()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000);
+		buffer.add(item(100, 0));
+		buffer.add(item(200, 1));
+		buffer.add(item(300, 2));
+		assertEquals(100, buffer.pollUntil(250)[0]);
+		assertEquals(200, buffer.pollUntil(250)[0]);
+		assertNull(buffer.pollUntil(250));
+		assertEquals(1, buffer.size());
+	}
+
+	@Test
+	void testSpanLongerThanRingGrowsAndKeepsOrder()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(100);
+		for (int i = 0; i < 500; i++)
+			buffer.add(item(1_000_000 + i * 40L, i));
+		for (int i = 0; i < 500; i++)
+			assertEquals(1_000_000 + i * 40L, buffer.poll()[0]);
+	}
+
+	@Test
+	void testMatchesPriorityQueueOrder()
+	{
+		Random random = new Random(42);
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(3000);
+		PriorityQueue<long[]> expected = new PriorityQueue<>(BY_TIMECODE_THEN_SEQ);
+		long timecode = 0;
+		for (int i = 0; i < 20000; i++)
+		{
+			timecode += random.nextInt(30);
+			// every tenth item arrives up to two seconds late
+			long[] item = item(i % 10 == 0 ? Math.max(0, timecode - random.nextInt(2000)) : timecode, i);
+			buffer.add(item);
+			expected.add(item);
+			if (random.nextInt(3) == 0)
+			{
+				long maxTimecode = timecode - 3000;
+				while (!expected.isEmpty() && expected.peek()[0] <= maxTimecode)
+					assertSame(expected.poll(), buffer.pollUntil(maxTimecode));
+				assertNull(buffer.pollUntil(maxTimecode));
+			}
+		}
+		while (!expected.isEmpty())
+			assertSame(expected.poll(), buffer.poll());
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test
+	void testForwardJumpDoesNotGrowRingOverGap()
+	{
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000, 1000);
+		int bucketCount = buffer.getBucketCount();
+		buffer.add(item(0, 0));
+		buffer.add(item(500, 1));
+		// an hour ahead, then media continuing after the jump and a late packet before it
+		buffer.add(item(3_600_000, 2));
+		buffer.add(item(3_600_040, 3));
+		buffer.add(item(800, 4));
+		buffer.add(item(3_600_020, 5));
+		assertEquals(bucketCount, buffer.getBucketCount());
+		assertEquals(6, buffer.size());
+		assertEquals(3_600_040, buffer.getLastTimecode());
+		assertEquals(List.of(0L, 500L, 800L), List.of(buffer.poll()[0], buffer.poll()[0], buffer.poll()[0]));
+		// the ring continues after the jump
+		buffer.add(item(3_600_100, 6));
+		buffer.add(item(3_600_010, 7));
+		assertEquals(List.of(3_600_000L, 3_600_010L, 3_600_020L, 3_600_040L, 3_600_100L), drainTimecodes(buffer));
+		assertEquals(bucketCount, buffer.getBucketCount());
+	}
+
+	@Test
+	void testMatchesPriorityQueueOrderAcrossJumps()
+	{
+		Random random = new Random(7);
+		TimecodeBucketBuffer<long[]> buffer = newBuffer(1000, 2000);
+		PriorityQueue<long[]> expected = new PriorityQueue<>(BY_TIMECODE_THEN_SEQ);
+		long timecode = 0;
+		for (int i = 0; i < 20000; i++)
+		{
+			// now and then the timeline jumps ahead by up to ten minutes
+			timecode += random.nextInt(500) == 0 ? random.nextInt(600_000) : random.nextInt(30);
+			long[] item = item(i % 10 == 0 ? Math.max(0, timecode - random.nextInt(6000)) : timecode, i);
+			buffer.add(item);
+			expected.add(item);
+			if (random.nextInt(3) == 0)
+			{
+				long maxTimecode = timecode - 1000 - random.nextInt(60_000);
+				while (!expected.isEmpty() && expected.peek()[0] <= maxTimecode)
+					assertSame(expected.poll(), buffer.pollUntil(maxTimecode));
+				assertNull(buffer.pollUntil(maxTimecode));
+				assertEquals(expected.size(), buffer.size());
+			}
+		}
+		assertTrue(buffer.getBucketCount() <= 2 * 2000 / 100 + 16, "buckets " + buffer.getBucketCount());
+		while (!expected.isEmpty())
+			assertSame(expected.poll(), buffer.poll());
+		assertTrue(buffer.isEmpty());
+	}
+
+	private static TimecodeBucketBuffer<long[]> newBuffer(long span)
+	{
+		return newBuffer(span, 60_000);
+	}
+
+	private static TimecodeBucketBuffer<long[]> newBuffer(long span, long maxSpan)
+	{
+		return new TimecodeBucketBuffer<>(100, span, maxSpan, item -> item[0], BY_TIMECODE_THEN_SEQ);
+	}
+
+	private static long[] item(long timecode, long seq)
+	{
+		return new long[] {timecode, seq};
+	}
+
+	private static List<Long> drainTimecodes(TimecodeBucketBuffer<long[]> buffer)
+	{
+		List<Long> timecodes = new ArrayList<>();
+		long[] item;
+		while ((item = buffer.poll()) != null)
+			timecodes.add(item[0]);
+		return timecodes;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.util;
+
+import com.wowza.wms.logging.WMSLoggerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest
+{
+	private final TimerWheel wheel = new TimerWheel(WMSLoggerFactory.getLogger(TimerWheelTest.class), "TimerWheelTest", 5, 8);
+
+	@AfterEach
+	void tearDown()
+	{
+		wheel.stop();
+	}
+
+	@Test
+	void testTimeoutsRunInDeadlineOrderNotBefore() throws InterruptedException
+	{
+		List<Integer> order = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(3);
+		long start = System.nanoTime();
+		// 120 ms is more than one turn of the 8 x 5 ms wheel
+		wheel.schedule(() -> { order.add(120); done.countDown(); }, 120);
+		wheel.schedule(() -> { order.add(10); done.countDown(); }, 10);
+		wheel.schedule(() -> { order.add(50); done.countDown(); }, 50);
+		assertEquals(3, wheel.getPendingCount());
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 120);
+		assertEquals(List.of(10, 50, 120), order);
+		assertEquals(0, wheel.getPendingCount());
+	}
+
+	@Test
+	void testCancelledTimeoutDoesNotRun() throws InterruptedException
+	{
+		CountDownLatch cancelledRan = new CountDownLatch(1);
+		CountDownLatch laterRan = new CountDownLatch(1);
+		TimerWheel.Timeout timeout = wheel.schedule(cancelledRan::countDown, 20);
+		wheel.schedule(laterRan::countDown, 60);
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertTrue(laterRan.await(2, TimeUnit.SECONDS));
+		assertEquals(1, cancelledRan.getCount());
+		assertFalse(timeout.isPending());
+	}
+
+	@Test
+	void testFailingTaskDoesNotStopWheel() throws InterruptedException
+	{
+		CountDownLatch ran = new CountDownLatch(1);
+		wheel.schedule(() -> { throw new IllegalStateException("expected"); }, 0);
+		wheel.schedule(ran::countDown, 30);
+		assertTrue(ran.await(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testIdleWheelSchedulesAgain() throws InterruptedException
+	{
+		CountDownLatch first = new CountDownLatch(1);
+		wheel.schedule(first::countDown, 0);
+		assertTrue(first.await(2, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		CountDownLatch second = new CountDownLatch(1);
+		long start = System.nanoTime();
+		wheel.schedule(second::countDown, 30);
+		assertTrue(second.await(2, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 30);
+	}
+}
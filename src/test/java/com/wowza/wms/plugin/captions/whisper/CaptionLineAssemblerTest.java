@@ -0,0 +1,64 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.plugin.captions.whisper.model.CaptionLine;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptionLineAssemblerTest
+{
+
+	@Test
+	void testWordsArePackedIntoTimedLines()
+	{
+		CaptionLineAssembler assembler = new CaptionLineAssembler("eng", 12, 500);
+		assembler.append(" one two\tthree  four ", 0, 4000);
+		assertEquals(2, assembler.size());
+		assertLine(assembler.pollFirst(), "one two", 0, 2000);
+		assertLine(assembler.pollFirst(), "three four", 2000, 4000);
+	}
+
+	@Test
+	void testCloseResponseContinuesLineWithSingleSpace()
+	{
+		CaptionLineAssembler assembler = new CaptionLineAssembler("eng", 40, 500);
+		assembler.append(" hello", 0, 1000);
+		assembler.append(" world", 1200, 2000);
+		assembler.append(" again", 3000, 3500);
+		assertEquals(2, assembler.size());
+		assertLine(assembler.pollFirst(), "hello world", 0, 2000);
+		assertLine(assembler.pollFirst(), "again", 3000, 3500);
+	}
+
+	@Test
+	void testWhitespaceOnlyTextAddsNothing()
+	{
+		CaptionLineAssembler assembler = new CaptionLineAssembler("eng", 40, 500);
+		assembler.append(" \n ", 0, 1000);
+		assertTrue(assembler.isEmpty());
+	}
+
+	@Test
+	void testRecycledLinesAreReused()
+	{
+		CaptionLineAssembler assembler = new CaptionLineAssembler("eng", 40, 500);
+		assembler.append("first", 0, 1000);
+		CaptionLine line = assembler.pollFirst();
+		assembler.recycle(line);
+		assembler.append("second", 5000, 6000);
+		assertSame(line, assembler.peekLast());
+		assertLine(assembler.pollFirst(), "second", 5000, 6000);
+	}
+
+	private static void assertLine(CaptionLine line, String text, long start, long end)
+	{
+		assertEquals(text, line.getText());
+		assertEquals(start, line.getStartMillis());
+		assertEquals(end, line.getEndMillis());
+	}
+}
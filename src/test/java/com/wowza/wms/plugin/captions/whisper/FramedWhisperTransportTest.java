@@ -0,0 +1,129 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FramedWhisperTransportTest
+{
+	private MockWhisperServer server;
+	private FramedWhisperTransport transport;
+
+	@BeforeEach
+	void setUp() throws Exception
+	{
+		server = new MockWhisperServer();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception
+	{
+		if (transport != null)
+			transport.close();
+		server.close();
+	}
+
+	@Test
+	void testSessionsShareOnePooledConnection() throws Exception
+	{
+		transport = newTransport(1);
+		RecordingListener[] listeners = new RecordingListener[3];
+		WhisperConnection[] connections = new WhisperConnection[3];
+		for (int i = 0; i < connections.length; i++)
+		{
+			listeners[i] = new RecordingListener();
+			connections[i] = transport.connect("localhost", server.getPort(), listeners[i]);
+		}
+		for (int i = 0; i < connections.length; i++)
+		{
+			// split over two buffers, as handed out by a wrapped ring buffer
+			ByteBuffer[] audio = {ByteBuffer.allocate(100 * (i + 1)), ByteBuffer.allocate(10)};
+			assertEquals(100 * (i + 1) + 10, connections[i].write(audio));
+			connections[i].shutdownOutput();
+		}
+		for (int i = 0; i < connections.length; i++)
+		{
+			assertTrue(listeners[i].closed.await(5, TimeUnit.SECONDS));
+			assertEquals(List.of(String.valueOf(100 * (i + 1) + 10)), listeners[i].texts);
+			assertFalse(connections[i].isOpen());
+		}
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	void testSessionsAreSpreadOverPool() throws Exception
+	{
+		transport = newTransport(2);
+		RecordingListener[] listeners = new RecordingListener[4];
+		for (int i = 0; i < listeners.length; i++)
+		{
+			listeners[i] = new RecordingListener();
+			transport.connect("localhost", server.getPort(), listeners[i]).shutdownOutput();
+		}
+		for (RecordingListener listener : listeners)
+			assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	@Test
+	void testLostConnectionClosesSessionsAndIsReplaced() throws Exception
+	{
+		transport = newTransport(1);
+		RecordingListener listener = new RecordingListener();
+		WhisperConnection connection = transport.connect("localhost", server.getPort(), listener);
+		assertTrue(server.awaitConnectionCount(1, 5000));
+		server.disconnectAll();
+		assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+		assertFalse(connection.isOpen());
+
+		RecordingListener next = new RecordingListener();
+		WhisperConnection reconnected = transport.connect("localhost", server.getPort(), next);
+		reconnected.write(new ByteBuffer[]{ByteBuffer.allocate(32)});
+		reconnected.shutdownOutput();
+		assertTrue(next.closed.await(5, TimeUnit.SECONDS));
+		assertEquals(List.of("32"), next.texts);
+		assertEquals(2, server.getConnectionCount());
+	}
+
+	private static FramedWhisperTransport newTransport(int poolSize)
+	{
+		return new FramedWhisperTransport(WMSLoggerFactory.getLogger(FramedWhisperTransportTest.class), (name, task) -> {
+			Thread thread = new Thread(task, name);
+			thread.setDaemon(true);
+			thread.start();
+		}, poolSize);
+	}
+
+	private static class RecordingListener implements WhisperConnection.Listener
+	{
+		private final List<String> texts = new CopyOnWriteArrayList<>();
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public void onResponse(WhisperResponse response)
+		{
+			texts.add(response.getText());
+		}
+
+		@Override
+		public void onClosed()
+		{
+			closed.countDown();
+		}
+	}
+}
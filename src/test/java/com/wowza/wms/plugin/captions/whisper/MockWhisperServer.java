@@ -0,0 +1,136 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.wowza.wms.plugin.captions.whisper.FramedWhisperProtocol.*;
+
+/**
+ * Local Whisper server speaking {@link FramedWhisperProtocol}. For every audio frame it answers with a response whose
+ * text is the number of audio bytes received so far on that session, and it ends a session when the client closes it.
+ */
+class MockWhisperServer implements AutoCloseable
+{
+	private final ServerSocket serverSocket;
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	MockWhisperServer() throws IOException
+	{
+		serverSocket = new ServerSocket(0);
+		Thread acceptor = new Thread(this::accept, "MockWhisperServer.accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	int getConnectionCount()
+	{
+		return connectionCount.get();
+	}
+
+	boolean awaitConnectionCount(int count, long timeoutMillis) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (connectionCount.get() < count && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		return connectionCount.get() >= count;
+	}
+
+	/**
+	 * Drops all client connections without ending their sessions.
+	 */
+	void disconnectAll() throws IOException
+	{
+		for (Socket socket : sockets)
+			socket.close();
+		sockets.clear();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		serverSocket.close();
+		disconnectAll();
+	}
+
+	private void accept()
+	{
+		try
+		{
+			while (!serverSocket.isClosed())
+			{
+				Socket socket = serverSocket.accept();
+				sockets.add(socket);
+				connectionCount.incrementAndGet();
+				Thread reader = new Thread(() -> serve(socket), "MockWhisperServer.serve");
+				reader.setDaemon(true);
+				reader.start();
+			}
+		}
+		catch (IOException e)
+		{
+			// server closed
+		}
+	}
+
+	private void serve(Socket socket)
+	{
+		Map<Integer, Long> audioBytes = new ConcurrentHashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			 DataOutputStream out = new DataOutputStream(socket.getOutputStream()))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (true)
+			{
+				Frame frame = readFrame(in);
+				switch (frame.getType())
+				{
+					case TYPE_OPEN:
+						audioBytes.put(frame.getSessionId(), 0L);
+						break;
+					case TYPE_AUDIO:
+						long total = audioBytes.merge(frame.getSessionId(), (long) frame.getPayload().length, Long::sum);
+						byte[] json = ("{\"language\":\"en\",\"text\":\"" + total + "\",\"start\":0.0,\"end\":1.0}").getBytes(StandardCharsets.UTF_8);
+						putHeader(header, TYPE_RESPONSE, frame.getSessionId(), json.length);
+						out.write(header.array(), 0, header.limit());
+						out.write(json);
+						out.flush();
+						break;
+					case TYPE_CLOSE:
+						audioBytes.remove(frame.getSessionId());
+						putHeader(header, TYPE_END, frame.getSessionId(), 0);
+						out.write(header.array(), 0, header.limit());
+						out.flush();
+						break;
+					default:
+						throw new IOException("Unexpected frame type: " + frame.getType());
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// client went away
+		}
+	}
+}
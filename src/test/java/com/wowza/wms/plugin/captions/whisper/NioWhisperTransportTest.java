@@ -0,0 +1,158 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.wowza.wms.logging.WMSLoggerFactory;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioWhisperTransportTest
+{
+	private ServerSocket serverSocket;
+	private NioWhisperTransport transport;
+
+	@AfterEach
+	void tearDown() throws Exception
+	{
+		if (transport != null)
+			transport.close();
+		if (serverSocket != null)
+			serverSocket.close();
+	}
+
+	@Test
+	void testUnsentAudioStaysWithTheCaller() throws Exception
+	{
+		// a server that accepts but never reads
+		serverSocket = new ServerSocket(0);
+		transport = new NioWhisperTransport(WMSLoggerFactory.getLogger(NioWhisperTransportTest.class), "test", 1);
+		WhisperConnection connection = transport.connect("localhost", serverSocket.getLocalPort(), new RecordingListener());
+		try (Socket ignored = serverSocket.accept())
+		{
+			ByteBuffer audio = ByteBuffer.allocate(64 * 1024);
+			long total = 0;
+			long written = -1;
+			for (int i = 0; i < 1000 && written != 0; i++)
+			{
+				audio.clear();
+				written = connection.write(new ByteBuffer[]{audio});
+				assertEquals(written, audio.position());
+				total += written;
+			}
+			// once the socket buffers are full nothing more is taken
+			assertEquals(0, written);
+			assertTrue(total < 1000L * audio.capacity(), "written " + total);
+		}
+	}
+
+	@Test
+	void testSlowListenerDoesNotHoldUpOtherConnections() throws Exception
+	{
+		serverSocket = new ServerSocket(0);
+		transport = new NioWhisperTransport(WMSLoggerFactory.getLogger(NioWhisperTransportTest.class), "test", 1);
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingListener slow = new RecordingListener()
+		{
+			@Override
+			public void onResponse(WhisperResponse response)
+			{
+				awaitQuietly(release);
+				super.onResponse(response);
+			}
+		};
+		RecordingListener fast = new RecordingListener();
+		transport.connect("localhost", serverSocket.getLocalPort(), slow);
+		try (Socket slowSocket = serverSocket.accept())
+		{
+			transport.connect("localhost", serverSocket.getLocalPort(), fast);
+			try (Socket fastSocket = serverSocket.accept())
+			{
+				respond(slowSocket, "one", "two");
+				respond(fastSocket, "three");
+				fastSocket.close();
+				// both connections share the selector thread, the blocked listener must not stall the other one
+				assertTrue(fast.closed.await(5, TimeUnit.SECONDS));
+				assertEquals(List.of("three"), fast.texts);
+				assertTrue(slow.texts.isEmpty());
+				release.countDown();
+				slowSocket.close();
+				assertTrue(slow.closed.await(5, TimeUnit.SECONDS));
+				// responses and the close arrive in order
+				assertEquals(List.of("one", "two"), slow.texts);
+			}
+		}
+	}
+
+	@Test
+	void testResponsesBeforeEndOfStreamAreDelivered() throws Exception
+	{
+		serverSocket = new ServerSocket(0);
+		transport = new NioWhisperTransport(WMSLoggerFactory.getLogger(NioWhisperTransportTest.class), "test", 1);
+		RecordingListener listener = new RecordingListener();
+		transport.connect("localhost", serverSocket.getLocalPort(), listener);
+		try (Socket socket = serverSocket.accept())
+		{
+			// the last response ends the stream without trailing whitespace, followed by a truncated one
+			respond(socket, "one", "two");
+			socket.getOutputStream().write("{\"language\":\"en\",\"te".getBytes(StandardCharsets.UTF_8));
+			socket.close();
+			assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+			assertEquals(List.of("one", "two"), listener.texts);
+		}
+	}
+
+	private static void respond(Socket socket, String... texts) throws IOException
+	{
+		OutputStream out = socket.getOutputStream();
+		for (String text : texts)
+			out.write(("{\"language\":\"en\",\"text\":\"" + text + "\",\"start\":0.0,\"end\":1.0}").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	private static void awaitQuietly(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class RecordingListener implements WhisperConnection.Listener
+	{
+		protected final List<String> texts = new CopyOnWriteArrayList<>();
+		protected final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public void onResponse(WhisperResponse response)
+		{
+			texts.add(response.getText());
+		}
+
+		@Override
+		public void onClosed()
+		{
+			closed.countDown();
+		}
+	}
+}
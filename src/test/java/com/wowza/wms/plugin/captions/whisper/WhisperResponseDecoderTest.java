@@ -0,0 +1,60 @@
+/*
+ * This code and all components (c) Copyright 2006 - 2025, Wowza Media Systems, LLC.  All rights reserved.
+ * This code is licensed pursuant to the Wowza Public License version 1.0, available at www.wowza.com/legal.
+ */
+
+package com.wowza.wms.plugin.captions.whisper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wowza.wms.plugin.captions.whisper.model.WhisperResponse;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WhisperResponseDecoderTest
+{
+	static String stream = "{\"language\":\"de\",\"text\":\" Guten Tag\",\"start\":1.5,\"end\":2.25}\n" +
+			"{\"text\":\"no language\",\"extra\":{\"text\":\"nested\",\"end\":99},\"words\":[{\"end\":98}],\"end\":3}\n" +
+			"{\"language\":null,\"text\":\"strings\",\"start\":\"4.5\",\"end\":\"5\"}";
+
+	@Test
+	void testMatchesObjectMapper() throws Exception
+	{
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<String> expected = new ArrayList<>();
+		for (String json : stream.split("\n"))
+			expected.add(objectMapper.readValue(json, WhisperResponse.class).toString());
+
+		JsonParser parser = WhisperResponseDecoder.JSON_FACTORY.createParser(stream);
+		WhisperResponseDecoder decoder = new WhisperResponseDecoder();
+		List<String> decoded = new ArrayList<>();
+		WhisperResponse response;
+		while ((response = decoder.next(parser)) != null)
+			decoded.add(response.toString());
+		assertEquals(expected, decoded);
+	}
+
+	@Test
+	void testNonBlockingInputSplitAnywhere() throws Exception
+	{
+		byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+		JsonParser parser = WhisperResponseDecoder.JSON_FACTORY.createNonBlockingByteArrayParser();
+		WhisperResponseDecoder decoder = new WhisperResponseDecoder();
+		List<String> decoded = new ArrayList<>();
+		// feed 7 bytes at a time so tokens and objects are split across reads
+		for (int offset = 0; offset < bytes.length; offset += 7)
+		{
+			((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, offset, Math.min(bytes.length, offset + 7));
+			WhisperResponse response;
+			while ((response = decoder.next(parser)) != null)
+				decoded.add(response.getText() + "|" + response.getLanguage() + "|" + response.getStart() + "|" + response.getEnd());
+		}
+		assertEquals(List.of(" Guten Tag|de|1.5|2.25", "no language|en|0.0|3.0", "strings|null|4.5|5.0"), decoded);
+	}
+}